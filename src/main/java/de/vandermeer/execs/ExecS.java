@@ -15,24 +15,38 @@
 
 package de.vandermeer.execs;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.text.StrTokenizer;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroupFile;
 
 import de.vandermeer.execs.cf.CF;
+import de.vandermeer.execs.cf.CF_ClassGraph;
+import de.vandermeer.execs.cf.CF_Filter;
+import de.vandermeer.execs.cf.CF_RootStats;
+import de.vandermeer.execs.daemon.DS_Request;
+import de.vandermeer.execs.daemon.DS_Server;
 
 /**
  * The application executor.
@@ -42,6 +56,12 @@ import de.vandermeer.execs.cf.CF;
  * @since      v0.0.1
  */
 public class ExecS {
+	/** System property with the default jar filter, patterns separated by comma, used if no filter is set for the executor. */
+	public final static String PROPERTY_JAR_FILTER = "execs.filter.jars";
+
+	/** System property with the default package filter, patterns separated by comma, used if no filter is set for the executor. */
+	public final static String PROPERTY_PACKAGE_FILTER = "execs.filter.packages";
+
 	/** Name of the application for help/usage and printouts. */
 	String appName = "execs";
 
@@ -51,6 +71,12 @@ public class ExecS {
 	/** Filter for package names, this can speed up search process. */
 	String packageFilter = null;
 
+	/** Number of class path roots searched in parallel, 0 or less for the number of available processors. */
+	int parallelism = 0;
+
+	/** Directory for persistent search indexes, null to not use an index. */
+	String cacheDirectory = null;
+
 	/**
 	 * Map of pre-registered applications.
 	 * Use {@link #addApplication(String, Class)} to add your own applications.
@@ -60,12 +86,18 @@ public class ExecS {
 	/** Application version, should be same as the version in the class JavaDoc. */
 	public final static String APP_VERSION = "v0.4.0 build 170413 (13-Apr-17) for Java 1.8";
 
-	/** Set of all classes filled during runtime search */
-	final TreeSet<String> classNames;
+	/** Set of applications added by class name (registry and {@link #addAllApplications(Set)}), list requests add the applications they find to a copy */
+	final ConcurrentSkipListSet<String> classNames;
 
 	/** Local ST Group for printouts. */
 	final STGroupFile stg;
 
+	/** Number of application registry resources found in the class path. */
+	int registryResources;
+
+	/** Flag for using service files (java.util.ServiceLoader) to find applications by name and for lists. */
+	boolean useServices = true;
+
 	/**
 	 * Standard constructor as used via direct command line execution.
 	 */
@@ -81,11 +113,12 @@ public class ExecS {
 		this.appName = (appName==null)?this.appName:appName;
 
 		this.classmap = new TreeMap<String, Class<? extends ExecS_Application>>();
-		this.classNames = new TreeSet<String>();
+		this.classNames = new ConcurrentSkipListSet<String>();
 
 		this.addApplication(Gen_RunScripts.APP_NAME, Gen_RunScripts.class);
 		this.addApplication(Gen_ConfigureSh.APP_NAME, Gen_ConfigureSh.class);
 		this.addApplication(Gen_ExecJarScripts.APP_NAME, Gen_ExecJarScripts.class);
+		this.addRegisteredApplications(ExecS.class.getClassLoader());
 
 		this.stg = new STGroupFile("de/vandermeer/execs/execs.stg");
 	}
@@ -102,7 +135,8 @@ public class ExecS {
 	 * Sets the jar filter for the executor.
 	 * This filter can contain any name of a jar file that should be considered during search.
 	 * If not set, no filter is applied. If the argument is null, no filter is used. Otherwise, all
-	 * strings in the argument are used as jar files and only those jar files will be used in a search.
+	 * strings in the argument are used as patterns for jar file names (see {@link CF_Filter}), only jar files accepted by them will be used in a search.
+	 * Patterns without wildcards match the start of a jar file name, patterns starting with "!" exclude jar files.
 	 * Using filters can speed up the search process.
 	 * Filters can be set any time, a new filter will overwrite an existing one (using null will disable filtering).
 	 * @param filter new array of jar file names for filters, null means do not use any filter. 
@@ -113,7 +147,8 @@ public class ExecS {
 
 	/**
 	 * Sets the filter for package names.
-	 * The string is used using a "starts-with" comparison of any package name during the search process.
+	 * The string contains patterns separated by comma (see {@link CF_Filter}), only classes in packages accepted by them are searched.
+	 * Patterns without wildcards match the start of a package name, patterns starting with "!" exclude packages.
 	 * A filter set to "null" means no package filter is applied.
 	 * Filters can be set any time, a new filter will overwrite an existing one (using null will disable filtering).
 	 * @param filter package filter, null means no filter will be applied
@@ -122,6 +157,34 @@ public class ExecS {
 		this.packageFilter = filter;
 	}
 
+	/**
+	 * Sets the number of class path roots (jar files and directories) searched in parallel.
+	 * This setting can be overwritten in a list request using the "--parallel" option.
+	 * @param parallelism number of parallel searches, 1 for a sequential search, 0 or less to use the number of available processors
+	 */
+	protected final void setParallelism(int parallelism){
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets a directory for persistent search indexes.
+	 * With an index, repeated searches only scan jars and directories that have changed since the last search.
+	 * This setting can be overwritten in a list request using the "--cache" option.
+	 * @param cacheDirectory index directory, null to not use an index
+	 */
+	protected final void setCacheDirectory(String cacheDirectory){
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Activates or deactivates the use of service files ({@code META-INF/services/de.vandermeer.execs.ExecS_Application}, see {@link ExecS_Services}) to find applications.
+	 * If active, applications are found by name in service files and service files are used for lists.
+	 * @param useServices true to use service files (default), false otherwise
+	 */
+	protected final void setUseServices(boolean useServices){
+		this.useServices = useServices;
+	}
+
 	/**
 	 * Adds a new application at runtime, with name (shortcut to start) and related class.
 	 * @param name a unique name for the application
@@ -131,18 +194,97 @@ public class ExecS {
 		this.classmap.put(name, clazz);
 	}
 
+	/**
+	 * Adds all applications from the application registry resources in the class path, see {@link ExecS_Registration}.
+	 * Applications registered with a name are added to the class map, all other applications are added as found applications.
+	 * @param loader class loader to find registry resources and to load applications with
+	 */
+	protected final void addRegisteredApplications(ClassLoader loader){
+		ExecS_Registry registry = new ExecS_Registry();
+		try{
+			registry.load(loader);
+		}
+		catch(IOException ex){
+			System.err.println(this.appName + ": error reading application registry -> " + ex.getMessage());
+		}
+		this.registryResources = registry.getResourceCount();
+
+		for(Entry<String, String> entry : registry.getApplications().entrySet()){
+			if(entry.getValue().length()==0){
+				this.classNames.add(entry.getKey());
+				continue;
+			}
+			try{
+				Class<?> c = Class.forName(entry.getKey(), false, loader);
+				if(ExecS_Application.class.isAssignableFrom(c)){
+					this.addApplication(entry.getValue(), c.asSubclass(ExecS_Application.class));
+				}
+				else{
+					System.err.println(this.appName + ": registered class <" + entry.getKey() + "> is not instance of " + ExecS_Application.class.getName());
+				}
+			}
+			catch(ClassNotFoundException | LinkageError ex){
+				System.err.println(this.appName + ": could not load registered class <" + entry.getKey() + "> -> " + ex.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Adds a set of application at runtime, as in all found applications that can be executed
 	 * @param set a set of applications
 	 */
 	protected final void addAllApplications(Set<Class<?>> set){
 		for(Class<?> cls:set){
-			if(!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers())){
-				if(!this.classmap.containsValue(cls)){
-					this.classNames.add(cls.getName());
-				}
+			this.addFoundApplication(cls);
+		}
+	}
+
+	/**
+	 * Adds a single found application at runtime, if it can be executed and is not registered.
+	 * @param cls the application class
+	 * @return true if the application was added, false if it cannot be executed or is already known
+	 */
+	protected final boolean addFoundApplication(Class<?> cls){
+		return this.addFoundApplication(cls, this.classNames);
+	}
+
+	/**
+	 * Adds a single found application to a set of class names, if it can be executed and is not registered.
+	 * @param cls the application class
+	 * @param names set of class names to add the application to
+	 * @return true if the application was added, false if it cannot be executed or is already known
+	 */
+	protected final boolean addFoundApplication(Class<?> cls, Set<String> names){
+		if(!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers())){
+			return this.addFoundApplication(cls.getName(), names);
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a single found application at runtime by class name, if it is not registered.
+	 * The class is not loaded, the caller must make sure it can be executed (i.e. it is neither abstract nor an interface).
+	 * @param className the class name of the application
+	 * @return true if the application was added, false if it is already known
+	 */
+	protected final boolean addFoundApplication(String className){
+		return this.addFoundApplication(className, this.classNames);
+	}
+
+	/**
+	 * Adds a single found application by class name to a set of class names, if it is not registered.
+	 * The class is not loaded, the caller must make sure it can be executed (i.e. it is neither abstract nor an interface).
+	 * @param className the class name of the application
+	 * @param names set of class names to add the application to
+	 * @return true if the application was added, false if it is already known
+	 */
+	protected final boolean addFoundApplication(String className, Set<String> names){
+		for(Class<? extends ExecS_Application> cls : this.classmap.values()){
+			if(cls.getName().equals(className)){
+				return false;
 			}
 		}
+		return names.add(className);
 	}
 
 	/**
@@ -168,12 +310,11 @@ public class ExecS {
 		}
 		else if("-l".equals(arg) || "--list".equals(arg)){
 			//Second list: if -l or --list -> trigger search and exit(0)
-			CF cf = new CF()
-				.setJarFilter((ArrayUtils.contains(args, "-j"))?this.jarFilter:null)
-				.setPkgFilter((ArrayUtils.contains(args, "-p"))?this.packageFilter:null);
-			this.addAllApplications(cf.getSubclasses(ExecS_Application.class));
-			this.printList();
-			return 0;
+			return this.executeList(args);
+		}
+		else if("--srv-mode".equals(arg)){
+			//Third daemon: if --srv-mode -> execute requests of clients until stopped
+			return new DS_Server().setExecutor(this).executeApplication(args);
 		}
 		else{
 			Object svc = null;
@@ -188,14 +329,19 @@ public class ExecS {
 				}
 			}
 			else{
-				try{
-					Class<?> c = Class.forName(arg);
-					svc = c.newInstance();
+				if(this.useServices){
+					svc = new ExecS_Services(ExecS.class.getClassLoader()).find(arg);
 				}
-				catch(ClassNotFoundException | IllegalAccessException | InstantiationException ex){
-					System.err.println(this.appName + ": tried to execute <" + args[0] + "> as class name -> exception: " + ex.getMessage());
-//					ex.printStackTrace();
-					ret = -99;
+				if(svc==null){
+					try{
+						Class<?> c = Class.forName(arg);
+						svc = c.newInstance();
+					}
+					catch(ClassNotFoundException | IllegalAccessException | InstantiationException ex){
+						System.err.println(this.appName + ": tried to execute <" + args[0] + "> as class name -> exception: " + ex.getMessage());
+//						ex.printStackTrace();
+						ret = -99;
+					}
 				}
 			}
 			ret = this.executeApplication(svc, args, arg);
@@ -209,6 +355,164 @@ public class ExecS {
 		return ret;
 	}
 
+	/**
+	 * Lists all applications: registered applications plus applications found using service files and/or a class path search.
+	 * With "--annotated", applications annotated with {@link ExecS_Registration} are found using a class path search over the class headers, without loading any class; combined with "--scan" the class graph of that scan is used.
+	 * Without "--services", "--scan" or "--annotated", service files are used (if not disabled for the executor) and the class path is only searched if neither a registry nor a service file was found.
+	 * @param args command line arguments, starting with the list option
+	 * @return 0 on success, -1 on error with message on STDERR
+	 */
+	protected int executeList(String[] args){
+		String jars = this.getFilterOption(args, "-j", (this.jarFilter==null)?null:StringUtils.join(this.jarFilter, ','), PROPERTY_JAR_FILTER);
+		CF cf = new CF()
+			.setJarFilter((jars==null)?null:Arrays.asList(StringUtils.split(jars, ',')))
+			.setPkgFilter(this.getFilterOption(args, "-p", this.packageFilter, PROPERTY_PACKAGE_FILTER))
+			.setParallelism(this.parallelism)
+			.setRootHash(ArrayUtils.contains(args, "--root-hash"));
+		String parallel = this.getOptionValue(args, "--parallel");
+		if(parallel!=null){
+			if(!NumberUtils.isDigits(parallel)){
+				System.err.println(this.appName + ": option --parallel requires a number, found <" + parallel + ">");
+				return -1;
+			}
+			cf.setParallelism(Integer.parseInt(parallel));
+		}
+		String timeout = this.getOptionValue(args, "--timeout");
+		if(timeout!=null){
+			if(!NumberUtils.isDigits(timeout)){
+				System.err.println(this.appName + ": option --timeout requires a number of milliseconds, found <" + timeout + ">");
+				return -1;
+			}
+			cf.setScanBudget(Long.parseLong(timeout));
+		}
+		String rootTimeout = this.getOptionValue(args, "--root-timeout");
+		if(rootTimeout!=null){
+			if(!NumberUtils.isDigits(rootTimeout)){
+				System.err.println(this.appName + ": option --root-timeout requires a number of milliseconds, found <" + rootTimeout + ">");
+				return -1;
+			}
+			cf.setRootBudget(Long.parseLong(rootTimeout));
+		}
+		String cache = this.getOptionValue(args, "--cache");
+		if(cache!=null && StringUtils.isBlank(cache)){
+			System.err.println(this.appName + ": option --cache requires a directory");
+			return -1;
+		}
+		cache = (cache==null)?this.cacheDirectory:cache;
+		if(cache!=null){
+			cf.setCacheDirectory(DS_Request.resolve(cache)).setCacheHash(ArrayUtils.contains(args, "--cache-hash"));
+		}
+		String statsFile = this.getOptionValue(args, "--stats-file");
+		if(statsFile!=null && StringUtils.isBlank(statsFile)){
+			System.err.println(this.appName + ": option --stats-file requires a file name");
+			return -1;
+		}
+
+		boolean services = ArrayUtils.contains(args, "--services");
+		boolean scan = ArrayUtils.contains(args, "--scan");
+		boolean annotated = ArrayUtils.contains(args, "--annotated");
+		boolean fallback = false;
+		if(!services && !scan && !annotated){
+			services = this.useServices;
+			fallback = true;
+		}
+
+		//applications found by this request are not kept, so requests of a daemon do not see each other's results
+		Set<String> listed = new TreeSet<>(this.classNames);
+		int found = this.registryResources;
+		if(services){
+			List<Class<? extends ExecS_Application>> types = new ExecS_Services(ExecS.class.getClassLoader()).getTypes();
+			for(Class<?> type : types){
+				this.addFoundApplication(type, listed);
+			}
+			found += types.size();
+		}
+		//print known applications first, then applications found in the class path as soon as they are found
+		this.printListHead();
+		for(String className : listed){
+			this.printListEntry(className);
+		}
+		boolean scanned = scan || (fallback && found==0);
+		if(scanned){
+			//only names are needed for the list, found applications are not loaded
+			cf.findSubclassNames(ExecS_Application.class, name -> {
+				if(!cf.getLastClassGraph().get(name).isAbstract() && this.addFoundApplication(name, listed)){
+					this.printListEntry(name);
+				}
+			});
+		}
+		if(annotated){
+			//a new scan would discard the metrics and incomplete roots of a preceding scan, so its class graph is used
+			CF_ClassGraph graph = (scanned)?cf.getLastClassGraph():null;
+			if(graph==null){
+				graph = cf.getClassGraph();
+			}
+			for(String name : graph.query().subtypeOf(ExecS_Application.class).annotatedWith(ExecS_Registration.class).concrete().find()){
+				if(this.addFoundApplication(name, listed)){
+					this.printListEntry(name);
+				}
+			}
+		}
+		this.printListEnd(listed, cf.getLastIncompleteRoots());
+
+		if(ArrayUtils.contains(args, "--stats")){
+			System.out.println(CF_RootStats.report(cf.getLastStats()));
+		}
+		if(ArrayUtils.contains(args, "--errors")){
+			System.out.println(cf.getLastErrorSummary().report());
+		}
+		if(ArrayUtils.contains(args, "--classpath")){
+			System.out.println("effective class path:");
+			for(File root : cf.getEffectiveClassPath()){
+				System.out.println("  " + root);
+			}
+		}
+		if(statsFile!=null){
+			try(Writer writer = new OutputStreamWriter(new FileOutputStream(DS_Request.resolve(statsFile)), StandardCharsets.UTF_8)){
+				CF_RootStats.write(cf.getLastStats(), writer);
+			}
+			catch(IOException ex){
+				System.err.println(this.appName + ": could not write metrics to <" + statsFile + "> -> " + ex.getMessage());
+				return -1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the patterns of a filter option in the command line arguments.
+	 * The patterns are taken from the argument following the option if it does not start with "-", otherwise the filter of the executor is used or, if not set, the given system property.
+	 * @param args command line arguments
+	 * @param option the option, e.g. "-j"
+	 * @param filter the filter set for the executor, null if not set
+	 * @param property system property for a default filter
+	 * @return patterns separated by comma, null if the option is not used or no filter is found
+	 */
+	protected final String getFilterOption(String[] args, String option, String filter, String property){
+		int index = ArrayUtils.indexOf(args, option);
+		if(index==ArrayUtils.INDEX_NOT_FOUND){
+			return null;
+		}
+		if(index+1<args.length && !args[index+1].startsWith("-")){
+			return args[index+1];
+		}
+		return (filter!=null)?filter:System.getProperty(property);
+	}
+
+	/**
+	 * Returns the value of an option in the command line arguments, i.e. the argument following the option.
+	 * @param args command line arguments
+	 * @param option the option, e.g. "--parallel"
+	 * @return the argument following the option, empty string if the option is the last argument, null if the option is not used
+	 */
+	protected final String getOptionValue(String[] args, String option){
+		int index = ArrayUtils.indexOf(args, option);
+		if(index==ArrayUtils.INDEX_NOT_FOUND){
+			return null;
+		}
+		return (index+1<args.length)?args[index+1]:"";
+	}
+
 	/**
 	 * Executes an application.
 	 * @param svc the application, must not be null
@@ -248,28 +552,78 @@ public class ExecS {
 	protected final void printList(){
 		ST list = this.stg.getInstanceOf("list");
 		list.add("appName", this.appName);
-		if(this.classmap.size()>0){
-			List<Map<String, String>> l = new ArrayList<>();
-			for(String key : this.classmap.keySet()){
-				Map<String, String> m = new HashMap<>();
-				m.put("key", key);
-				m.put("val", this.classmap.get(key).getName());
-				l.add(m);
-			}
-			list.add("classMap", l);
-		}
+		list.add("classMap", this.getClassMapList());
 		list.add("className", this.classNames);
 		System.out.println(list.render());
 	}
 
+	/**
+	 * Returns the pre-registered applications for the list templates.
+	 * @return list of maps with "key" (name) and "val" (class name), null if no application is registered
+	 */
+	protected final List<Map<String, String>> getClassMapList(){
+		if(this.classmap.size()==0){
+			return null;
+		}
+		List<Map<String, String>> ret = new ArrayList<>();
+		for(String key : this.classmap.keySet()){
+			Map<String, String> m = new HashMap<>();
+			m.put("key", key);
+			m.put("val", this.classmap.get(key).getName());
+			ret.add(m);
+		}
+		return ret;
+	}
+
+	/**
+	 * Prints the head of the list of applications with all pre-registered applications, found applications are then printed using {@link #printListEntry(String)}.
+	 */
+	protected final void printListHead(){
+		ST list = this.stg.getInstanceOf("listHead");
+		list.add("appName", this.appName);
+		list.add("classMap", this.getClassMapList());
+		System.out.println(list.render());
+	}
+
+	/**
+	 * Prints a single found application of the list of applications.
+	 * @param className the class name of the application
+	 */
+	protected final void printListEntry(String className){
+		ST entry = this.stg.getInstanceOf("listEntry");
+		entry.add("className", className);
+		System.out.println(entry.render());
+		System.out.flush();
+	}
+
+	/**
+	 * Prints the end of the list of applications.
+	 * @param listed class names of all listed applications, registered ones excluded
+	 * @param incomplete metrics of class path roots that were skipped or not completely searched since a time budget was used up, marked in the list
+	 */
+	protected final void printListEnd(Set<String> listed, List<CF_RootStats> incomplete){
+		if(listed.size()==0){
+			System.out.println(this.stg.getInstanceOf("listNone").render());
+		}
+		if(incomplete.size()>0){
+			ST list = this.stg.getInstanceOf("listIncomplete");
+			list.add("roots", incomplete);
+			System.out.println(list.render());
+		}
+		System.out.println();
+		System.out.println();
+	}
+
 	/**
 	 * Prints usage information to standard out.
 	 */
 	protected final void printUsage(){
 		ST usage = this.stg.getInstanceOf("usage");
 		usage.add("appName", this.appName);
-		usage.add("packageFilter", this.packageFilter);
-		usage.add("jarFilter", this.jarFilter);
+		usage.add("packageFilter", (this.packageFilter!=null)?this.packageFilter:System.getProperty(PROPERTY_PACKAGE_FILTER));
+		usage.add("jarFilter", (this.jarFilter!=null)?this.jarFilter:System.getProperty(PROPERTY_JAR_FILTER));
+		usage.add("parallelism", new CF().setParallelism(this.parallelism).getParallelism());
+		usage.add("cacheDirectory", this.cacheDirectory);
 		usage.add("excludedNames", new TreeSet<>(Arrays.asList(new CF().excludedNames)));
 		System.out.println(usage.render());
 	}
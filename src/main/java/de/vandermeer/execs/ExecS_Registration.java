@@ -0,0 +1,44 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers an application at compile time.
+ * The annotation processor {@link ExecS_RegistryProcessor} writes all annotated applications into a registry resource (see {@link ExecS_Registry}),
+ * which is read by {@link ExecS} at runtime, so that applications are known without searching the class path.
+ * Annotated classes must implement {@link ExecS_Application}.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ExecS_Registration {
+
+	/**
+	 * Returns the name the application is registered with, i.e. the name to execute it.
+	 * @return application name, empty (default) to only list the application by its class name
+	 */
+	String value() default "";
+}
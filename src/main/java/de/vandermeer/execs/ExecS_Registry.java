@@ -0,0 +1,146 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The application registry, read from and written to registry resources.
+ * A registry resource is a UTF-8 text file with one application per line, either {@code name=class} for an application registered with a name or {@code class} for an application listed by class name only.
+ * Empty lines and lines starting with '#' are ignored.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class ExecS_Registry {
+
+	/** Path of registry resources. */
+	public final static String RESOURCE = "META-INF/execs/applications";
+
+	/** Registered applications, class name to application name (empty if registered by class name only), in order of registration. */
+	protected final Map<String, String> applications;
+
+	/** Number of registry resources read. */
+	protected int resources;
+
+	/**
+	 * Returns a new, empty registry.
+	 */
+	public ExecS_Registry(){
+		this.applications = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Adds an application, an application already registered with a name is not changed.
+	 * @param className class name of the application
+	 * @param name application name, null or empty to list the application by class name only
+	 * @return self to allow for chaining
+	 */
+	public ExecS_Registry add(String className, String name){
+		if(StringUtils.isBlank(className)){
+			return this;
+		}
+		String current = this.applications.get(className);
+		if(StringUtils.isEmpty(current)){
+			this.applications.put(className, StringUtils.defaultString(name));
+		}
+		return this;
+	}
+
+	/**
+	 * Returns all registered applications.
+	 * @return map of class name to application name (empty if registered by class name only), in order of registration
+	 */
+	public Map<String, String> getApplications(){
+		return this.applications;
+	}
+
+	/**
+	 * Returns the number of registry resources read.
+	 * @return number of resources read
+	 */
+	public int getResourceCount(){
+		return this.resources;
+	}
+
+	/**
+	 * Reads all registry resources visible to a class loader.
+	 * @param loader class loader to find resources with
+	 * @return self to allow for chaining
+	 * @throws IOException if a resource could not be read
+	 */
+	public ExecS_Registry load(ClassLoader loader) throws IOException{
+		Enumeration<URL> urls = loader.getResources(RESOURCE);
+		while(urls.hasMoreElements()){
+			try(InputStream in = urls.nextElement().openStream()){
+				this.read(in);
+			}
+			this.resources++;
+		}
+		return this;
+	}
+
+	/**
+	 * Reads a single registry resource, the stream is not closed.
+	 * @param in stream to read from
+	 * @return self to allow for chaining
+	 * @throws IOException if reading failed
+	 */
+	public ExecS_Registry read(InputStream in) throws IOException{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null){
+			line = line.trim();
+			if(line.length()==0 || line.startsWith("#")){
+				continue;
+			}
+			int sep = line.indexOf('=');
+			if(sep==-1){
+				this.add(line, null);
+			}
+			else{
+				this.add(line.substring(sep+1).trim(), line.substring(0, sep).trim());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the registry in resource format.
+	 * @param out writer to write to, not closed
+	 * @throws IOException if writing failed
+	 */
+	public void write(Writer out) throws IOException{
+		out.write("# ExecS application registry, generated by " + ExecS_RegistryProcessor.class.getName() + "\n");
+		for(Entry<String, String> entry : this.applications.entrySet()){
+			out.write((entry.getValue().length()==0)?entry.getKey():entry.getValue() + "=" + entry.getKey());
+			out.write("\n");
+		}
+	}
+}
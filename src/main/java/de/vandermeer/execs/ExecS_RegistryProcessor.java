@@ -0,0 +1,162 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor writing all classes annotated with {@link ExecS_Registration} into the registry resource {@link ExecS_Registry#RESOURCE}.
+ * An existing registry resource in the class output (e.g. from an earlier incremental compilation) is merged, entries of the current compilation take precedence.
+ * Entries of classes that no longer exist, or that are compiled again without the annotation, are dropped.
+ * The processor runs for every compilation (supported annotation type "*", no annotation is claimed), so that removing the last annotation updates an existing registry resource as well.
+ * The processor reports an error for annotated elements that are not concrete classes implementing {@link ExecS_Application}.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class ExecS_RegistryProcessor extends AbstractProcessor {
+
+	/** The registry collected over all rounds. */
+	protected final ExecS_Registry registry = new ExecS_Registry();
+
+	/** Binary names of all classes of the compilation collected over all rounds, including nested classes. */
+	protected final Set<String> compiled = new HashSet<>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes(){
+		return Collections.singleton("*");
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion(){
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv){
+		if(roundEnv.processingOver()){
+			this.writeRegistry();
+			return false;
+		}
+
+		for(Element element : roundEnv.getRootElements()){
+			this.addCompiled(element);
+		}
+
+		TypeElement appType = this.processingEnv.getElementUtils().getTypeElement(ExecS_Application.class.getName());
+		TypeMirror app = (appType==null)?null:this.processingEnv.getTypeUtils().erasure(appType.asType());
+		for(Element element : roundEnv.getElementsAnnotatedWith(ExecS_Registration.class)){
+			if(element.getKind()!=ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)){
+				this.processingEnv.getMessager().printMessage(Kind.ERROR, "@" + ExecS_Registration.class.getSimpleName() + " requires a concrete class", element);
+				continue;
+			}
+			if(app!=null && !this.processingEnv.getTypeUtils().isAssignable(element.asType(), app)){
+				this.processingEnv.getMessager().printMessage(Kind.ERROR, "@" + ExecS_Registration.class.getSimpleName() + " requires a class implementing " + ExecS_Application.class.getName(), element);
+				continue;
+			}
+			String className = this.processingEnv.getElementUtils().getBinaryName((TypeElement)element).toString();
+			this.registry.add(className, element.getAnnotation(ExecS_Registration.class).value());
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the binary names of a class and all its nested classes to the compiled classes.
+	 * @param element a root element of the compilation, elements that are not types are ignored
+	 */
+	protected void addCompiled(Element element){
+		if(element instanceof TypeElement){
+			this.compiled.add(this.processingEnv.getElementUtils().getBinaryName((TypeElement)element).toString());
+			for(Element enclosed : element.getEnclosedElements()){
+				this.addCompiled(enclosed);
+			}
+		}
+	}
+
+	/**
+	 * Writes the registry resource, merged with an existing one.
+	 * Existing entries are only kept if their class still resolves, i.e. it was not deleted or renamed since the existing resource was written, and if it is not compiled again without the annotation.
+	 * Nothing is written if there is neither an existing resource nor an annotated class.
+	 */
+	protected void writeRegistry(){
+		ExecS_Registry merged = new ExecS_Registry();
+		boolean existed = false;
+		try{
+			FileObject existing = this.processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ExecS_Registry.RESOURCE);
+			try(InputStream in = existing.openInputStream()){
+				merged.read(in);
+				existed = true;
+			}
+		}
+		catch(IOException ignore){
+			//no existing resource
+		}
+		if(!existed && this.registry.getApplications().size()==0){
+			return;
+		}
+		for(Iterator<String> it = merged.getApplications().keySet().iterator(); it.hasNext();){
+			String className = it.next();
+			if(this.compiled.contains(className) || !this.resolves(className)){
+				//annotated classes of this compilation are added again below
+				it.remove();
+			}
+		}
+		//applications of this compilation replace existing entries
+		merged.getApplications().putAll(this.registry.getApplications());
+
+		try{
+			FileObject resource = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ExecS_Registry.RESOURCE);
+			try(Writer out = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)){
+				merged.write(out);
+			}
+		}
+		catch(IOException ex){
+			this.processingEnv.getMessager().printMessage(Kind.ERROR, "could not write " + ExecS_Registry.RESOURCE + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Tests if the class of a registry entry resolves in the compilation or its class path.
+	 * @param className binary class name of the entry, nested classes are looked up by their canonical name as well
+	 * @return true if the class resolves to a type element, false otherwise
+	 */
+	protected boolean resolves(String className){
+		Elements elements = this.processingEnv.getElementUtils();
+		return elements.getTypeElement(className)!=null || elements.getTypeElement(className.replace('$', '.'))!=null;
+	}
+}
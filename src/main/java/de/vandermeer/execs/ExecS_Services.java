@@ -0,0 +1,250 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Discovery of applications using {@link ServiceLoader}, i.e. service files {@code META-INF/services/de.vandermeer.execs.ExecS_Application} in the class path.
+ * On Java 9 and later, providers are accessed as a stream, so that provider types are known without instantiation and providers are only instantiated on demand.
+ * On Java 8, the service loader iterator is used, which instantiates each provider when it is visited.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class ExecS_Services {
+
+	/** Class loader for service files and providers. */
+	protected final ClassLoader loader;
+
+	/** Errors collected while accessing providers. */
+	protected final List<Throwable> errors;
+
+	/**
+	 * Returns a new service discovery.
+	 * @param loader class loader for service files and providers
+	 */
+	public ExecS_Services(ClassLoader loader){
+		this.loader = loader;
+		this.errors = new ArrayList<>();
+	}
+
+	/**
+	 * Returns the types of all application providers, on Java 9 and later without instantiating them.
+	 * @return provider types in service file order, empty if none found
+	 */
+	public List<Class<? extends ExecS_Application>> getTypes(){
+		List<Class<? extends ExecS_Application>> ret = new ArrayList<>();
+		for(Provider provider : this.providers()){
+			try{
+				ret.add(provider.type());
+			}
+			catch(ServiceConfigurationError error){
+				this.errors.add(error);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds an application provider by name and returns a new instance of it.
+	 * The name is first compared to the provider class name and the name of an {@link ExecS_Registration} annotation of the provider type, then to the application name of each provider instance.
+	 * @param name application or class name
+	 * @return new application instance, null if no provider matches the name
+	 */
+	public ExecS_Application find(String name){
+		if(name==null){
+			return null;
+		}
+
+		List<Provider> providers = this.providers();
+		for(Provider provider : providers){
+			try{
+				Class<? extends ExecS_Application> type = provider.type();
+				ExecS_Registration registration = type.getAnnotation(ExecS_Registration.class);
+				if(name.equals(type.getName()) || (registration!=null && name.equals(registration.value()))){
+					return provider.get();
+				}
+			}
+			catch(ServiceConfigurationError error){
+				this.errors.add(error);
+			}
+		}
+		for(Provider provider : providers){
+			try{
+				ExecS_Application app = provider.get();
+				if(name.equals(app.getAppName())){
+					return app;
+				}
+			}
+			catch(ServiceConfigurationError error){
+				this.errors.add(error);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns errors collected while accessing providers.
+	 * @return collected errors
+	 */
+	public List<Throwable> getLastErrors(){
+		return this.errors;
+	}
+
+	/**
+	 * Returns all providers of a new service loader.
+	 * @return providers, empty if none found
+	 */
+	protected List<Provider> providers(){
+		ServiceLoader<ExecS_Application> serviceLoader = ServiceLoader.load(ExecS_Application.class, this.loader);
+		List<Provider> ret = this.streamProviders(serviceLoader);
+		if(ret!=null){
+			return ret;
+		}
+
+		ret = new ArrayList<>();
+		Iterator<ExecS_Application> it = serviceLoader.iterator();
+		while(true){
+			try{
+				if(!it.hasNext()){
+					break;
+				}
+				ExecS_Application app = it.next();
+				ret.add(new Provider(app.getClass(), () -> app));
+			}
+			catch(ServiceConfigurationError error){
+				this.errors.add(error);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns all providers using the Java 9 stream API of the service loader, accessed by reflection.
+	 * @param serviceLoader the service loader
+	 * @return providers, null if the stream API is not available
+	 */
+	protected List<Provider> streamProviders(ServiceLoader<ExecS_Application> serviceLoader){
+		Method stream;
+		Method type;
+		Method get;
+		try{
+			stream = ServiceLoader.class.getMethod("stream");
+			Class<?> providerClass = Class.forName("java.util.ServiceLoader$Provider");
+			type = providerClass.getMethod("type");
+			get = providerClass.getMethod("get");
+		}
+		catch(NoSuchMethodException | ClassNotFoundException ex){
+			return null;
+		}
+
+		List<Provider> ret = new ArrayList<>();
+		try{
+			Iterator<?> it = ((Stream<?>)stream.invoke(serviceLoader)).iterator();
+			while(true){
+				try{
+					if(!it.hasNext()){
+						break;
+					}
+					Object provider = it.next();
+					ret.add(new Provider(
+							((Class<?>)invoke(type, provider)).asSubclass(ExecS_Application.class),
+							() -> (ExecS_Application)invoke(get, provider)
+					));
+				}
+				catch(ServiceConfigurationError | ClassCastException error){
+					this.errors.add(error);
+				}
+			}
+		}
+		catch(IllegalAccessException | InvocationTargetException ex){
+			this.errors.add(ex);
+			return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * Invokes a provider method, unwrapping service configuration errors.
+	 * @param method the method
+	 * @param provider the provider
+	 * @return method result
+	 * @throws ServiceConfigurationError if the method failed
+	 */
+	protected static Object invoke(Method method, Object provider){
+		try{
+			return method.invoke(provider);
+		}
+		catch(InvocationTargetException ex){
+			if(ex.getCause() instanceof ServiceConfigurationError){
+				throw (ServiceConfigurationError)ex.getCause();
+			}
+			throw new ServiceConfigurationError(ExecS_Application.class.getName() + ": " + ex.getCause(), ex.getCause());
+		}
+		catch(IllegalAccessException ex){
+			throw new ServiceConfigurationError(ExecS_Application.class.getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * An application provider with its type and lazy instantiation.
+	 */
+	protected static class Provider {
+
+		/** The provider type. */
+		protected final Class<? extends ExecS_Application> type;
+
+		/** Supplier for new provider instances. */
+		protected final Supplier<ExecS_Application> instance;
+
+		/**
+		 * Returns a new provider.
+		 * @param type provider type
+		 * @param instance supplier for new provider instances
+		 */
+		protected Provider(Class<? extends ExecS_Application> type, Supplier<ExecS_Application> instance){
+			this.type = type;
+			this.instance = instance;
+		}
+
+		/**
+		 * Returns the provider type.
+		 * @return provider type
+		 */
+		protected Class<? extends ExecS_Application> type(){
+			return this.type;
+		}
+
+		/**
+		 * Returns a provider instance.
+		 * @return provider instance
+		 * @throws ServiceConfigurationError if the provider could not be instantiated
+		 */
+		protected ExecS_Application get(){
+			return this.instance.get();
+		}
+	}
+}
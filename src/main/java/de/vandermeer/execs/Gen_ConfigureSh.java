@@ -25,6 +25,7 @@ import java.util.Properties;
 
 import org.apache.commons.lang3.StringUtils;
 
+import de.vandermeer.execs.daemon.DS_Request;
 import de.vandermeer.execs.options.AO_LibDir;
 import de.vandermeer.execs.options.AO_PropertyFile;
 import de.vandermeer.execs.options.AO_TemplateDir;
@@ -141,7 +142,7 @@ public class Gen_ConfigureSh implements ExecS_Application {
 		Properties ret = new Properties();
 
 		URL url = null;
-		File f = new File(filename.toString());
+		File f = DS_Request.resolve(filename.toString());
 		if(f.exists()){
 			try{
 				url = f.toURI().toURL();
@@ -21,14 +21,19 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 
+import de.vandermeer.execs.cf.CF;
+import de.vandermeer.execs.daemon.DS_Request;
+import de.vandermeer.execs.options.AO_Scan;
 import de.vandermeer.execs.options.ApplicationOption;
 import de.vandermeer.execs.options.ExecS_CliParser;
 
@@ -56,6 +61,9 @@ public class Gen_ExecJarScripts implements ExecS_Application {
 	/** List of application options. */
 	final private ArrayList<ApplicationOption<?>> options = new ArrayList<>();
 
+	/** Option to scan the executable JAR, including nested JARs, for applications that are not registered. */
+	final private AO_Scan optionScan;
+
 	/** Local class map, must be set by calling ExecS instance. */
 	Map<String, Class<? extends ExecS_Application>> execClassMap;
 
@@ -64,6 +72,9 @@ public class Gen_ExecJarScripts implements ExecS_Application {
 	 */
 	public Gen_ExecJarScripts(){
 		this.cli = new ExecS_CliParser();
+
+		this.optionScan = new AO_Scan("Scans the executable JAR for applications that are not registered, including applications in nested JARs (for instance in BOOT-INF/lib of a fat JAR). Scripts for found applications use the class name as script name.");
+		this.addOption(this.optionScan);
 	}
 
 	@Override
@@ -113,7 +124,11 @@ public class Gen_ExecJarScripts implements ExecS_Application {
 			}
 		}
 
-		String dir = System.getProperty("user.dir");
+		if(this.optionScan.isScan()){
+			cmds.addAll(this.scanApplications(jarFn));
+		}
+
+		String dir = DS_Request.getWorkingDirectory();
 		for(String s : cmds){
 			if(SystemUtils.IS_OS_UNIX){
 				String fn = dir + "/" + s + ".sh";
@@ -144,6 +159,33 @@ public class Gen_ExecJarScripts implements ExecS_Application {
 		return 0;
 	}
 
+	/**
+	 * Scans a JAR file, including nested JARs, for applications that are not in the class map.
+	 * Found classes are not loaded, so that applications in nested JARs (which the class loader of the generator cannot load) are found as well.
+	 * @param jarFn the JAR file
+	 * @return class names of all concrete applications, without the applications in the class map and the script generators
+	 */
+	protected List<String> scanApplications(String jarFn){
+		Set<String> skip = new HashSet<>();
+		skip.add(Gen_ConfigureSh.class.getName());
+		skip.add(Gen_RunScripts.class.getName());
+		skip.add(Gen_ExecJarScripts.class.getName());
+		if(this.execClassMap!=null){
+			for(Class<? extends ExecS_Application> cls : this.execClassMap.values()){
+				skip.add(cls.getName());
+			}
+		}
+
+		List<String> ret = new ArrayList<>();
+		CF cf = new CF().setClassPath(jarFn);
+		for(String name : cf.getSubclassNames(ExecS_Application.class)){
+			if(!cf.getLastClassGraph().get(name).isAbstract() && !skip.contains(name)){
+				ret.add(name);
+			}
+		}
+		return ret;
+	}
+
 	/**
 	 * Writes the given lines to the given file, if possible.
 	 * @param file file to write to
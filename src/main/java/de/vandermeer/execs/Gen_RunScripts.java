@@ -30,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroupFile;
 
+import de.vandermeer.execs.daemon.DS_Request;
 import de.vandermeer.execs.options.AO_AppHomeDirectory;
 import de.vandermeer.execs.options.AO_ClassmapFile;
 import de.vandermeer.execs.options.AO_PropertyFile;
@@ -315,7 +316,8 @@ public class Gen_RunScripts implements ExecS_Application {
 
 		String fileName = this.optionStgFile.getValue();
 		try{
-			this.stg = new STGroupFile(fileName);
+			File file = DS_Request.resolve(fileName);
+			this.stg = new STGroupFile((file.exists())?file.getPath():fileName);
 		}
 		catch(Exception e){
 			System.err.println(this.getAppName() + ": cannot load stg file <" + fileName + ">, general exception\n--> " + e);
@@ -395,13 +397,13 @@ public class Gen_RunScripts implements ExecS_Application {
 
 	/**
 	 * Tests and if necessary creates an output directory.
-	 * The root path is the current directory as given by the system property "user.dir".
+	 * The root path is the current directory as given by the system property "user.dir", or the directory of the client for a request of the daemon (see {@link DS_Request#getWorkingDirectory()}).
 	 * The created output directory has the name of the specified target for the generator.
 	 * The method fails if the output directory cannot be created or if it exists and is write protected.
 	 * @return 0 on success with configuration loaded, -1 on error with errors printed on standard error
 	 */
 	protected final int initOutputDir(){
-		String parent = System.getProperty("user.dir");
+		String parent = DS_Request.getWorkingDirectory();
 		String target = parent + File.separator + this.target;
 		File targetDir = new File(target);
 		File parentDir = targetDir.getParentFile();
@@ -447,7 +449,7 @@ public class Gen_RunScripts implements ExecS_Application {
 		Properties ret = new Properties();
 
 		URL url = null;
-		File f = new File(filename.toString());
+		File f = DS_Request.resolve(filename.toString());
 		if(f.exists()){
 			try{
 				url = f.toURI().toURL();
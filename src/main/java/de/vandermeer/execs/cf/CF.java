@@ -17,17 +17,19 @@ package de.vandermeer.execs.cf;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.function.Consumer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -42,17 +44,56 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class CF {
 
+	/** Default directories with nested jar files: Spring Boot fat jars, web archives, and fat jars with a "lib" directory. */
+	public final static String[] NESTED_JAR_DIRECTORIES = new String[]{"BOOT-INF/lib/", "WEB-INF/lib/", "lib/"};
+
 	/** A locator object for jars in the class path. */
 	protected final CF_Locator locator;
 
-	/** A list of errors that might have been collected during a search. */
-	protected final List<Throwable> errors;
+	/** Errors collected during a search, counted per root, type and missing class with a bounded sample (see {@link CF_Errors}). */
+	protected final CF_Errors errors;
 
 	/** A boolean indicating if the locator need to run again, should be true when filters are changed. */
-	protected boolean needsReRun;
+	protected volatile boolean needsReRun;
+
+	/** Ids of processed artifacts: jar entry names for a location search, class path roots for a scan; names are not kept, see {@link CF_LongSet}. */
+	protected final CF_LongSet processed;
+
+	/** Number of class path roots scanned in parallel, 1 for a sequential scan. */
+	protected int parallelism;
+
+	/** Time budget for a scan in milliseconds, 0 for none. */
+	protected long scanBudget;
+
+	/** Time budget for scanning a single class path root in milliseconds, 0 for none. */
+	protected long rootBudget;
+
+	/** Directory for persistent scan indexes, null to not use an index. */
+	protected File cacheDirectory;
+
+	/** Metrics of the class path roots processed by the last scan, in class path order. */
+	protected final List<CF_RootStats> stats;
 
-	/** List of processed artifacts. */
-	protected final Set<String> processed;
+	/** Flag for content hashes in index fingerprints of jar files. */
+	protected boolean cacheHash;
+
+	/** Flag for reading jar files with a memory-mapped reader (see {@link CF_JarReader}) during a scan. */
+	protected boolean mappedJars;
+
+	/** Directories in jar files with nested jar files to scan, for instance "BOOT-INF/lib/" of fat jars, empty to not scan nested jar files. */
+	protected String[] nestedJarDirectories;
+
+	/** The class loader used to load classes found during a search. */
+	protected ClassLoader classLoader;
+
+	/** Cache for open jar files, shared with the locator and closed after each search. */
+	protected final CF_JarCache jarCache;
+
+	/** Class graph of the last scan, null if none. */
+	protected CF_ClassGraph classGraph;
+
+	/** Filter for class names: the package filter of the locator plus the excluded names, compiled for each search. */
+	protected CF_Filter classFilter;
 
 	/** Array of (partial) class and package names that are permanently excluded from search. */
 	public String[] excludedNames = new String[]{
@@ -73,8 +114,14 @@ public class CF {
 	 */
 	public CF(){
 		this.locator = new CF_Locator();
-		this.errors = new ArrayList<Throwable>();
-		this.processed = new HashSet<>();
+		this.jarCache = this.locator.getJarCache();
+		this.errors = new CF_Errors();
+		this.processed = new CF_LongSet();
+		this.stats = Collections.synchronizedList(new ArrayList<CF_RootStats>());
+		this.classLoader = CF.class.getClassLoader();
+		this.mappedJars = true;
+		this.nestedJarDirectories = NESTED_JAR_DIRECTORIES;
+		this.setParallelism(0);
 		this.clearFilters();
 	}
 
@@ -85,6 +132,9 @@ public class CF {
 	public CF clear(){
 		this.errors.clear();
 		this.processed.clear();
+		this.stats.clear();
+		this.classGraph = null;
+		this.classFilter = this.getClassFilter();
 		return this;
 	}
 
@@ -120,35 +170,435 @@ public class CF {
 		return this;
 	}
 
+	/**
+	 * Sets the class path to search.
+	 * @param classPath new class path using the system path separator, set to null to use the system property "java.class.path"
+	 * @return self to allow for chaining
+	 */
+	public CF setClassPath(String classPath){
+		this.locator.setClassPath(classPath);
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Activates following Class-Path attributes in jar manifests, for instance of a pathing jar, activated by default.
+	 * @param manifestClassPath true to add jar files referenced in manifests to the class path, false to use the class path only
+	 * @return self to allow for chaining
+	 */
+	public CF setManifestClassPath(boolean manifestClassPath){
+		this.locator.setManifestClassPath(manifestClassPath);
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Activates content hashes for jar files, so that copies of the same jar file under different names are searched only once, deactivated by default.
+	 * @param rootHash true to use content hashes, false to compare jar files by real path only
+	 * @return self to allow for chaining
+	 */
+	public CF setRootHash(boolean rootHash){
+		this.locator.setRootHash(rootHash);
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Returns the effective class path of the class finder, see {@link CF_Locator#getEffectiveClassPath()}.
+	 * @return effective class path in class path order with canonical files, not filtered by the jar filter
+	 */
+	public List<File> getEffectiveClassPath(){
+		try{
+			return this.locator.getEffectiveClassPath();
+		}
+		finally{
+			this.jarCache.close();
+		}
+	}
+
+	/**
+	 * Sets the class loader used to load classes found during a search.
+	 * The class loader must be able to load all classes in the searched class path.
+	 * @param classLoader new class loader, set to null to use the class loader of the class finder
+	 * @return self to allow for chaining
+	 */
+	public CF setClassLoader(ClassLoader classLoader){
+		this.classLoader = (classLoader==null)?CF.class.getClassLoader():classLoader;
+		return this;
+	}
+
+	/**
+	 * Sets the number of class path roots (jar files and directories) scanned in parallel.
+	 * @param parallelism number of parallel scans, 1 for a sequential scan, 0 or less to use the number of available processors
+	 * @return self to allow for chaining
+	 */
+	public CF setParallelism(int parallelism){
+		this.parallelism = (parallelism<1)?Runtime.getRuntime().availableProcessors():parallelism;
+		return this;
+	}
+
+	/**
+	 * Returns the number of class path roots scanned in parallel.
+	 * @return number of parallel scans, 1 for a sequential scan
+	 */
+	public int getParallelism(){
+		return this.parallelism;
+	}
+
+	/**
+	 * Sets a time budget for scans.
+	 * When the budget is used up, outstanding work is cancelled: roots being scanned are stopped and marked incomplete, roots not yet scanned are skipped.
+	 * The search then returns what has been found so far, see {@link CF_RootStats#isIncomplete()} and {@link CF_RootStats#isSkipped()}.
+	 * Roots in the index are taken from the index even if the budget is used up.
+	 * @param millis budget in milliseconds, 0 or less for none
+	 * @return self to allow for chaining
+	 */
+	public CF setScanBudget(long millis){
+		this.scanBudget = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Returns the time budget for scans.
+	 * @return budget in milliseconds, 0 for none
+	 */
+	public long getScanBudget(){
+		return this.scanBudget;
+	}
+
+	/**
+	 * Sets a time budget for scanning a single class path root, for instance to limit the time spent on a single huge or broken jar file.
+	 * A root that is not scanned within its budget is stopped and marked incomplete, its classes found so far are used.
+	 * Incomplete roots are not stored in the index.
+	 * @param millis budget in milliseconds, 0 or less for none
+	 * @return self to allow for chaining
+	 */
+	public CF setRootBudget(long millis){
+		this.rootBudget = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Returns the time budget for scanning a single class path root.
+	 * @return budget in milliseconds, 0 for none
+	 */
+	public long getRootBudget(){
+		return this.rootBudget;
+	}
+
+	/**
+	 * Sets a directory for persistent scan indexes.
+	 * If set, the results of scanning each class path root are stored in an index file in that directory (one file per searched class) and reused by later searches if the root has not changed.
+	 * @param cacheDirectory index directory, will be created if it does not exist, set to null to not use an index
+	 * @return self to allow for chaining
+	 */
+	public CF setCacheDirectory(File cacheDirectory){
+		this.cacheDirectory = cacheDirectory;
+		return this;
+	}
+
+	/**
+	 * Activates content hashes for index fingerprints of jar files.
+	 * Without a content hash, a jar is considered unchanged if its size and modification time did not change.
+	 * @param cacheHash true to use content hashes, false otherwise
+	 * @return self to allow for chaining
+	 */
+	public CF setCacheHash(boolean cacheHash){
+		this.cacheHash = cacheHash;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of jar files kept open by the jar cache during a search.
+	 * All jar files are closed at the end of each search.
+	 * @param budget maximum number of open jar files, values smaller than 1 are set to 1
+	 * @return self to allow for chaining
+	 */
+	public CF setOpenFileBudget(int budget){
+		this.jarCache.setBudget(budget);
+		return this;
+	}
+
+	/**
+	 * Returns the cache for open jar files, shared by the class finder, its locator and its scanners.
+	 * @return jar cache
+	 */
+	public CF_JarCache getJarCache(){
+		return this.jarCache;
+	}
+
+	/**
+	 * Activates the memory-mapped jar reader for scans, activated by default.
+	 * The mapped reader parses the central directory of a jar file directly, it falls back to {@link java.util.jar.JarFile} for jar files it cannot read.
+	 * It can be deactivated if mapping is not wanted, for instance on systems that lock mapped files.
+	 * @param mappedJars true to use the mapped reader, false to always use {@link java.util.jar.JarFile}
+	 * @return self to allow for chaining
+	 */
+	public CF setMappedJars(boolean mappedJars){
+		this.mappedJars = mappedJars;
+		return this;
+	}
+
+	/**
+	 * Sets the directories in jar files that contain nested jar files to be scanned, default are {@link #NESTED_JAR_DIRECTORIES}.
+	 * A jar entry ending in ".jar" directly or indirectly in one of the directories is scanned as part of the outer jar file, nested jar files must pass the jar filter.
+	 * Nested jar files are not extracted: stored ones are read directly from the outer jar file, compressed ones are read as a stream.
+	 * Only one level of nesting is scanned.
+	 * Found classes are loaded with the class loader of the class finder, which must be able to load classes from nested jar files (as the class loader of a Spring Boot fat jar does).
+	 * @param directories directory names ending in "/", null or none to not scan nested jar files
+	 * @return self to allow for chaining
+	 */
+	public CF setNestedJarDirectories(String ... directories){
+		this.nestedJarDirectories = (directories==null)?new String[0]:directories.clone();
+		return this;
+	}
+
+	/**
+	 * Returns the directories in jar files that contain nested jar files to be scanned.
+	 * @return directory names, empty if nested jar files are not scanned
+	 */
+	public String[] getNestedJarDirectories(){
+		return this.nestedJarDirectories.clone();
+	}
+
+	/**
+	 * Returns a new filter for class names, with the patterns of the package filter plus all excluded names as exclude patterns.
+	 * Excluded names are overruled by more specific include patterns, for instance "org.apache.foo" includes this package although "org.apache." is excluded.
+	 * @return new class filter
+	 */
+	public CF_Filter getClassFilter(){
+		CF_Filter ret = new CF_Filter(this.locator.getPkgFilter().getPatterns());
+		if(this.excludedNames!=null){
+			for(String name : this.excludedNames){
+				ret.exclude(name);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the index for a search, as loaded from the cache directory.
+	 * @param clazz the searched class
+	 * @return loaded index, an empty index if no index file exists or it could not be loaded, null if no cache directory is set
+	 */
+	protected CF_Index getIndex(Class<?> clazz){
+		return this.getIndex(clazz, null);
+	}
+
+	/**
+	 * Returns the index for a search, as loaded from the cache directory, with class names shared with a scan.
+	 * @param clazz the searched class
+	 * @param names pool for the class names of loaded headers, null to not share names
+	 * @return loaded index, an empty index if no index file exists or it could not be loaded, null if no cache directory is set
+	 */
+	protected CF_Index getIndex(Class<?> clazz, CF_NamePool names){
+		if(this.cacheDirectory==null){
+			return null;
+		}
+		CF_Index ret = new CF_Index(
+				new File(this.cacheDirectory, clazz.getName() + ".idx"),
+				clazz.getName(),
+				this.getClassFilter() + ";hash=" + this.cacheHash + ";nested=" + StringUtils.join(this.nestedJarDirectories, ','),
+				this.cacheHash
+		).setNamePool(names);
+		try{
+			ret.load();
+		}
+		catch(IOException ex){
+			this.errors.add(null, ex);
+		}
+		return ret;
+	}
+
 	/**
 	 * Returns a list of errors collected during a search.
+	 * Only a sample of the errors is kept, at most {@link #setErrorSamples(int)} errors for each root, error type and missing class; see {@link #getLastErrorSummary()} for all counts.
 	 * The list will be reset by any new search.
-	 * @return list of collected errors
+	 * @return new list of collected errors
 	 */
 	public List<Throwable> getLastErrors(){
+		return this.errors.getSamples();
+	}
+
+	/**
+	 * Returns the errors collected during a search, counted per class path root, error type and missing class.
+	 * The errors will be reset by any new search.
+	 * @return error aggregator of the last search
+	 */
+	public CF_Errors getLastErrorSummary(){
 		return this.errors;
 	}
 
+	/**
+	 * Sets the number of errors kept for each class path root, error type and missing class, all other errors are only counted.
+	 * @param samples number of errors kept, default is {@link CF_Errors#DEFAULT_SAMPLES}, 0 to only count errors
+	 * @return self to allow for chaining
+	 */
+	public CF setErrorSamples(int samples){
+		this.errors.setSamples(samples);
+		return this;
+	}
+
+	/**
+	 * Returns metrics for each class path root processed by the last scan, see {@link CF_RootStats}.
+	 * The list is a snapshot, roots merged later (for instance while a search is still reporting classes) are not added to it; the original search over all locations does not collect metrics.
+	 * @return unmodifiable list of metrics in class path order
+	 */
+	public List<CF_RootStats> getLastStats(){
+		synchronized(this.stats){
+			return Collections.unmodifiableList(new ArrayList<>(this.stats));
+		}
+	}
+
+	/**
+	 * Returns metrics for all class path roots the last scan skipped or did not scan completely, since a time budget was used up.
+	 * @return list of metrics in class path order, empty if the last scan was complete
+	 */
+	public List<CF_RootStats> getLastIncompleteRoots(){
+		List<CF_RootStats> ret = new ArrayList<>();
+		synchronized(this.stats){
+			for(CF_RootStats s : this.stats){
+				if(s.isIncomplete() || s.isSkipped()){
+					ret.add(s);
+				}
+			}
+		}
+		return ret;
+	}
+
 	/**
 	 * Returns all subclasses found for the given class.
+	 * The search uses a single-pass scanner, that is each jar file and directory in the class path is processed exactly once.
+	 * Class path roots are scanned in parallel as set by {@link #setParallelism(int)}, the result is independent of the parallelism.
 	 * @param clazz class to search for
 	 * @return all found subclasses
 	 */
 	public Set<Class<?>> getSubclasses(Class<?> clazz){
+		if(clazz==null){
+			return new HashSet<Class<?>>();
+		}
+
+		this.clear();
+		try{
+			return new CF_Scanner(this, clazz).scan(this.locator.getCfRoots());
+		}
+		finally{
+			this.jarCache.close();
+		}
+	}
+
+	/**
+	 * Searches for subclasses of the given class and reports each one as soon as it is found.
+	 * The search is the same as for {@link #getSubclasses(Class)}, but found classes are not collected.
+	 * Subclasses are reported in class path order of the jar files and directories they are found in, the consumer is only called from the calling thread.
+	 * @param clazz class to search for
+	 * @param consumer consumer for found subclasses, called once for each subclass
+	 * @return self to allow for chaining
+	 */
+	public CF findSubclasses(Class<?> clazz, Consumer<Class<?>> consumer){
+		if(clazz!=null){
+			this.clear();
+			try{
+				new CF_Scanner(this, clazz).scan(this.locator.getCfRoots(), consumer);
+			}
+			finally{
+				this.jarCache.close();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the class names of all subclasses found for the given class, without loading them.
+	 * Classes outside the class path roots that scanned classes extend or implement are loaded in a throwaway class loader (see {@link CF_IsolatedLoader}), which is closed after the search.
+	 * The search leaves no classes in the class loader of the application, only names and class headers (see {@link #getLastClassGraph()}) are kept.
+	 * @param clazz class to search for
+	 * @return class names of all found subclasses in the order they were found
+	 */
+	public Set<String> getSubclassNames(Class<?> clazz){
+		Set<String> ret = new LinkedHashSet<>();
+		this.findSubclassNames(clazz, ret::add);
+		return ret;
+	}
+
+	/**
+	 * Searches for subclasses of the given class and reports the class name of each one as soon as it is found, without loading them.
+	 * The search is the same as for {@link #getSubclassNames(Class)}, the consumer is only called from the calling thread.
+	 * @param clazz class to search for
+	 * @param consumer consumer for the class names of found subclasses, called once for each subclass
+	 * @return self to allow for chaining
+	 */
+	public CF findSubclassNames(Class<?> clazz, Consumer<String> consumer){
+		if(clazz!=null){
+			this.clear();
+			CF_IsolatedLoader loader = null;
+			try{
+				loader = new CF_IsolatedLoader(this.locator.getEffectiveClassPath(), clazz);
+				new CF_Scanner(this, clazz).setLoader(loader).scanNames(this.locator.getCfRoots(), consumer);
+			}
+			finally{
+				if(loader!=null){
+					try{
+						loader.close();
+					}
+					catch(IOException ignore){}
+				}
+				this.jarCache.close();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Scans the class path and returns a class graph with all classes, for queries such as all subtypes of a class or all implementors of an interface.
+	 * Class path filters and excluded names are applied, no index is used, no class is loaded.
+	 * @return class graph of all classes in the class path
+	 */
+	public CF_ClassGraph getClassGraph(){
+		this.clear();
+		try{
+			return new CF_Scanner(this, null).scanGraph(this.locator.getCfRoots());
+		}
+		finally{
+			this.jarCache.close();
+		}
+	}
+
+	/**
+	 * Returns the class graph built by the last scan.
+	 * If the last scan used an index, the graph only contains the classes relevant for that scan for all roots taken from the index.
+	 * @return class graph of the last scan, null if there was no scan
+	 */
+	public CF_ClassGraph getLastClassGraph(){
+		return this.classGraph;
+	}
+
+	/**
+	 * Returns all subclasses found for the given class searching all locations of the locator.
+	 * This is the original search, which processes every location (package directory) of every jar file separately.
+	 * @param clazz class to search for
+	 * @return all found subclasses
+	 */
+	protected Set<Class<?>> searchLocations(Class<?> clazz){
 		Set<Class<?>> ret = new HashSet<Class<?>>();
 		Set<Class<?>> w = null;
 
 		if(clazz!=null){
 			this.clear();
-			Map<URI, String> locations = this.locator.getCfLocations();
-			for(Entry<URI, String> entry : locations.entrySet()){
-				try{
-					w = search(clazz, entry.getKey(), locations.get(entry.getKey()));
-					if(w!=null && (w.size()>0)){
-						ret.addAll(w);
+			try{
+				Map<URI, String> locations = this.locator.getCfLocations();
+				for(Entry<URI, String> entry : locations.entrySet()){
+					try{
+						w = search(clazz, entry.getKey(), locations.get(entry.getKey()));
+						if(w!=null && (w.size()>0)){
+							ret.addAll(w);
+						}
 					}
+					catch(MalformedURLException ex){}
 				}
-				catch(MalformedURLException ex){}
+			}
+			finally{
+				this.jarCache.close();
 			}
 		}
 
@@ -170,11 +620,11 @@ public class CF {
 
 		Class<?> clazz = null;
 		try{
-			clazz = Class.forName(fqcn);
+			clazz = Class.forName(fqcn, true, this.classLoader);
 		}
 		catch(ClassNotFoundException ex){
 			this.clear();
-			this.errors.add(ex);
+			this.errors.add(null, ex);
 			return new HashSet<Class<?>>();
 		}
 		return getSubclasses(clazz);
@@ -218,13 +668,13 @@ public class CF {
 			if(files[i].endsWith(".class")){
 				String classname = files[i].substring(0, files[i].length()-6);
 				try{
-					Class<?> c = Class.forName(packageName + "." + classname);
+					Class<?> c = Class.forName(packageName + "." + classname, true, this.classLoader);
 					if(clazz.isAssignableFrom(c) && !clazz.getName().equals(packageName + "." + classname)){
 						ret.put(c, location);
 					}
 				}
 				catch(Exception ex){
-					errors.add(ex);
+					this.errors.add(directory, ex);
 				}
 			}
 		}
@@ -240,9 +690,16 @@ public class CF {
 	protected final Map<Class<?>, URI> searchJar(Class<?> clazz, URI location){
 		Map<Class<?>, URI> ret = new HashMap<>();
 
+		File root;
 		try{
-			JarURLConnection conn = (JarURLConnection)location.toURL().openConnection();
-			JarFile jarFile = conn.getJarFile();
+			root = CF_Utils.getJarFile(location);
+		}
+		catch(IOException ex){
+			this.errors.add(null, ex);
+			return ret;
+		}
+		try(CF_JarCache.Handle handle = this.jarCache.acquire(root)){
+			JarFile jarFile = handle.getJarFile();
 
 			for(Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();){
 				JarEntry entry = e.nextElement();
@@ -258,25 +715,25 @@ public class CF {
 						classname = classname.substring(1);
 					}
 					classname = classname.replace('/','.');
-					if(!StringUtils.startsWithAny(classname, this.excludedNames)){
+					if(this.classFilter.accepts(classname)){
 						try{
-							Class<?> c = Class.forName(classname);
+							Class<?> c = Class.forName(classname, true, this.classLoader);
 							if(clazz.isAssignableFrom(c) && !clazz.getName().equals(classname)){
 								ret.put(c, location);
 							}
 						}
 						catch(Exception exception){
-							errors.add(exception);
+							this.errors.add(root, exception);
 						}
 						catch(Error error){
-							errors.add(error);
+							this.errors.add(root, error);
 						}
 					}
 				}
 			}
 		}
 		catch(IOException ignore){
-			errors.add(ignore);
+			this.errors.add(root, ignore);
 		}
 
 		return ret;
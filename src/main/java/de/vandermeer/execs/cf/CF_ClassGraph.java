@@ -0,0 +1,284 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory class hierarchy graph built from class headers (see {@link CF_ClassHeader}), resolved across all scanned jars and directories.
+ * 
+ * Each class is linked to its super class and interfaces, and each type to its direct subtypes.
+ * The graph answers queries like all subtypes of a class or all implementors of an interface by traversal, without loading any class and without scanning again.
+ * Classes are also indexed by annotation and by package, combined queries are created with {@link #query()}.
+ * Types that are not in the graph (for instance JDK classes or excluded packages) are known by name only: their direct subtypes in the graph are known, their own super types are not.
+ * Classes are added in class path order, for classes found more than once the first one is used as a class loader would do.
+ * The graph is not thread safe.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_ClassGraph {
+
+	/** Headers of all classes in the graph by name, in the order they were added. */
+	protected final Map<String, CF_ClassHeader> classes;
+
+	/** Direct subtypes by type name, for types in the graph as well as types known by name only. */
+	protected final Map<String, List<String>> subtypes;
+
+	/** Classes by annotation name. */
+	protected final Map<String, List<String>> annotated;
+
+	/** Classes by package name, the empty string for the default package. */
+	protected final Map<String, List<String>> packages;
+
+	/**
+	 * Returns a new empty graph.
+	 */
+	public CF_ClassGraph(){
+		this.classes = new LinkedHashMap<>();
+		this.subtypes = new HashMap<>();
+		this.annotated = new HashMap<>();
+		this.packages = new HashMap<>();
+	}
+
+	/**
+	 * Adds a class to the graph, unless a class with the same name is already in the graph.
+	 * @param header the class header
+	 * @return true if the class was added, false if a class with the same name was already in the graph
+	 */
+	public boolean add(CF_ClassHeader header){
+		if(this.classes.containsKey(header.getName())){
+			return false;
+		}
+		this.classes.put(header.getName(), header);
+		if(header.getSuperName()!=null){
+			this.link(header.getSuperName(), header.getName());
+		}
+		for(String s : header.getInterfaces()){
+			this.link(s, header.getName());
+		}
+		for(String s : header.getAnnotations()){
+			put(this.annotated, s, header.getName());
+		}
+		put(this.packages, getPackageName(header.getName()), header.getName());
+		return true;
+	}
+
+	/**
+	 * Links a type to a direct subtype.
+	 * @param type the type
+	 * @param subtype the direct subtype
+	 */
+	protected void link(String type, String subtype){
+		put(this.subtypes, type, subtype);
+	}
+
+	/**
+	 * Adds a class name to the list of a key in an index map.
+	 * @param map the index map
+	 * @param key the key
+	 * @param name the class name
+	 */
+	protected static void put(Map<String, List<String>> map, String key, String name){
+		List<String> list = map.get(key);
+		if(list==null){
+			list = new ArrayList<>(2);
+			map.put(key, list);
+		}
+		list.add(name);
+	}
+
+	/**
+	 * Returns the package name of a class.
+	 * @param name class name
+	 * @return package name, empty string for the default package
+	 */
+	public static String getPackageName(String name){
+		int pos = name.lastIndexOf('.');
+		return (pos==-1)?"":name.substring(0, pos);
+	}
+
+	/**
+	 * Returns the simple name of a class, for nested classes the part after the last '$'.
+	 * @param name class name
+	 * @return simple name
+	 */
+	public static String getSimpleName(String name){
+		return name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1);
+	}
+
+	/**
+	 * Returns the number of classes in the graph.
+	 * @return number of classes
+	 */
+	public int size(){
+		return this.classes.size();
+	}
+
+	/**
+	 * Tests if a class is in the graph.
+	 * @param name class name
+	 * @return true if in the graph, false otherwise
+	 */
+	public boolean contains(String name){
+		return this.classes.containsKey(name);
+	}
+
+	/**
+	 * Returns the header of a class.
+	 * @param name class name
+	 * @return class header, null if the class is not in the graph
+	 */
+	public CF_ClassHeader get(String name){
+		return this.classes.get(name);
+	}
+
+	/**
+	 * Returns the names of all classes in the graph.
+	 * @return class names in the order they were added
+	 */
+	public Set<String> getClassNames(){
+		return Collections.unmodifiableSet(this.classes.keySet());
+	}
+
+	/**
+	 * Returns the direct subtypes of a type.
+	 * @param name type name, the type does not need to be in the graph
+	 * @return names of classes in the graph directly extending or implementing the type, empty list if none
+	 */
+	public List<String> getDirectSubtypes(String name){
+		List<String> ret = this.subtypes.get(name);
+		return (ret==null)?Collections.<String>emptyList():Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * Returns all classes carrying an annotation.
+	 * @param name annotation name, the annotation does not need to be in the graph
+	 * @return names of classes in the graph annotated with the annotation, empty list if none
+	 */
+	public List<String> getAnnotated(String name){
+		List<String> ret = this.annotated.get(name);
+		return (ret==null)?Collections.<String>emptyList():Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * Returns all classes of a package, without sub packages.
+	 * @param name package name, empty string for the default package
+	 * @return names of classes in the graph in the package, empty list if none
+	 */
+	public List<String> getPackageClasses(String name){
+		List<String> ret = this.packages.get(name);
+		return (ret==null)?Collections.<String>emptyList():Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * Returns the names of all packages in the graph.
+	 * @return package names, the empty string for the default package
+	 */
+	public Set<String> getPackageNames(){
+		return Collections.unmodifiableSet(this.packages.keySet());
+	}
+
+	/**
+	 * Returns a new query over this graph.
+	 * @return new query without criteria
+	 */
+	public CF_Query query(){
+		return new CF_Query(this);
+	}
+
+	/**
+	 * Returns all subtypes of a type, direct and indirect.
+	 * @param name type name, the type does not need to be in the graph
+	 * @return names of all classes in the graph extending or implementing the type, directly or indirectly, in breadth-first order, empty set if none
+	 */
+	public Set<String> getSubtypes(String name){
+		Set<String> ret = new LinkedHashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(name);
+		while(!queue.isEmpty()){
+			for(String s : this.getDirectSubtypes(queue.poll())){
+				if(ret.add(s)){
+					queue.add(s);
+				}
+			}
+		}
+		ret.remove(name);
+		return ret;
+	}
+
+	/**
+	 * Returns all implementors of a type, that is all subtypes that are neither interfaces nor abstract classes.
+	 * @param name type name, for instance an interface, the type does not need to be in the graph
+	 * @return names of all concrete classes in the graph extending or implementing the type, directly or indirectly, empty set if none
+	 */
+	public Set<String> getImplementors(String name){
+		Set<String> ret = new LinkedHashSet<>();
+		for(String s : this.getSubtypes(name)){
+			if(!this.classes.get(s).isAbstract()){
+				ret.add(s);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns all super types of a class as far as known in the graph.
+	 * @param name class name
+	 * @return names of all super classes and interfaces, direct and indirect, including types known by name only, empty set if none or the class is not in the graph
+	 */
+	public Set<String> getSupertypes(String name){
+		Set<String> ret = new LinkedHashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(name);
+		while(!queue.isEmpty()){
+			CF_ClassHeader header = this.classes.get(queue.poll());
+			if(header==null){
+				continue;
+			}
+			if(header.getSuperName()!=null && ret.add(header.getSuperName())){
+				queue.add(header.getSuperName());
+			}
+			for(String s : header.getInterfaces()){
+				if(ret.add(s)){
+					queue.add(s);
+				}
+			}
+		}
+		ret.remove(name);
+		return ret;
+	}
+
+	/**
+	 * Tests if a class is a subtype of a type as far as known in the graph.
+	 * @param name class name
+	 * @param type type name
+	 * @return true if the class extends or implements the type directly or indirectly, false otherwise
+	 */
+	public boolean isSubtype(String name, String type){
+		return this.getSupertypes(name).contains(type);
+	}
+}
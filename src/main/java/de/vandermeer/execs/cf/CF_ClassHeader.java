@@ -0,0 +1,438 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The header of a class file: access flags, class name, super class name, names of implemented interfaces and names of class annotations.
+ * The header is read directly from the bytes of a class file, the class is not loaded.
+ * All names are fully qualified class names, i.e. with '.' as package separator.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_ClassHeader {
+
+	/** Access flag for interfaces. */
+	public final static int ACC_INTERFACE = 0x0200;
+
+	/** Access flag for abstract classes. */
+	public final static int ACC_ABSTRACT = 0x0400;
+
+	/** Empty array of interface names. */
+	protected final static String[] NO_INTERFACES = new String[0];
+
+	/** Name of the attribute for runtime visible annotations. */
+	protected final static byte[] RUNTIME_VISIBLE = "RuntimeVisibleAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Name of the attribute for runtime invisible annotations. */
+	protected final static byte[] RUNTIME_INVISIBLE = "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Class access flags. */
+	protected final int access;
+
+	/** Name of the class. */
+	protected String name;
+
+	/** Name of the super class, null for java.lang.Object and module descriptors. */
+	protected String superName;
+
+	/** Names of the directly implemented interfaces. */
+	protected final String[] interfaces;
+
+	/** Names of the annotations of the class, runtime visible and invisible (class retention). */
+	protected final String[] annotations;
+
+	/**
+	 * Returns a new class header.
+	 * @param access class access flags
+	 * @param name name of the class
+	 * @param superName name of the super class, null if none
+	 * @param interfaces names of the directly implemented interfaces
+	 */
+	public CF_ClassHeader(int access, String name, String superName, String[] interfaces){
+		this(access, name, superName, interfaces, null);
+	}
+
+	/**
+	 * Returns a new class header.
+	 * @param access class access flags
+	 * @param name name of the class
+	 * @param superName name of the super class, null if none
+	 * @param interfaces names of the directly implemented interfaces
+	 * @param annotations names of the class annotations
+	 */
+	public CF_ClassHeader(int access, String name, String superName, String[] interfaces, String[] annotations){
+		this.access = access;
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = (interfaces==null)?NO_INTERFACES:interfaces;
+		this.annotations = (annotations==null)?NO_INTERFACES:annotations;
+	}
+
+	/**
+	 * Returns the class access flags.
+	 * @return access flags
+	 */
+	public int getAccess(){
+		return this.access;
+	}
+
+	/**
+	 * Returns the name of the class.
+	 * @return class name
+	 */
+	public String getName(){
+		return this.name;
+	}
+
+	/**
+	 * Returns the name of the super class.
+	 * @return super class name, null if none
+	 */
+	public String getSuperName(){
+		return this.superName;
+	}
+
+	/**
+	 * Returns the names of the directly implemented interfaces.
+	 * @return interface names, empty array if none
+	 */
+	public String[] getInterfaces(){
+		return this.interfaces;
+	}
+
+	/**
+	 * Returns the names of the class annotations.
+	 * @return annotation names, empty array if none
+	 */
+	public String[] getAnnotations(){
+		return this.annotations;
+	}
+
+	/**
+	 * Tests if the class is annotated with a given annotation.
+	 * @param annotation name of the annotation
+	 * @return true if the class carries the annotation, false otherwise
+	 */
+	public boolean isAnnotatedWith(String annotation){
+		for(String s : this.annotations){
+			if(s.equals(annotation)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests if the class is an interface or an abstract class.
+	 * @return true if interface or abstract, false otherwise
+	 */
+	public boolean isAbstract(){
+		return (this.access & (ACC_INTERFACE | ACC_ABSTRACT))!=0;
+	}
+
+	/**
+	 * Replaces all names of the header by shared instances from a pool.
+	 * @param names the pool
+	 * @return self to allow for chaining
+	 */
+	protected CF_ClassHeader share(CF_NamePool names){
+		this.name = names.share(this.name);
+		this.superName = names.share(this.superName);
+		if(this.interfaces.length>0){
+			names.share(this.interfaces);
+		}
+		if(this.annotations.length>0){
+			names.share(this.annotations);
+		}
+		return this;
+	}
+
+	/**
+	 * Reads a class header from the bytes of a class file.
+	 * The constant pool and the fields following it up to the interfaces are parsed.
+	 * Fields and methods are skipped, of the class attributes only annotations are parsed.
+	 * @param bytes class file bytes
+	 * @return class header
+	 * @throws IOException if the bytes are not a valid class file
+	 */
+	public static CF_ClassHeader read(byte[] bytes) throws IOException{
+		return read(bytes, null);
+	}
+
+	/**
+	 * Reads a class header from the bytes of a class file, with names shared using a pool.
+	 * @param bytes class file bytes
+	 * @param names pool for class names, null to not share names
+	 * @return class header
+	 * @throws IOException if the bytes are not a valid class file
+	 */
+	public static CF_ClassHeader read(byte[] bytes, CF_NamePool names) throws IOException{
+		if(bytes==null || bytes.length<10 || readInt(bytes, 0)!=0xCAFEBABE){
+			throw new IOException("not a class file");
+		}
+
+		int count = readShort(bytes, 8);
+		int[] offsets = new int[count];
+		int pos = 10;
+		try{
+			for(int i=1; i<count; i++){
+				offsets[i] = pos;
+				switch(bytes[pos]){
+					case 1:
+						pos += 3 + readShort(bytes, pos+1);
+						break;
+					case 7: case 8: case 16: case 19: case 20:
+						pos += 3;
+						break;
+					case 15:
+						pos += 4;
+						break;
+					case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+						pos += 5;
+						break;
+					case 5: case 6:
+						pos += 9;
+						i++;
+						break;
+					default:
+						throw new IOException("unknown constant pool tag " + bytes[pos] + " at index " + i);
+				}
+			}
+
+			int access = readShort(bytes, pos);
+			String name = className(bytes, offsets, readShort(bytes, pos+2));
+			String superName = className(bytes, offsets, readShort(bytes, pos+4));
+			int icount = readShort(bytes, pos+6);
+			String[] interfaces = (icount==0)?NO_INTERFACES:new String[icount];
+			for(int i=0; i<icount; i++){
+				interfaces[i] = className(bytes, offsets, readShort(bytes, pos+8+i*2));
+			}
+			String[] annotations = annotations(bytes, offsets, pos+8+icount*2);
+			CF_ClassHeader ret = new CF_ClassHeader(access, name, superName, interfaces, annotations);
+			return (names==null)?ret:ret.share(names);
+		}
+		catch(ArrayIndexOutOfBoundsException ex){
+			throw new IOException("truncated class file", ex);
+		}
+	}
+
+	/**
+	 * Skips fields and methods and returns the annotation names from the class attributes.
+	 * @param bytes class file bytes
+	 * @param offsets offsets of all constant pool entries
+	 * @param pos position of the fields count
+	 * @return annotation names, empty array if none
+	 * @throws IOException if an annotation entry is not valid
+	 */
+	protected static String[] annotations(byte[] bytes, int[] offsets, int pos) throws IOException{
+		if(pos+2>bytes.length){
+			//header only, no members or attributes to parse
+			return NO_INTERFACES;
+		}
+		for(int m=0; m<2; m++){
+			int count = readShort(bytes, pos);
+			pos += 2;
+			for(int i=0; i<count; i++){
+				pos = skipAttributes(bytes, pos+6);
+			}
+		}
+
+		String[] ret = NO_INTERFACES;
+		int count = readShort(bytes, pos);
+		pos += 2;
+		for(int i=0; i<count; i++){
+			int utf = readShort(bytes, pos);
+			int length = readInt(bytes, pos+2);
+			if(isUtf8(bytes, offsets, utf, RUNTIME_VISIBLE) || isUtf8(bytes, offsets, utf, RUNTIME_INVISIBLE)){
+				int acount = readShort(bytes, pos+6);
+				int apos = pos+8;
+				String[] found = new String[ret.length + acount];
+				System.arraycopy(ret, 0, found, 0, ret.length);
+				for(int k=0; k<acount; k++){
+					found[ret.length+k] = descriptor(bytes, offsets, readShort(bytes, apos));
+					apos = skipAnnotation(bytes, apos);
+				}
+				ret = found;
+			}
+			pos += 6 + length;
+		}
+		return ret;
+	}
+
+	/**
+	 * Skips the attributes of a field or method.
+	 * @param bytes class file bytes
+	 * @param pos position of the attributes count
+	 * @return position after the attributes
+	 */
+	protected static int skipAttributes(byte[] bytes, int pos){
+		int count = readShort(bytes, pos);
+		pos += 2;
+		for(int i=0; i<count; i++){
+			pos += 6 + readInt(bytes, pos+2);
+		}
+		return pos;
+	}
+
+	/**
+	 * Skips an annotation including all of its element values.
+	 * @param bytes class file bytes
+	 * @param pos position of the annotation type index
+	 * @return position after the annotation
+	 * @throws IOException if an element value has an unknown tag
+	 */
+	protected static int skipAnnotation(byte[] bytes, int pos) throws IOException{
+		int count = readShort(bytes, pos+2);
+		pos += 4;
+		for(int i=0; i<count; i++){
+			pos = skipElementValue(bytes, pos+2);
+		}
+		return pos;
+	}
+
+	/**
+	 * Skips an element value of an annotation.
+	 * @param bytes class file bytes
+	 * @param pos position of the element value tag
+	 * @return position after the element value
+	 * @throws IOException if the element value has an unknown tag
+	 */
+	protected static int skipElementValue(byte[] bytes, int pos) throws IOException{
+		switch(bytes[pos]){
+			case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+				return pos + 3;
+			case 'e':
+				return pos + 5;
+			case '@':
+				return skipAnnotation(bytes, pos+1);
+			case '[':
+				int count = readShort(bytes, pos+1);
+				pos += 3;
+				for(int i=0; i<count; i++){
+					pos = skipElementValue(bytes, pos);
+				}
+				return pos;
+			default:
+				throw new IOException("unknown annotation element tag " + bytes[pos]);
+		}
+	}
+
+	/**
+	 * Tests if a constant pool entry is a string with the given content.
+	 * @param bytes class file bytes
+	 * @param offsets offsets of all constant pool entries
+	 * @param index index of the entry
+	 * @param expected expected string as bytes
+	 * @return true if the entry is a string equal to the expected bytes, false otherwise
+	 */
+	protected static boolean isUtf8(byte[] bytes, int[] offsets, int index, byte[] expected){
+		if(index<=0 || index>=offsets.length || bytes[offsets[index]]!=1 || readShort(bytes, offsets[index]+1)!=expected.length){
+			return false;
+		}
+		int start = offsets[index] + 3;
+		for(int i=0; i<expected.length; i++){
+			if(bytes[start+i]!=expected[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a class name from a field descriptor in the constant pool.
+	 * @param bytes class file bytes
+	 * @param offsets offsets of all constant pool entries
+	 * @param index index of a string entry with a descriptor of the form 'Lpkg/Name;'
+	 * @return class name with '.' as package separator
+	 * @throws IOException if the index does not point to a descriptor
+	 */
+	protected static String descriptor(byte[] bytes, int[] offsets, int index) throws IOException{
+		if(index<=0 || index>=offsets.length || bytes[offsets[index]]!=1){
+			throw new IOException("constant pool index " + index + " is not a string");
+		}
+		String ret = utf8(bytes, offsets[index]);
+		if(ret.length()<3 || ret.charAt(0)!='L' || ret.charAt(ret.length()-1)!=';'){
+			throw new IOException("constant pool index " + index + " is not a class descriptor");
+		}
+		return ret.substring(1, ret.length()-1).replace('/', '.');
+	}
+
+	/**
+	 * Returns a class name from the constant pool.
+	 * @param bytes class file bytes
+	 * @param offsets offsets of all constant pool entries
+	 * @param index index of a class entry, 0 for none
+	 * @return class name with '.' as package separator, null for index 0
+	 * @throws IOException if the index does not point to a class entry
+	 */
+	protected static String className(byte[] bytes, int[] offsets, int index) throws IOException{
+		if(index==0){
+			return null;
+		}
+		if(index>=offsets.length || bytes[offsets[index]]!=7){
+			throw new IOException("constant pool index " + index + " is not a class");
+		}
+		int utf = readShort(bytes, offsets[index]+1);
+		if(utf>=offsets.length || bytes[offsets[utf]]!=1){
+			throw new IOException("constant pool index " + utf + " is not a string");
+		}
+		return utf8(bytes, offsets[utf]).replace('/', '.');
+	}
+
+	/**
+	 * Decodes a (modified UTF-8) string from the constant pool.
+	 * @param bytes class file bytes
+	 * @param offset offset of the string entry
+	 * @return decoded string
+	 * @throws IOException if decoding failed
+	 */
+	protected static String utf8(byte[] bytes, int offset) throws IOException{
+		int length = readShort(bytes, offset+1);
+		for(int i=offset+3; i<offset+3+length; i++){
+			if(bytes[i]<0){
+				return new DataInputStream(new ByteArrayInputStream(bytes, offset+1, length+2)).readUTF();
+			}
+		}
+		return new String(bytes, offset+3, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Reads an unsigned 2 byte value.
+	 * @param bytes byte array
+	 * @param pos position
+	 * @return value
+	 */
+	protected static int readShort(byte[] bytes, int pos){
+		return ((bytes[pos] & 0xFF) << 8) | (bytes[pos+1] & 0xFF);
+	}
+
+	/**
+	 * Reads a 4 byte value.
+	 * @param bytes byte array
+	 * @param pos position
+	 * @return value
+	 */
+	protected static int readInt(byte[] bytes, int pos){
+		return (readShort(bytes, pos) << 16) | readShort(bytes, pos+2);
+	}
+}
@@ -0,0 +1,246 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An aggregator for errors collected during a search.
+ * Errors are counted per class path root, error type and missing class (for errors caused by a class that could not be found).
+ * Only a bounded sample of the errors of each group is kept, all other errors are counted and dropped, so that many errors of the same kind (for instance thousands of {@link NoClassDefFoundError} for an optional dependency) cost neither heap nor time for bookkeeping.
+ * The aggregator is thread safe.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_Errors {
+
+	/** Default number of errors kept per group. */
+	public final static int DEFAULT_SAMPLES = 3;
+
+	/** Error groups by key (root, type and missing class), in order of the first error. */
+	protected final Map<String, Group> groups;
+
+	/** Number of errors kept per group. */
+	protected int samples;
+
+	/** Number of all errors. */
+	protected long count;
+
+	/**
+	 * Returns a new aggregator with the default sample size.
+	 */
+	public CF_Errors(){
+		this.groups = new LinkedHashMap<>();
+		this.samples = DEFAULT_SAMPLES;
+	}
+
+	/**
+	 * Sets the number of errors kept per group.
+	 * @param samples number of errors kept, 0 to only count errors
+	 * @return self to allow for chaining
+	 */
+	public synchronized CF_Errors setSamples(int samples){
+		this.samples = Math.max(0, samples);
+		return this;
+	}
+
+	/**
+	 * Adds an error.
+	 * @param root the class path root the error occurred for, null if not for a root
+	 * @param error the error
+	 */
+	public synchronized void add(File root, Throwable error){
+		String type = error.getClass().getName();
+		String missing = getMissingClass(error);
+		String key = ((root==null)?"":root.getPath()) + '\t' + type + '\t' + ((missing==null)?"":missing);
+		Group group = this.groups.get(key);
+		if(group==null){
+			group = new Group(root, type, missing);
+			this.groups.put(key, group);
+		}
+		group.count++;
+		if(group.samples.size()<this.samples){
+			group.samples.add(error);
+		}
+		this.count++;
+	}
+
+	/**
+	 * Removes all errors.
+	 */
+	public synchronized void clear(){
+		this.groups.clear();
+		this.count = 0;
+	}
+
+	/**
+	 * Returns the number of all errors.
+	 * @return error count, including errors not kept
+	 */
+	public synchronized long getCount(){
+		return this.count;
+	}
+
+	/**
+	 * Tests if there are no errors.
+	 * @return true if no error was added, false otherwise
+	 */
+	public synchronized boolean isEmpty(){
+		return this.count==0;
+	}
+
+	/**
+	 * Returns all error groups.
+	 * @return new list of groups in order of their first error
+	 */
+	public synchronized List<Group> getGroups(){
+		return new ArrayList<>(this.groups.values());
+	}
+
+	/**
+	 * Returns the errors kept for all groups.
+	 * @return new list of errors, at most the sample size per group
+	 */
+	public synchronized List<Throwable> getSamples(){
+		List<Throwable> ret = new ArrayList<>();
+		for(Group group : this.groups.values()){
+			ret.addAll(group.samples);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a human readable summary with totals and one line per group, most frequent first.
+	 * @return summary, lines separated by the system line separator
+	 */
+	public synchronized String report(){
+		List<Group> list = new ArrayList<>(this.groups.values());
+		Collections.sort(list, (a, b) -> Long.compare(b.count, a.count));
+
+		String nl = System.lineSeparator();
+		StringBuilder ret = new StringBuilder();
+		ret.append(String.format("class path errors: %d errors in %d groups", this.count, list.size())).append(nl);
+		if(list.size()>0){
+			ret.append(String.format("%8s  %-24s %-40s %s", "count", "type", "missing class", "root")).append(nl);
+		}
+		for(Group group : list){
+			ret.append(String.format("%8d  %-24s %-40s %s",
+					group.count,
+					group.type.substring(group.type.lastIndexOf('.') + 1),
+					(group.missing==null)?"-":group.missing,
+					(group.root==null)?"-":group.root.getPath()
+			)).append(nl);
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Returns the name of the class an error was caused by, if it is caused by a class that could not be found.
+	 * @param error the error
+	 * @return name of the missing class with '.' as package separator, null if the error is not caused by a missing class
+	 */
+	public static String getMissingClass(Throwable error){
+		String ret = null;
+		if(error instanceof NoClassDefFoundError || error instanceof ClassNotFoundException){
+			ret = error.getMessage();
+		}
+		else if(error instanceof TypeNotPresentException){
+			ret = ((TypeNotPresentException)error).typeName();
+		}
+		return (ret==null)?null:ret.replace('/', '.');
+	}
+
+	/**
+	 * A group of errors with the same root, type and missing class.
+	 */
+	public static class Group {
+
+		/** The class path root, null if not for a root. */
+		protected final File root;
+
+		/** Class name of the error type. */
+		protected final String type;
+
+		/** Name of the missing class, null if none. */
+		protected final String missing;
+
+		/** Number of errors in the group. */
+		protected long count;
+
+		/** Errors kept for the group. */
+		protected final List<Throwable> samples;
+
+		/**
+		 * Returns a new group.
+		 * @param root the class path root, null if not for a root
+		 * @param type class name of the error type
+		 * @param missing name of the missing class, null if none
+		 */
+		protected Group(File root, String type, String missing){
+			this.root = root;
+			this.type = type;
+			this.missing = missing;
+			this.samples = new ArrayList<>(1);
+		}
+
+		/**
+		 * Returns the class path root.
+		 * @return root, null if the errors did not occur for a root
+		 */
+		public File getRoot(){
+			return this.root;
+		}
+
+		/**
+		 * Returns the error type.
+		 * @return class name of the error type
+		 */
+		public String getType(){
+			return this.type;
+		}
+
+		/**
+		 * Returns the missing class.
+		 * @return name of the class that could not be found, null if the errors are not caused by a missing class
+		 */
+		public String getMissingClass(){
+			return this.missing;
+		}
+
+		/**
+		 * Returns the number of errors in the group.
+		 * @return error count, including errors not kept
+		 */
+		public long getCount(){
+			return this.count;
+		}
+
+		/**
+		 * Returns the errors kept for the group.
+		 * @return kept errors, at most the sample size of the aggregator
+		 */
+		public List<Throwable> getSamples(){
+			return Collections.unmodifiableList(this.samples);
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A compiled include/exclude filter for class, package and jar names.
+ * 
+ * Patterns are compiled into a prefix trie, so that testing a name costs in the order of the name length and not of the number of patterns.
+ * A pattern without wildcards matches all names starting with it, for instance "de.vandermeer" matches all classes in "de.vandermeer" and its sub-packages.
+ * A pattern with wildcards must match the whole name: "*" matches any sequence of characters and "?" matches a single character, for instance "*-sources.jar".
+ * Patterns starting with "!" are exclude patterns, all other patterns are include patterns.
+ * The separators "/" and "." are treated as equal, so that package patterns also match jar entry names.
+ * 
+ * A name matching an exclude pattern with wildcards is never accepted, for instance "!*-sources.jar" excludes all source jars.
+ * Otherwise a name is accepted if the most specific pattern matching it (the pattern with the longest literal prefix) is an include pattern, exclude patterns win over include patterns of the same length.
+ * If no pattern matches, a name is accepted if the filter has no include patterns.
+ * For example "de.vandermeer", "!de.vandermeer.execs.cf" and "de.vandermeer.execs.cf.api" accept all classes in "de.vandermeer" except the ones in "de.vandermeer.execs.cf", but including the ones in "de.vandermeer.execs.cf.api".
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_Filter {
+
+	/** Rule for no match. */
+	protected final static int NONE = 0;
+
+	/** Rule for an include. */
+	protected final static int INCLUDE = 1;
+
+	/** Rule for an exclude. */
+	protected final static int EXCLUDE = 2;
+
+	/** Root of the pattern trie. */
+	protected final Node root;
+
+	/** All patterns in the order they have been added. */
+	protected final List<String> patterns;
+
+	/** Flag for include patterns. */
+	protected boolean includes;
+
+	/**
+	 * Returns a new empty filter, accepting all names.
+	 */
+	public CF_Filter(){
+		this.root = new Node();
+		this.patterns = new ArrayList<>();
+	}
+
+	/**
+	 * Returns a new filter for the given patterns.
+	 * @param patterns the patterns, exclude patterns start with "!", null or blank patterns are ignored
+	 */
+	public CF_Filter(Iterable<String> patterns){
+		this();
+		this.addAll(patterns);
+	}
+
+	/**
+	 * Returns a new filter for a list of patterns in a single string.
+	 * @param patterns the patterns separated by comma, exclude patterns start with "!", can be null
+	 * @return new filter
+	 */
+	public static CF_Filter parse(String patterns){
+		CF_Filter ret = new CF_Filter();
+		if(patterns!=null){
+			ret.addAll(Arrays.asList(StringUtils.split(patterns, ',')));
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds patterns.
+	 * @param patterns the patterns, exclude patterns start with "!", null or blank patterns are ignored
+	 * @return self to allow for chaining
+	 */
+	public CF_Filter addAll(Iterable<String> patterns){
+		if(patterns!=null){
+			for(String pattern : patterns){
+				this.add(pattern);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a pattern.
+	 * @param pattern the pattern, exclude patterns start with "!", null or blank patterns are ignored
+	 * @return self to allow for chaining
+	 */
+	public CF_Filter add(String pattern){
+		if(StringUtils.isBlank(pattern)){
+			return this;
+		}
+		pattern = pattern.trim();
+		if(pattern.startsWith("!")){
+			return this.exclude(pattern.substring(1));
+		}
+		return this.include(pattern);
+	}
+
+	/**
+	 * Adds an include pattern.
+	 * @param pattern the pattern, null or blank patterns are ignored
+	 * @return self to allow for chaining
+	 */
+	public CF_Filter include(String pattern){
+		if(!StringUtils.isBlank(pattern)){
+			this.patterns.add(pattern.trim());
+			this.compile(pattern.trim(), INCLUDE);
+			this.includes = true;
+		}
+		return this;
+	}
+
+	/**
+	 * Adds an exclude pattern.
+	 * @param pattern the pattern, null or blank patterns are ignored
+	 * @return self to allow for chaining
+	 */
+	public CF_Filter exclude(String pattern){
+		if(!StringUtils.isBlank(pattern)){
+			this.patterns.add("!" + pattern.trim());
+			this.compile(pattern.trim(), EXCLUDE);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a pattern to the trie.
+	 * @param pattern the pattern
+	 * @param rule the rule for the pattern
+	 */
+	protected void compile(String pattern, int rule){
+		int wildcard = StringUtils.indexOfAny(pattern, '*', '?');
+		int literal = (wildcard==-1)?pattern.length():wildcard;
+
+		Node node = this.root;
+		if(rule==INCLUDE){
+			node.includeBelow = true;
+		}
+		for(int i=0; i<literal; i++){
+			node = node.child(normalize(pattern.charAt(i)), true);
+			if(rule==INCLUDE){
+				node.includeBelow = true;
+			}
+		}
+
+		if(wildcard==-1){
+			//exclude wins over include for the same prefix
+			node.rule = Math.max(node.rule, rule);
+		}
+		else{
+			node.globs.add(new Glob(pattern.substring(wildcard), rule));
+		}
+	}
+
+	/**
+	 * Tests if the filter has no patterns.
+	 * @return true if empty (accepting all names), false otherwise
+	 */
+	public boolean isEmpty(){
+		return this.patterns.size()==0;
+	}
+
+	/**
+	 * Tests if the filter has include patterns.
+	 * @return true if there is at least one include pattern, false otherwise
+	 */
+	public boolean hasIncludes(){
+		return this.includes;
+	}
+
+	/**
+	 * Returns all patterns.
+	 * @return patterns in the order they have been added, exclude patterns with a leading "!"
+	 */
+	public List<String> getPatterns(){
+		return this.patterns;
+	}
+
+	/**
+	 * Tests a name.
+	 * @param name the name to test
+	 * @return true if the name is accepted, false otherwise
+	 */
+	public boolean accepts(CharSequence name){
+		return this.accepts(name, name.length());
+	}
+
+	/**
+	 * Tests the start of a name, for instance a jar entry name without ".class".
+	 * @param name the name to test
+	 * @param length number of characters of the name to test
+	 * @return true if the name is accepted, false otherwise
+	 */
+	public boolean accepts(CharSequence name, int length){
+		if(this.patterns.size()==0){
+			return true;
+		}
+
+		int best = NONE;
+		Node node = this.root;
+		for(int i=0; node!=null; i++){
+			//patterns ending at the same node are equally specific, exclude wins
+			int level = node.rule;
+			for(Glob glob : node.globs){
+				if(glob.matches(name, i, length)){
+					if(glob.rule==EXCLUDE){
+						return false;
+					}
+					level = Math.max(level, glob.rule);
+				}
+			}
+			if(level!=NONE){
+				best = level;
+			}
+			if(i==length){
+				break;
+			}
+			node = node.child(normalize(name.charAt(i)), false);
+		}
+
+		if(best==NONE){
+			return !this.includes;
+		}
+		return best==INCLUDE;
+	}
+
+	/**
+	 * Tests if any name starting with the given prefix might be accepted, for instance to skip a package directory.
+	 * The test is conservative, it only returns false if no name starting with the prefix can be accepted.
+	 * @param prefix the prefix, e.g. a package name with a trailing "."
+	 * @return false if no name with this prefix can be accepted, true otherwise
+	 */
+	public boolean mayAccept(CharSequence prefix){
+		if(this.patterns.size()==0){
+			return true;
+		}
+
+		int best = NONE;
+		Node node = this.root;
+		for(int i=0; i<prefix.length(); i++){
+			if(node.rule!=NONE){
+				best = node.rule;
+			}
+			for(Glob glob : node.globs){
+				if(glob.rule==INCLUDE){
+					return true;
+				}
+			}
+			node = node.child(normalize(prefix.charAt(i)), false);
+			if(node==null){
+				break;
+			}
+		}
+		if(node!=null){
+			if(node.includeBelow){
+				return true;
+			}
+			if(node.rule!=NONE){
+				best = node.rule;
+			}
+		}
+
+		if(best==NONE){
+			return !this.includes;
+		}
+		return best==INCLUDE;
+	}
+
+	/**
+	 * Normalizes a character, so that "/" and "." are treated the same.
+	 * @param c the character
+	 * @return normalized character
+	 */
+	protected static char normalize(char c){
+		return (c=='/')?'.':c;
+	}
+
+	@Override
+	public String toString(){
+		return StringUtils.join(this.patterns, ',');
+	}
+
+	/**
+	 * A node of the pattern trie.
+	 */
+	protected static class Node {
+
+		/** Characters of the child nodes. */
+		protected char[] keys = new char[0];
+
+		/** Child nodes. */
+		protected Node[] children = new Node[0];
+
+		/** Rule of a literal (prefix) pattern ending at this node. */
+		protected int rule = NONE;
+
+		/** Wildcard patterns with a literal prefix ending at this node. */
+		protected final List<Glob> globs = new ArrayList<>(0);
+
+		/** Flag for include patterns at or below this node. */
+		protected boolean includeBelow;
+
+		/**
+		 * Returns a child node.
+		 * @param c character of the child
+		 * @param create true to create a missing child, false otherwise
+		 * @return child node, null if it does not exist and was not created
+		 */
+		protected Node child(char c, boolean create){
+			for(int i=0; i<this.keys.length; i++){
+				if(this.keys[i]==c){
+					return this.children[i];
+				}
+			}
+			if(!create){
+				return null;
+			}
+			this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+			this.children = Arrays.copyOf(this.children, this.children.length + 1);
+			this.keys[this.keys.length - 1] = c;
+			this.children[this.children.length - 1] = new Node();
+			return this.children[this.children.length - 1];
+		}
+	}
+
+	/**
+	 * The wildcard part of a pattern, starting with the first wildcard.
+	 */
+	protected static class Glob {
+
+		/** The wildcard part of the pattern, normalized. */
+		protected final char[] pattern;
+
+		/** The rule of the pattern. */
+		protected final int rule;
+
+		/**
+		 * Returns a new wildcard pattern.
+		 * @param pattern the pattern
+		 * @param rule the rule
+		 */
+		protected Glob(String pattern, int rule){
+			this.pattern = pattern.toCharArray();
+			for(int i=0; i<this.pattern.length; i++){
+				this.pattern[i] = normalize(this.pattern[i]);
+			}
+			this.rule = rule;
+		}
+
+		/**
+		 * Tests if the rest of a name matches the pattern.
+		 * @param name the name
+		 * @param start start of the rest in the name
+		 * @param end end of the name
+		 * @return true on a match, false otherwise
+		 */
+		protected boolean matches(CharSequence name, int start, int end){
+			int p = 0, n = start, star = -1, mark = 0;
+			while(n<end){
+				if(p<this.pattern.length && (this.pattern[p]=='?' || this.pattern[p]==normalize(name.charAt(n)))){
+					p++;
+					n++;
+				}
+				else if(p<this.pattern.length && this.pattern[p]=='*'){
+					star = p++;
+					mark = n;
+				}
+				else if(star!=-1){
+					p = star + 1;
+					n = ++mark;
+				}
+				else{
+					return false;
+				}
+			}
+			while(p<this.pattern.length && this.pattern[p]=='*'){
+				p++;
+			}
+			return p==this.pattern.length;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A persistent index of scanned class path roots, stored as a compressed text file.
+ * For every root the index stores a fingerprint (path, size, modification time, and optionally a content hash) and the headers of all classes in the root that can be relevant for a search.
+ * A class is relevant if it is, or extends or implements, the searched class or a class outside the root and outside "java.*".
+ * All other classes cannot be subclasses of the searched class, independent of other roots, and are not stored.
+ * Roots with an unchanged fingerprint do not need to be scanned again.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_Index {
+
+	/** Version of the index file format. */
+	public final static String VERSION = "execs-cf-index 2";
+
+	/** The index file. */
+	protected final File file;
+
+	/** Name of the searched class. */
+	protected final String target;
+
+	/** Key describing all settings the index depends on, e.g. excluded names. */
+	protected final String settings;
+
+	/** Flag for content hashes in jar fingerprints. */
+	protected final boolean hash;
+
+	/** Index entries by root path. */
+	protected final Map<String, Entry> entries;
+
+	/** Fingerprints computed during the current search, by root path. */
+	protected final Map<String, String> fingerprints;
+
+	/** Pool for the class names of loaded headers, null to not share names. */
+	protected CF_NamePool names;
+
+	/** Flag indicating changes that need to be stored. */
+	protected volatile boolean changed;
+
+	/**
+	 * Returns a new index, call {@link #load()} to read an existing index file.
+	 * @param file the index file
+	 * @param target name of the searched class
+	 * @param settings key describing all settings the index depends on, an index file with other settings will not be used
+	 * @param hash true to use content hashes in jar fingerprints, false to use size and modification time only
+	 */
+	public CF_Index(File file, String target, String settings, boolean hash){
+		this.file = file;
+		this.target = target;
+		this.settings = settings;
+		this.hash = hash;
+		this.entries = new ConcurrentHashMap<>();
+		this.fingerprints = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Sets a pool for the class names of loaded headers, so that they share names with the headers of a scan.
+	 * @param names the pool, null to not share names
+	 * @return self to allow for chaining
+	 */
+	public CF_Index setNamePool(CF_NamePool names){
+		this.names = names;
+		return this;
+	}
+
+	/**
+	 * Loads the index file, if it exists and was created for the same searched class and settings.
+	 * If the file is broken (for instance truncated) the index is left empty, so that all roots are scanned again.
+	 * @return self to allow for chaining
+	 * @throws IOException if the file exists but could not be read
+	 */
+	public CF_Index load() throws IOException{
+		this.entries.clear();
+		if(!this.file.exists()){
+			return this;
+		}
+
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(this.file)), StandardCharsets.UTF_8))){
+			if(!VERSION.equals(in.readLine()) || !this.target.equals(in.readLine()) || !this.settings.equals(in.readLine())){
+				return this;
+			}
+
+			Entry entry = null;
+			String line;
+			while((line = in.readLine())!=null){
+				String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+				if(fields.length==3 && "R".equals(fields[0])){
+					entry = new Entry(fields[2]);
+					this.entries.put(fields[1], entry);
+				}
+				else if(fields.length==6 && "C".equals(fields[0]) && entry!=null){
+					CF_ClassHeader header = new CF_ClassHeader(
+							Integer.parseInt(fields[1]),
+							fields[2],
+							(fields[3].length()==0)?null:fields[3],
+							StringUtils.split(fields[4], ','),
+							StringUtils.split(fields[5], ',')
+					);
+					entry.headers.add((this.names==null)?header:header.share(this.names));
+				}
+				else{
+					throw new IOException("broken index file " + this.file + ", line: " + line);
+				}
+			}
+		}
+		catch(IOException ex){
+			//roots read before the error might be incomplete, none of them is used
+			this.entries.clear();
+			throw ex;
+		}
+		catch(RuntimeException ex){
+			this.entries.clear();
+			throw new IOException("broken index file " + this.file, ex);
+		}
+		return this;
+	}
+
+	/**
+	 * Stores the index file, if any root was added or changed.
+	 * The file is written to a temporary file first and then moved, so that concurrent readers never see a partial index.
+	 * Roots that do not exist anymore are removed from the index.
+	 * @throws IOException if the file could not be written
+	 */
+	public void store() throws IOException{
+		if(!this.changed){
+			return;
+		}
+
+		File dir = this.file.getAbsoluteFile().getParentFile();
+		if(!dir.exists() && !dir.mkdirs()){
+			throw new IOException("could not create index directory " + dir);
+		}
+		File tmp = File.createTempFile(this.file.getName(), ".tmp", dir);
+		try(Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8)){
+			out.write(VERSION + "\n" + this.target + "\n" + this.settings + "\n");
+			for(Map.Entry<String, Entry> me : this.entries.entrySet()){
+				if(!new File(me.getKey()).exists()){
+					continue;
+				}
+				out.write("R\t" + me.getKey() + "\t" + me.getValue().fingerprint + "\n");
+				for(CF_ClassHeader header : me.getValue().headers){
+					out.write("C\t" + header.getAccess() + "\t" + header.getName() + "\t" + StringUtils.defaultString(header.getSuperName()) + "\t" + StringUtils.join(header.getInterfaces(), ',') + "\t" + StringUtils.join(header.getAnnotations(), ',') + "\n");
+				}
+			}
+		}
+		try{
+			Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException ex){
+			Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally{
+			tmp.delete();
+		}
+		this.changed = false;
+	}
+
+	/**
+	 * Returns the indexed class headers of a root if the root has not changed since it was indexed.
+	 * This method is thread safe.
+	 * @param root class path root
+	 * @return indexed class headers, null if the root is not indexed or has changed
+	 * @throws IOException if the fingerprint of the root could not be computed
+	 */
+	public List<CF_ClassHeader> get(File root) throws IOException{
+		Entry entry = this.entries.get(root.getPath());
+		if(entry!=null && entry.fingerprint.equals(this.fingerprint(root))){
+			return entry.headers;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the class headers of a scanned root to the index, only relevant classes are kept.
+	 * This method is thread safe.
+	 * @param root the scanned class path root
+	 * @param headers headers of all classes in the root
+	 * @throws IOException if the fingerprint of the root could not be computed
+	 */
+	public void put(File root, List<CF_ClassHeader> headers) throws IOException{
+		Entry entry = new Entry(this.fingerprint(root));
+		entry.headers.addAll(this.relevant(headers));
+		this.entries.put(root.getPath(), entry);
+		this.changed = true;
+	}
+
+	/**
+	 * Returns the fingerprint of a root, computed once per index object.
+	 * @param root class path root
+	 * @return fingerprint
+	 * @throws IOException if the fingerprint could not be computed
+	 */
+	protected String fingerprint(File root) throws IOException{
+		String ret = this.fingerprints.get(root.getPath());
+		if(ret==null){
+			ret = fingerprint(root, this.hash);
+			this.fingerprints.put(root.getPath(), ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the classes of a root that can be relevant for a search.
+	 * @param headers headers of all classes in the root
+	 * @return relevant class headers, in original order
+	 */
+	protected List<CF_ClassHeader> relevant(List<CF_ClassHeader> headers){
+		Map<String, CF_ClassHeader> local = new HashMap<>();
+		for(CF_ClassHeader header : headers){
+			local.put(header.getName(), header);
+		}
+
+		Map<String, Boolean> resolved = new HashMap<>();
+		List<CF_ClassHeader> ret = new ArrayList<>();
+		for(CF_ClassHeader header : headers){
+			if(this.isRelevant(header.getName(), local, resolved)){
+				ret.add(header);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Tests if a class can be relevant for a search.
+	 * @param name class name, can be null
+	 * @param local headers of all classes in the root by name
+	 * @param resolved results of earlier tests
+	 * @return true if the class is relevant, false otherwise
+	 */
+	protected boolean isRelevant(String name, Map<String, CF_ClassHeader> local, Map<String, Boolean> resolved){
+		if(name==null){
+			return false;
+		}
+		if(name.equals(this.target)){
+			return true;
+		}
+		Boolean ret = resolved.get(name);
+		if(ret!=null){
+			return ret;
+		}
+		resolved.put(name, false);
+
+		CF_ClassHeader header = local.get(name);
+		if(header==null){
+			ret = !name.startsWith("java.") || this.target.startsWith("java.");
+		}
+		else{
+			ret = this.isRelevant(header.getSuperName(), local, resolved);
+			for(String s : header.getInterfaces()){
+				ret = ret || this.isRelevant(s, local, resolved);
+			}
+		}
+		resolved.put(name, ret);
+		return ret;
+	}
+
+	/**
+	 * Returns the fingerprint of a class path root.
+	 * For a jar file the fingerprint is size and modification time, plus optionally a SHA-1 hash of the content.
+	 * For a directory the fingerprint is number, total size and latest modification time of all files in the tree, content hashes are not used.
+	 * @param root class path root
+	 * @param hash true to add a content hash for jar files
+	 * @return fingerprint
+	 * @throws IOException if the fingerprint could not be computed
+	 */
+	public static String fingerprint(File root, boolean hash) throws IOException{
+		if(root.isDirectory()){
+			long[] stats = new long[3];
+			fingerprint(root, stats);
+			return "d:" + stats[0] + ":" + stats[1] + ":" + stats[2];
+		}
+
+		String ret = "f:" + root.length() + ":" + root.lastModified();
+		if(hash){
+			ret += ":" + CF_Utils.getContentHash(root);
+		}
+		return ret;
+	}
+
+	/**
+	 * Collects number, total size and latest modification time of all files in a directory tree.
+	 * @param dir the directory
+	 * @param stats array for number, total size and latest modification time
+	 */
+	protected static void fingerprint(File dir, long[] stats){
+		stats[2] = Math.max(stats[2], dir.lastModified());
+		File[] files = dir.listFiles();
+		if(files==null){
+			return;
+		}
+		for(File file : files){
+			if(file.isDirectory()){
+				fingerprint(file, stats);
+			}
+			else{
+				stats[0]++;
+				stats[1] += file.length();
+				stats[2] = Math.max(stats[2], file.lastModified());
+			}
+		}
+	}
+
+	/**
+	 * An index entry for a single class path root.
+	 */
+	protected static class Entry {
+
+		/** Fingerprint of the root. */
+		protected final String fingerprint;
+
+		/** Relevant class headers of the root. */
+		protected final List<CF_ClassHeader> headers;
+
+		/**
+		 * Returns a new entry.
+		 * @param fingerprint fingerprint of the root
+		 */
+		protected Entry(String fingerprint){
+			this.fingerprint = fingerprint;
+			this.headers = new ArrayList<>();
+		}
+	}
+}
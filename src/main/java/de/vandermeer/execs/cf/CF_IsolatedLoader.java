@@ -0,0 +1,72 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A throwaway class loader for a class path search, isolated from the class loader of the application.
+ * The class finder uses it to load the few classes a search for class names needs to load, i.e. classes outside the scanned roots that scanned classes extend or implement.
+ * Its parent is the parent of the system class loader (extension or platform class loader), so no class of the class path is loaded into the application class loader.
+ * Once the search is finished the loader is closed and dropped, so that all classes loaded by it can be unloaded and their metaspace reclaimed.
+ * The loader is parallel capable.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_IsolatedLoader extends URLClassLoader {
+
+	static{
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	/**
+	 * Returns a new isolated class loader.
+	 * @param roots class path roots (jar files or directories) to load classes from
+	 * @param clazz the searched class, the root it was loaded from is added if not in the roots, can be null
+	 */
+	public CF_IsolatedLoader(List<File> roots, Class<?> clazz){
+		super(urls(roots, clazz), ClassLoader.getSystemClassLoader().getParent());
+	}
+
+	/**
+	 * Returns the URLs for the given roots and the root of the searched class.
+	 * Roots that cannot be converted to a URL are ignored.
+	 * @param roots class path roots
+	 * @param clazz the searched class, can be null
+	 * @return URLs in class path order, the root of the searched class last
+	 */
+	protected static URL[] urls(List<File> roots, Class<?> clazz){
+		List<URL> ret = new ArrayList<>();
+		for(File root : roots){
+			try{
+				ret.add(root.toURI().toURL());
+			}
+			catch(MalformedURLException ignore){}
+		}
+		CodeSource source = (clazz==null || clazz.getProtectionDomain()==null)?null:clazz.getProtectionDomain().getCodeSource();
+		if(source!=null && source.getLocation()!=null && !ret.contains(source.getLocation())){
+			ret.add(source.getLocation());
+		}
+		return ret.toArray(new URL[ret.size()]);
+	}
+}
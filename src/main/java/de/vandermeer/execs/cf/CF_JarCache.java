@@ -0,0 +1,237 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarFile;
+
+/**
+ * A cache of open jar files shared by the locator and the scanner of a class finder.
+ * Jar files are opened once and reference counted: {@link #acquire(File)} returns a new handle for every call, closing the handle releases it.
+ * Closing a handle more than once has no further effect.
+ * Released jar files stay open for reuse until the number of open files exceeds the open-file budget, then the least recently used released files are closed.
+ * Jar files in use are never closed by the cache, the budget can be exceeded while more handles are in use than it allows.
+ * {@link #close()} closes all released jar files, jar files still in use are closed once they are released.
+ * The cache is thread safe.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_JarCache implements AutoCloseable {
+
+	/** Default open-file budget. */
+	public final static int DEFAULT_BUDGET = 32;
+
+	/** Open jar files by canonical file, in access order. */
+	protected final LinkedHashMap<File, Entry> entries;
+
+	/** Maximum number of jar files kept open. */
+	protected int budget;
+
+	/** Number of jar files opened, for statistics. */
+	protected long opened;
+
+	/**
+	 * Returns a new cache with the default budget.
+	 */
+	public CF_JarCache(){
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Returns a new cache.
+	 * @param budget maximum number of jar files kept open, 1 or more
+	 */
+	public CF_JarCache(int budget){
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.setBudget(budget);
+	}
+
+	/**
+	 * Sets the open-file budget, closing released jar files if needed.
+	 * @param budget maximum number of jar files kept open, values smaller than 1 are set to 1
+	 * @return self to allow for chaining
+	 */
+	public synchronized CF_JarCache setBudget(int budget){
+		this.budget = Math.max(1, budget);
+		this.evict();
+		return this;
+	}
+
+	/**
+	 * Returns the open-file budget.
+	 * @return maximum number of jar files kept open
+	 */
+	public synchronized int getBudget(){
+		return this.budget;
+	}
+
+	/**
+	 * Returns the number of open jar files.
+	 * @return number of open jar files, in use or released
+	 */
+	public synchronized int getOpenCount(){
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the number of jar files opened since the cache was created.
+	 * @return number of opened jar files
+	 */
+	public synchronized long getOpenedCount(){
+		return this.opened;
+	}
+
+	/**
+	 * Acquires a jar file, opening it if it is not open.
+	 * The returned handle must be closed to release the jar file, best with try-with-resources.
+	 * @param file the jar file
+	 * @return new handle for the open jar file
+	 * @throws IOException if the jar file could not be opened
+	 */
+	public synchronized Handle acquire(File file) throws IOException{
+		File key = file.getCanonicalFile();
+		Entry entry = this.entries.get(key);
+		if(entry==null){
+			entry = new Entry(key, new JarFile(key));
+			this.opened++;
+			this.entries.put(key, entry);
+			this.evict();
+		}
+		entry.references++;
+		return new Handle(entry);
+	}
+
+	/**
+	 * Releases one reference of an entry.
+	 * @param entry the entry
+	 */
+	protected synchronized void release(Entry entry){
+		entry.references--;
+		if(entry.references==0 && this.entries.get(entry.file)!=entry){
+			//removed from the cache while in use
+			entry.closeJar();
+		}
+		this.evict();
+	}
+
+	/**
+	 * Closes least recently used released jar files until the open files are within the budget.
+	 */
+	protected void evict(){
+		for(Iterator<Entry> it = this.entries.values().iterator(); it.hasNext() && this.entries.size()>this.budget;){
+			Entry entry = it.next();
+			if(entry.references==0){
+				it.remove();
+				entry.closeJar();
+			}
+		}
+	}
+
+	/**
+	 * Closes all released jar files, jar files in use are closed when they are released.
+	 */
+	@Override
+	public synchronized void close(){
+		for(Iterator<Map.Entry<File, Entry>> it = this.entries.entrySet().iterator(); it.hasNext();){
+			Entry entry = it.next().getValue();
+			it.remove();
+			if(entry.references==0){
+				entry.closeJar();
+			}
+		}
+	}
+
+	/**
+	 * An open jar file in the cache with the number of handles using it.
+	 */
+	protected static class Entry {
+
+		/** The canonical jar file. */
+		protected final File file;
+
+		/** The open jar file. */
+		protected final JarFile jarFile;
+
+		/** Number of handles not yet closed, guarded by the cache. */
+		protected int references;
+
+		/**
+		 * Returns a new entry.
+		 * @param file canonical jar file
+		 * @param jarFile open jar file
+		 */
+		protected Entry(File file, JarFile jarFile){
+			this.file = file;
+			this.jarFile = jarFile;
+		}
+
+		/**
+		 * Closes the jar file.
+		 */
+		protected void closeJar(){
+			try{
+				this.jarFile.close();
+			}
+			catch(IOException ignore){}
+		}
+	}
+
+	/**
+	 * A handle for a jar file in the cache, closing the handle releases the jar file.
+	 */
+	public class Handle implements AutoCloseable {
+
+		/** The cache entry of the jar file. */
+		protected final Entry entry;
+
+		/** Flag for a closed handle, so that a handle releases its reference only once. */
+		protected final AtomicBoolean closed;
+
+		/**
+		 * Returns a new handle.
+		 * @param entry the cache entry of the jar file
+		 */
+		protected Handle(Entry entry){
+			this.entry = entry;
+			this.closed = new AtomicBoolean();
+		}
+
+		/**
+		 * Returns the open jar file, which must not be closed directly.
+		 * @return jar file
+		 */
+		public JarFile getJarFile(){
+			return this.entry.jarFile;
+		}
+
+		/**
+		 * Releases the jar file, closing an already closed handle has no effect.
+		 */
+		@Override
+		public void close(){
+			if(this.closed.compareAndSet(false, true)){
+				CF_JarCache.this.release(this.entry);
+			}
+		}
+	}
+}
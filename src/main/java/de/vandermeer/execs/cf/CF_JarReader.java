@@ -0,0 +1,515 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A lightweight reader for jar (zip) files that memory-maps the file and parses only the central directory.
+ * Entries are accessed with a cursor: {@link #next()} moves to the next entry, all other methods work on the current entry.
+ * Entry names can be tested without creating objects ({@link #nameStartsWith(byte[])}, {@link #nameEndsWith(byte[])}), a string is only created by {@link #name()}.
+ * Entry data can be read uncompressed ({@link #read()}) or, for stored entries, as a view on the mapped file ({@link #slice()}).
+ * The reader does not process manifests, signatures or multi-release versions, it sees the raw entries of the file.
+ * Zip64 is supported for the end of central directory record (more than 65535 entries), not for entries larger than 4GB.
+ * A reader is not thread safe.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_JarReader implements AutoCloseable {
+
+	/** Signature of the end of central directory record. */
+	protected final static int SIG_EOCD = 0x06054b50;
+
+	/** Signature of the zip64 end of central directory locator. */
+	protected final static int SIG_ZIP64_LOCATOR = 0x07064b50;
+
+	/** Signature of the zip64 end of central directory record. */
+	protected final static int SIG_ZIP64_EOCD = 0x06064b50;
+
+	/** Signature of a central directory file header. */
+	protected final static int SIG_CEN = 0x02014b50;
+
+	/** Signature of a local file header. */
+	protected final static int SIG_LOC = 0x04034b50;
+
+	/** Compression method stored. */
+	public final static int STORED = 0;
+
+	/** Compression method deflated. */
+	public final static int DEFLATED = 8;
+
+	/** The mapped file or a slice of it. */
+	protected ByteBuffer buffer;
+
+	/** Number of entries in the central directory. */
+	protected final int entries;
+
+	/** Offset of the first central directory header. */
+	protected final int start;
+
+	/** Offset of the central directory header of the current entry, -1 before the first entry. */
+	protected int current;
+
+	/** Offset of the name of the current entry. */
+	protected int nameOffset;
+
+	/** Length of the name of the current entry. */
+	protected int nameLength;
+
+	/** Number of entries visited. */
+	protected int visited;
+
+	/** Inflater for deflated entries, created on demand. */
+	protected Inflater inflater;
+
+	/** View on the name of the current entry. */
+	protected final CharSequence nameView;
+
+	/**
+	 * Returns a new reader for a file, mapping the file into memory.
+	 * @param file the jar file
+	 * @throws IOException if the file could not be mapped or is not a (supported) zip file
+	 */
+	public CF_JarReader(File file) throws IOException{
+		this(map(file));
+	}
+
+	/**
+	 * Returns a new reader for a buffer containing a complete zip file, e.g. a stored jar inside another jar.
+	 * @param buffer the buffer, from position 0 to its limit
+	 * @throws IOException if the buffer does not contain a (supported) zip file
+	 */
+	public CF_JarReader(ByteBuffer buffer) throws IOException{
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		//calls on Buffer, since ByteBuffer overrides them from Java 9 on
+		((Buffer)this.buffer).clear();
+
+		int eocd = this.findEocd();
+		long count = this.u2(eocd + 10);
+		long offset = this.u4(eocd + 16);
+		if(count==0xFFFF || offset==0xFFFFFFFFL){
+			int locator = eocd - 20;
+			if(locator<0 || this.buffer.getInt(locator)!=SIG_ZIP64_LOCATOR){
+				throw new IOException("zip64 end of central directory locator not found");
+			}
+			long zip64 = this.buffer.getLong(locator + 8);
+			if(zip64<0 || zip64>this.buffer.limit()-56 || this.buffer.getInt((int)zip64)!=SIG_ZIP64_EOCD){
+				throw new IOException("zip64 end of central directory not found");
+			}
+			count = this.buffer.getLong((int)zip64 + 32);
+			offset = this.buffer.getLong((int)zip64 + 48);
+		}
+		if(count>Integer.MAX_VALUE || offset<0 || offset>=this.buffer.limit() && count>0){
+			throw new IOException("broken central directory");
+		}
+		this.entries = (int)count;
+		this.start = (int)offset;
+		this.current = -1;
+		this.nameView = new NameView();
+	}
+
+	/**
+	 * Maps a file into memory.
+	 * @param file the file
+	 * @return the mapped file
+	 * @throws IOException if the file could not be mapped, e.g. if larger than 2GB
+	 */
+	protected static ByteBuffer map(File file) throws IOException{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			if(channel.size()>Integer.MAX_VALUE){
+				throw new IOException("file too large to map: " + file);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Finds the end of central directory record.
+	 * @return offset of the record
+	 * @throws IOException if not found
+	 */
+	protected int findEocd() throws IOException{
+		int last = this.buffer.limit() - 22;
+		int first = Math.max(0, last - 0xFFFF);
+		for(int i=last; i>=first; i--){
+			if(this.buffer.getInt(i)==SIG_EOCD){
+				return i;
+			}
+		}
+		throw new IOException("not a zip file, end of central directory not found");
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return number of entries in the central directory
+	 */
+	public int getEntryCount(){
+		return this.entries;
+	}
+
+	/**
+	 * Moves to the next entry.
+	 * @return true if there is a next entry, false if all entries have been visited
+	 * @throws IOException if the central directory is broken
+	 */
+	public boolean next() throws IOException{
+		if(this.visited>=this.entries){
+			return false;
+		}
+		int pos = (this.current==-1)?this.start:this.nameOffset + this.nameLength + this.u2(this.current + 30) + this.u2(this.current + 32);
+		if(pos<0 || pos>this.buffer.limit()-46 || this.buffer.getInt(pos)!=SIG_CEN){
+			throw new IOException("broken central directory at entry " + this.visited);
+		}
+		this.current = pos;
+		this.nameLength = this.u2(pos + 28);
+		this.nameOffset = pos + 46;
+		this.visited++;
+		return true;
+	}
+
+	/**
+	 * Returns the length of the name of the current entry in bytes.
+	 * @return name length
+	 */
+	public int nameLength(){
+		return this.nameLength;
+	}
+
+	/**
+	 * Returns a byte of the name of the current entry.
+	 * @param index index in the name
+	 * @return byte at the index
+	 */
+	public byte nameByte(int index){
+		return this.buffer.get(this.nameOffset + index);
+	}
+
+	/**
+	 * Tests if the name of the current entry starts with the given bytes.
+	 * @param prefix prefix bytes
+	 * @return true if the name starts with the prefix, false otherwise
+	 */
+	public boolean nameStartsWith(byte[] prefix){
+		if(prefix.length>this.nameLength){
+			return false;
+		}
+		for(int i=0; i<prefix.length; i++){
+			if(this.buffer.get(this.nameOffset + i)!=prefix[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if the name of the current entry ends with the given bytes.
+	 * @param suffix suffix bytes
+	 * @return true if the name ends with the suffix, false otherwise
+	 */
+	public boolean nameEndsWith(byte[] suffix){
+		if(suffix.length>this.nameLength){
+			return false;
+		}
+		int offset = this.nameOffset + this.nameLength - suffix.length;
+		for(int i=0; i<suffix.length; i++){
+			if(this.buffer.get(offset + i)!=suffix[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a view on the name of the current entry, without creating a string.
+	 * The view always shows the name of the current entry, characters are single bytes of the name (correct for ASCII names).
+	 * @return name view, the same object for all entries
+	 */
+	public CharSequence nameView(){
+		return this.nameView;
+	}
+
+	/**
+	 * Returns the name of the current entry, this creates a new string.
+	 * @return entry name
+	 */
+	public String name(){
+		byte[] bytes = new byte[this.nameLength];
+		for(int i=0; i<bytes.length; i++){
+			bytes[i] = this.buffer.get(this.nameOffset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Tests if the current entry is a directory.
+	 * @return true if a directory, false otherwise
+	 */
+	public boolean isDirectory(){
+		return this.nameLength>0 && this.buffer.get(this.nameOffset + this.nameLength - 1)=='/';
+	}
+
+	/**
+	 * Returns the compression method of the current entry.
+	 * @return compression method, e.g. {@link #STORED} or {@link #DEFLATED}
+	 */
+	public int method(){
+		return this.u2(this.current + 10);
+	}
+
+	/**
+	 * Returns the uncompressed size of the current entry.
+	 * @return uncompressed size
+	 */
+	public long size(){
+		return this.u4(this.current + 24);
+	}
+
+	/**
+	 * Returns the compressed size of the current entry.
+	 * @return compressed size
+	 */
+	public long compressedSize(){
+		return this.u4(this.current + 20);
+	}
+
+	/**
+	 * Returns the offset of the data of the current entry.
+	 * @return offset of the entry data
+	 * @throws IOException if the local header is broken or the entry is too large
+	 */
+	protected int dataOffset() throws IOException{
+		long local = this.u4(this.current + 42);
+		if(local==0xFFFFFFFFL || this.compressedSize()==0xFFFFFFFFL || this.size()==0xFFFFFFFFL){
+			throw new IOException("zip64 entries not supported: " + this.name());
+		}
+		if(local>this.buffer.limit()-30 || this.buffer.getInt((int)local)!=SIG_LOC){
+			throw new IOException("broken local header for entry " + this.name());
+		}
+		long ret = local + 30 + this.u2((int)local + 26) + this.u2((int)local + 28);
+		if(ret + this.compressedSize()>this.buffer.limit()){
+			throw new IOException("truncated entry " + this.name());
+		}
+		return (int)ret;
+	}
+
+	/**
+	 * Returns the data of the current entry as a view on the mapped file, only for stored entries.
+	 * @return read-only buffer with the entry data
+	 * @throws IOException if the entry is not stored or broken
+	 */
+	public ByteBuffer slice() throws IOException{
+		if(this.method()!=STORED){
+			throw new IOException("entry not stored: " + this.name());
+		}
+		ByteBuffer ret = this.buffer.duplicate();
+		int offset = this.dataOffset();
+		((Buffer)ret).limit(offset + (int)this.compressedSize()).position(offset);
+		return ret.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads the uncompressed data of the current entry.
+	 * @return entry data
+	 * @throws IOException if the entry is broken or uses an unsupported compression method
+	 */
+	public byte[] read() throws IOException{
+		int offset = this.dataOffset();
+		int csize = (int)this.compressedSize();
+		int size = (int)this.size();
+		ByteBuffer data = this.buffer.duplicate();
+		((Buffer)data).limit(offset + csize).position(offset);
+
+		if(this.method()==STORED){
+			byte[] ret = new byte[csize];
+			data.get(ret);
+			return ret;
+		}
+		if(this.method()!=DEFLATED){
+			throw new IOException("unsupported compression method " + this.method() + " for entry " + this.name());
+		}
+
+		byte[] input = new byte[csize];
+		data.get(input);
+		if(this.inflater==null){
+			this.inflater = new Inflater(true);
+		}
+		this.inflater.reset();
+		this.inflater.setInput(input);
+		byte[] ret = new byte[size];
+		try{
+			int read = 0;
+			while(read<size){
+				int n = this.inflater.inflate(ret, read, size - read);
+				if(n==0 && (this.inflater.finished() || this.inflater.needsInput() || this.inflater.needsDictionary())){
+					break;
+				}
+				read += n;
+			}
+			if(read!=size){
+				throw new IOException("size mismatch for entry " + this.name());
+			}
+		}
+		catch(DataFormatException ex){
+			throw new IOException("broken data for entry " + this.name(), ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * Opens a stream on the uncompressed data of the current entry, reading directly from the mapped file.
+	 * Other than {@link #read()}, the data is not copied into a single array, which suits large entries such as jar files inside a jar file.
+	 * The stream stays valid when the reader moves to another entry, but not after the reader is closed.
+	 * @return new stream with the entry data, must be closed to release its inflater
+	 * @throws IOException if the entry is broken or uses an unsupported compression method
+	 */
+	public InputStream openStream() throws IOException{
+		int offset = this.dataOffset();
+		ByteBuffer data = this.buffer.duplicate();
+		((Buffer)data).limit(offset + (int)this.compressedSize()).position(offset);
+		InputStream in = new BufferInputStream(data.slice());
+
+		if(this.method()==STORED){
+			return in;
+		}
+		if(this.method()!=DEFLATED){
+			throw new IOException("unsupported compression method " + this.method() + " for entry " + this.name());
+		}
+		return new InflaterInputStream(in, new Inflater(true)){
+			@Override
+			public void close() throws IOException{
+				super.close();
+				this.inf.end();
+			}
+		};
+	}
+
+	/**
+	 * Releases all resources of the reader.
+	 * The mapping itself is released by the garbage collector once no buffer refers to it anymore.
+	 */
+	@Override
+	public void close(){
+		if(this.inflater!=null){
+			this.inflater.end();
+			this.inflater = null;
+		}
+		this.buffer = null;
+	}
+
+	/**
+	 * Reads an unsigned 2 byte value.
+	 * @param pos position
+	 * @return value
+	 */
+	protected int u2(int pos){
+		return this.buffer.getShort(pos) & 0xFFFF;
+	}
+
+	/**
+	 * Reads an unsigned 4 byte value.
+	 * @param pos position
+	 * @return value
+	 */
+	protected long u4(int pos){
+		return this.buffer.getInt(pos) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * A view on the name of the current entry.
+	 */
+	protected class NameView implements CharSequence {
+
+		@Override
+		public int length(){
+			return CF_JarReader.this.nameLength;
+		}
+
+		@Override
+		public char charAt(int index){
+			return (char)(CF_JarReader.this.nameByte(index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end){
+			return this.toString().substring(start, end);
+		}
+
+		@Override
+		public String toString(){
+			return CF_JarReader.this.name();
+		}
+	}
+
+	/**
+	 * An input stream reading from a buffer, for entry data in the mapped file.
+	 */
+	protected static class BufferInputStream extends InputStream {
+
+		/** The buffer to read from. */
+		protected final ByteBuffer buffer;
+
+		/**
+		 * Returns a new stream.
+		 * @param buffer the buffer to read from, from its position to its limit
+		 */
+		protected BufferInputStream(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read(){
+			return (this.buffer.hasRemaining())?(this.buffer.get() & 0xFF):-1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int off, int len){
+			if(len==0){
+				return 0;
+			}
+			if(!this.buffer.hasRemaining()){
+				return -1;
+			}
+			len = Math.min(len, this.buffer.remaining());
+			this.buffer.get(bytes, off, len);
+			return len;
+		}
+
+		@Override
+		public int available(){
+			return this.buffer.remaining();
+		}
+
+		@Override
+		public long skip(long n){
+			int skip = (int)Math.max(0, Math.min(n, this.buffer.remaining()));
+			((Buffer)this.buffer).position(this.buffer.position() + skip);
+			return skip;
+		}
+	}
+}
@@ -17,23 +17,29 @@ package de.vandermeer.execs.cf;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.InvalidPathException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * A locator for jar files with jar and package filter.
+ * The locator uses the effective class path: the class path plus all jar files referenced by Class-Path attributes in jar manifests, with every root used only once.
  *
  * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
  * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
@@ -44,49 +50,253 @@ public class CF_Locator {
 	/** Location map to be filled with jar locations. */
 	protected final Map<URI, String> locationMap;
 
-	/** A list of jar names to be filtered for, that is only look for those jars. */
-	protected final List<String> jarFilter;
+	/** Filter for jar file names, only jars accepted by the filter are used. */
+	protected CF_Filter jarFilter;
 
-	/** A string naming the start of a package for filter, that is only use packages starting with that string. */
-	protected String pkgFilter;
+	/** Filter for packages, only packages accepted by the filter are used. */
+	protected CF_Filter pkgFilter;
 
 	/** A boolean indicating if the locator need to run again, should be true when filters are changed. */
 	protected boolean needsReRun;
 
+	/** A class path to search, null to use the system property "java.class.path". */
+	protected String classPath;
+
+	/** Cache for open jar files. */
+	protected CF_JarCache jarCache;
+
+	/** Flag for following Class-Path attributes in jar manifests. */
+	protected boolean manifestClassPath;
+
+	/** Flag for content hashes to detect the same jar file under different names. */
+	protected boolean rootHash;
+
 	/**
 	 * Returns a new CF locator object.
 	 */
 	public CF_Locator(){
 		this.locationMap = new HashMap<>();
-		this.jarFilter = new ArrayList<>();
+		this.jarFilter = new CF_Filter();
+		this.pkgFilter = new CF_Filter();
+		this.jarCache = new CF_JarCache();
+		this.manifestClassPath = true;
 		this.needsReRun = true;
 	}
 
 	/**
 	 * Sets a jar filter.
-	 * @param jarFilter new filter, use null or empty list to not filter. The list will be copied locally.
+	 * @param jarFilter list of patterns for jar file names (see {@link CF_Filter}), use null or empty list to not filter
 	 * @return self to allow for chaining
 	 */
 	public CF_Locator setJarFilter(List<String> jarFilter){
-		this.jarFilter.clear();
-		if(jarFilter!=null){
-			this.jarFilter.addAll(jarFilter);
-		}
+		this.jarFilter = new CF_Filter(jarFilter);
 		this.needsReRun = true;
 		return this;
 	}
 
 	/**
-	 * Sets a package filter.
-	 * @param pkgFilter new package filter, set to null to not filter
+	 * Sets a package filter, only packages accepted by the filter are searched.
+	 * @param pkgFilter patterns for packages separated by comma (see {@link CF_Filter}), set to null to not filter
 	 * @return self to allow for chaining
 	 */
 	public CF_Locator setPkgFilter(String pkgFilter){
-		this.pkgFilter = pkgFilter;
+		this.pkgFilter = CF_Filter.parse(pkgFilter);
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Sets the cache used to open jar files, for instance to share it with a class finder.
+	 * @param jarCache the cache, null is ignored
+	 * @return self to allow for chaining
+	 */
+	public CF_Locator setJarCache(CF_JarCache jarCache){
+		if(jarCache!=null){
+			this.jarCache = jarCache;
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the cache used to open jar files.
+	 * @return jar cache
+	 */
+	public CF_JarCache getJarCache(){
+		return this.jarCache;
+	}
+
+	/**
+	 * Returns the jar filter.
+	 * @return jar filter, empty if not set
+	 */
+	public CF_Filter getJarFilter(){
+		return this.jarFilter;
+	}
+
+	/**
+	 * Returns the package filter.
+	 * @return package filter, empty if not set
+	 */
+	public CF_Filter getPkgFilter(){
+		return this.pkgFilter;
+	}
+
+	/**
+	 * Sets the class path to search.
+	 * @param classPath new class path using the system path separator, set to null to use the system property "java.class.path"
+	 * @return self to allow for chaining
+	 */
+	public CF_Locator setClassPath(String classPath){
+		this.classPath = classPath;
 		this.needsReRun = true;
 		return this;
 	}
 
+	/**
+	 * Returns the class path to search.
+	 * @return set class path or, if none set, the system property "java.class.path"
+	 */
+	public String getClassPath(){
+		return (this.classPath==null)?System.getProperty("java.class.path"):this.classPath;
+	}
+
+	/**
+	 * Activates following Class-Path attributes in jar manifests, activated by default.
+	 * @param manifestClassPath true to add jar files referenced in manifests to the class path, false to use the class path only
+	 * @return self to allow for chaining
+	 */
+	public CF_Locator setManifestClassPath(boolean manifestClassPath){
+		this.manifestClassPath = manifestClassPath;
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Activates content hashes for jar files, so that copies of the same jar file under different names are used only once.
+	 * Hashing reads every jar file completely, it is deactivated by default.
+	 * @param rootHash true to use content hashes, false to compare jar files by real path only
+	 * @return self to allow for chaining
+	 */
+	public CF_Locator setRootHash(boolean rootHash){
+		this.rootHash = rootHash;
+		this.needsReRun = true;
+		return this;
+	}
+
+	/**
+	 * Returns the effective class path: all existing roots of the class path plus, transitively, all jar files referenced by the Class-Path attribute of jar manifests.
+	 * Referenced jar files follow the jar file referencing them, as for the system class loader.
+	 * Roots are canonical files and used only once, the first occurrence wins.
+	 * Jar files are compared by real path (resolving symbolic links) and, if activated, by content hash.
+	 * The jar filter is not applied, so that the manifest of a pathing jar is followed even if the filter does not accept the pathing jar itself.
+	 * @return effective class path in class path order, empty if no root exists
+	 */
+	public List<File> getEffectiveClassPath(){
+		List<File> ret = new ArrayList<>();
+		Set<File> roots = new HashSet<>();
+		Set<String> hashes = new HashSet<>();
+		StringTokenizer st = new StringTokenizer(this.getClassPath(), System.getProperty("path.separator"));
+		while(st.hasMoreTokens()){
+			this.addRoot(new File(st.nextToken()), ret, roots, hashes);
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds a root to the effective class path, if it exists and is not already added, followed by the jar files its manifest references.
+	 * @param file the root
+	 * @param ret effective class path to add the root to
+	 * @param roots real paths of all added roots
+	 * @param hashes content hashes of all added jar files
+	 */
+	protected void addRoot(File file, List<File> ret, Set<File> roots, Set<String> hashes){
+		if(!file.exists()){
+			return;
+		}
+		try{
+			//real path first, Java 8 with a security manager (as in the daemon) does not resolve links in canonical files
+			file = file.toPath().toRealPath().toFile();
+		}
+		catch(IOException | InvalidPathException ignore){
+			file = file.getAbsoluteFile();
+		}
+		if(!roots.add(file)){
+			return;
+		}
+		if(file.isDirectory()){
+			ret.add(file);
+			return;
+		}
+
+		if(this.rootHash){
+			try{
+				if(!hashes.add(CF_Utils.getContentHash(file))){
+					return;
+				}
+			}
+			catch(IOException ignore){}
+		}
+		ret.add(file);
+		if(this.manifestClassPath){
+			for(File reference : this.getManifestClassPath(file)){
+				this.addRoot(reference, ret, roots, hashes);
+			}
+		}
+	}
+
+	/**
+	 * Returns the jar files referenced by the Class-Path attribute in the manifest of a jar file.
+	 * References are URLs relative to the directory of the jar file, only references to local files are used.
+	 * @param file the jar file
+	 * @return referenced files in the order of the attribute, empty if none found or the manifest could not be read
+	 */
+	protected List<File> getManifestClassPath(File file){
+		List<File> ret = new ArrayList<>();
+		try(CF_JarCache.Handle handle = this.jarCache.acquire(file)){
+			Manifest manifest = handle.getJarFile().getManifest();
+			String classPath = (manifest==null)?null:manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+			if(classPath==null){
+				return ret;
+			}
+			URI base = file.getParentFile().toURI();
+			for(String reference : StringUtils.split(classPath)){
+				try{
+					URI uri = base.resolve(reference);
+					if("file".equals(uri.getScheme())){
+						ret.add(new File(uri));
+					}
+				}
+				catch(IllegalArgumentException ignore){}
+			}
+		}
+		catch(IOException ignore){}
+		return ret;
+	}
+
+	/**
+	 * Returns all roots of the effective class path, that is all existing directories and all existing jar files that pass the jar filter.
+	 * Other than {@link #getCfLocations()}, this method does not descend into any directory and opens jar files only to read their manifest.
+	 * @return list of class path roots in class path order, empty if none found
+	 */
+	public List<File> getCfRoots(){
+		List<File> ret = new ArrayList<>();
+		for(File file : this.getEffectiveClassPath()){
+			if(file.isDirectory() || this.acceptJar(file)){
+				ret.add(file);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Tests a jar file against the jar filter.
+	 * @param file jar file to test
+	 * @return true if the jar filter accepts the file name, false otherwise
+	 */
+	protected boolean acceptJar(File file){
+		return this.jarFilter.accepts(file.getName());
+	}
+
 	/**
 	 * Runs the locator and collects all locations using the filters if set.
 	 * The method can be called multiple times and will only result in a new map if any of the filters have been changed.
@@ -96,14 +306,7 @@ public class CF_Locator {
 	public Map<URI, String> getCfLocations(){
 		if(this.needsReRun==true){
 			this.locationMap.clear();
-			String pathSep = System.getProperty("path.separator");
-			String classpath = System.getProperty("java.class.path");
-			StringTokenizer st = new StringTokenizer(classpath, pathSep);
-
-			File file = null;
-			while(st.hasMoreTokens()){
-				String path = st.nextToken();
-				file = new File(path);
+			for(File file : this.getEffectiveClassPath()){
 				this.include(file);
 			}
 		}
@@ -130,16 +333,8 @@ public class CF_Locator {
 			return;
 		}
 		if(!file.isDirectory()){
-			if(this.jarFilter.size()>0){
-				boolean ok = false;
-				for(String s : this.jarFilter){
-					if(file.getName().startsWith(s)){
-						ok = true;
-					}
-				}
-				if(ok==false){
-					return;
-				}
+			if(!this.acceptJar(file)){
+				return;
 			}
 			this.includeJar(file);
 			return;
@@ -154,6 +349,9 @@ public class CF_Locator {
 
 		File[] dirs = file.listFiles(CF_Utils.DIRECTORIES_ONLY);
 		for(int i=0; i<dirs.length; i++){
+			if(!this.pkgFilter.mayAccept(name + dirs[i].getName() + ".")){
+				continue;
+			}
 			try{
 				this.locationMap.put(new URI("file://" + dirs[i].getCanonicalPath()), name + dirs[i].getName());
 			}
@@ -174,39 +372,31 @@ public class CF_Locator {
 		}
 
 		URL jarURL = null;
-		JarFile jar = null;
-		try{
-			jarURL = new URL("jar:" + new URL("file:/" + file.getCanonicalPath()).toExternalForm() + "!/");
-			JarURLConnection conn = (JarURLConnection)jarURL.openConnection();
-			jar = conn.getJarFile();
-		}
-		catch(MalformedURLException ignore){return;}
-		catch(IOException ignore){return;}
-
-		if(jar==null){
-			return;
-		}
-
-		try{
-			this.locationMap.put(jarURL.toURI(), "");
-		}
-		catch(URISyntaxException ignore){}
-
-		for(Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();){
-			JarEntry entry = e.nextElement();
-			if(this.pkgFilter!=null && entry.getName().startsWith(this.pkgFilter)){
-				continue;
+		try(CF_JarCache.Handle handle = this.jarCache.acquire(file)){
+			jarURL = new URL("jar:" + file.getCanonicalFile().toURI().toURL().toExternalForm() + "!/");
+			try{
+				this.locationMap.put(jarURL.toURI(), "");
 			}
-			if(entry.isDirectory()){
-				if(entry.getName().toUpperCase(Locale.ENGLISH).equals("META-INF/")){
-					continue;
-				}
-				try{
-					this.locationMap.put(new URI(jarURL.toExternalForm() + entry.getName()), CF_Utils.getPkgName(entry));
+			catch(URISyntaxException ignore){}
+
+			for(Enumeration<JarEntry> e = handle.getJarFile().entries(); e.hasMoreElements();){
+				JarEntry entry = e.nextElement();
+				if(entry.isDirectory()){
+					if(!this.pkgFilter.mayAccept(entry.getName())){
+						continue;
+					}
+					if(entry.getName().toUpperCase(Locale.ENGLISH).equals("META-INF/")){
+						continue;
+					}
+					try{
+						this.locationMap.put(new URI(jarURL.toExternalForm() + entry.getName()), CF_Utils.getPkgName(entry));
+					}
+					catch(URISyntaxException ignore){continue;}
 				}
-				catch(URISyntaxException ignore){continue;}
 			}
 		}
+		catch(MalformedURLException ignore){return;}
+		catch(IOException ignore){return;}
 	}
 
 }
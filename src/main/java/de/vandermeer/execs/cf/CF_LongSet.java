@@ -0,0 +1,162 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vandermeer.execs.cf;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of 64-bit ids using open addressing on a primitive array, for instance for entry names processed in a search.
+ * Names are added as 64-bit hashes (see {@link #id(CharSequence)}), so the set does not keep the names alive and needs 8 to 16 bytes per name.
+ * Two different names with the same hash are taken as equal, for a million names the probability of any such collision is below 1 in 10^7.
+ * All methods are synchronized, the set can be used by parallel searches.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_LongSet {
+
+	/** Marker for empty slots, ids equal to it are stored as {@link #ZERO_ID}. */
+	protected final static long EMPTY = 0L;
+
+	/** Replacement for the id equal to {@link #EMPTY}. */
+	protected final static long ZERO_ID = 0x9E3779B97F4A7C15L;
+
+	/** Initial capacity, a power of 2. */
+	protected final static int INITIAL_CAPACITY = 64;
+
+	/** Slots of the hash table, capacity is a power of 2. */
+	protected long[] slots;
+
+	/** Number of ids in the set. */
+	protected int size;
+
+	/**
+	 * Returns a new empty set.
+	 */
+	public CF_LongSet(){
+		this.slots = new long[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the 64-bit id of a name, an FNV-1a hash of its characters.
+	 * @param name the name
+	 * @return id of the name
+	 */
+	public static long id(CharSequence name){
+		long ret = 0xcbf29ce484222325L;
+		for(int i=0; i<name.length(); i++){
+			char c = name.charAt(i);
+			ret = (ret ^ (c & 0xFF)) * 0x100000001b3L;
+			ret = (ret ^ (c >>> 8)) * 0x100000001b3L;
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds the id of a name.
+	 * @param name the name
+	 * @return true if added, false if the set already contained the id
+	 */
+	public boolean add(CharSequence name){
+		return this.add(id(name));
+	}
+
+	/**
+	 * Tests if the set contains the id of a name.
+	 * @param name the name
+	 * @return true if contained, false otherwise
+	 */
+	public boolean contains(CharSequence name){
+		return this.contains(id(name));
+	}
+
+	/**
+	 * Adds an id.
+	 * @param id the id
+	 * @return true if added, false if the set already contained the id
+	 */
+	public synchronized boolean add(long id){
+		id = (id==EMPTY)?ZERO_ID:id;
+		int slot = this.slot(id);
+		if(this.slots[slot]==id){
+			return false;
+		}
+		this.slots[slot] = id;
+		this.size++;
+		if(this.size*2>this.slots.length){
+			this.grow();
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if the set contains an id.
+	 * @param id the id
+	 * @return true if contained, false otherwise
+	 */
+	public synchronized boolean contains(long id){
+		id = (id==EMPTY)?ZERO_ID:id;
+		return this.slots[this.slot(id)]==id;
+	}
+
+	/**
+	 * Returns the number of ids in the set.
+	 * @return number of ids
+	 */
+	public synchronized int size(){
+		return this.size;
+	}
+
+	/**
+	 * Removes all ids and releases the memory of large tables.
+	 */
+	public synchronized void clear(){
+		if(this.slots.length>INITIAL_CAPACITY){
+			this.slots = new long[INITIAL_CAPACITY];
+		}
+		else{
+			Arrays.fill(this.slots, EMPTY);
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the slot of an id: the slot containing it or the empty slot it would be stored in (linear probing).
+	 * @param id the id, not {@link #EMPTY}
+	 * @return slot
+	 */
+	protected int slot(long id){
+		int mask = this.slots.length - 1;
+		int ret = (int)(id ^ (id >>> 32)) & mask;
+		while(this.slots[ret]!=EMPTY && this.slots[ret]!=id){
+			ret = (ret + 1) & mask;
+		}
+		return ret;
+	}
+
+	/**
+	 * Doubles the capacity of the table.
+	 */
+	protected void grow(){
+		long[] old = this.slots;
+		this.slots = new long[old.length*2];
+		for(long id : old){
+			if(id!=EMPTY){
+				this.slots[this.slot(id)] = id;
+			}
+		}
+	}
+}
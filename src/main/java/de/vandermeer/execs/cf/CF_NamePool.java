@@ -0,0 +1,75 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vandermeer.execs.cf;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of shared class names for the headers of a scan.
+ * Every class name appears in many class headers: as the name of the class, as super class name and as interface name of its subtypes (think of "java.lang.Object").
+ * Without sharing, every occurrence is a string of its own, kept alive by the class graph of the class finder.
+ * The pool returns one instance for all equal names, so the class graph keeps every name only once.
+ * Other than {@link String#intern()}, the pool is local to a scan and dropped with it.
+ * The pool is thread safe, headers can be read in parallel.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_NamePool {
+
+	/** Shared names. */
+	protected final ConcurrentHashMap<String, String> names;
+
+	/**
+	 * Returns a new empty pool.
+	 */
+	public CF_NamePool(){
+		this.names = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the shared instance of a name.
+	 * @param name the name, can be null
+	 * @return shared instance equal to the name, the name itself if it was not in the pool, null for null
+	 */
+	public String share(String name){
+		if(name==null){
+			return null;
+		}
+		String ret = this.names.putIfAbsent(name, name);
+		return (ret==null)?name:ret;
+	}
+
+	/**
+	 * Returns the shared instances of names.
+	 * @param names the names, the array is changed
+	 * @return the array with shared instances
+	 */
+	public String[] share(String[] names){
+		for(int i=0; i<names.length; i++){
+			names[i] = this.share(names[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the number of names in the pool.
+	 * @return number of names
+	 */
+	public int size(){
+		return this.names.size();
+	}
+}
@@ -0,0 +1,217 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A query over a class graph (see {@link CF_ClassGraph}), combining criteria on annotations, super types, packages and simple names.
+ *
+ * All criteria are answered from the class headers in the graph, no class is loaded.
+ * A query starts from the most selective index of the graph (annotation, then super type, then package) and filters the candidates by all other criteria.
+ * Setting a criterion again replaces the previous value.
+ *
+ * Example: all concrete implementors of an interface in a package, annotated with an annotation
+ * <pre>
+ * cf.getClassGraph().query().subtypeOf(MyInterface.class).inPackage("my.pkg").annotatedWith(MyAnnotation.class).concrete().find();
+ * </pre>
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_Query {
+
+	/** The graph to query. */
+	protected final CF_ClassGraph graph;
+
+	/** Name of the required annotation, null for any. */
+	protected String annotation;
+
+	/** Name of the required super type, null for any. */
+	protected String supertype;
+
+	/** Name of the required package including sub packages, null for any. */
+	protected String pkg;
+
+	/** Pattern the simple class name must match, null for any. */
+	protected Pattern simpleName;
+
+	/** Flag for concrete classes only. */
+	protected boolean concrete;
+
+	/**
+	 * Returns a new query without criteria.
+	 * @param graph the graph to query
+	 */
+	public CF_Query(CF_ClassGraph graph){
+		this.graph = graph;
+	}
+
+	/**
+	 * Restricts the query to classes annotated with an annotation.
+	 * @param annotation the annotation, must have class or runtime retention to be found
+	 * @return self to allow for chaining
+	 */
+	public CF_Query annotatedWith(Class<?> annotation){
+		return this.annotatedWith(annotation.getName());
+	}
+
+	/**
+	 * Restricts the query to classes annotated with an annotation.
+	 * @param annotation name of the annotation
+	 * @return self to allow for chaining
+	 */
+	public CF_Query annotatedWith(String annotation){
+		this.annotation = annotation;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to subtypes of a type, direct and indirect.
+	 * @param type the type
+	 * @return self to allow for chaining
+	 */
+	public CF_Query subtypeOf(Class<?> type){
+		return this.subtypeOf(type.getName());
+	}
+
+	/**
+	 * Restricts the query to subtypes of a type, direct and indirect.
+	 * @param type name of the type, the type does not need to be in the graph
+	 * @return self to allow for chaining
+	 */
+	public CF_Query subtypeOf(String type){
+		this.supertype = type;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to classes in a package or any of its sub packages.
+	 * @param pkg package name, empty string for all packages
+	 * @return self to allow for chaining
+	 */
+	public CF_Query inPackage(String pkg){
+		this.pkg = pkg;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to classes with a simple name matching a regular expression.
+	 * The simple name of a nested class is the part after the last '$'.
+	 * @param regex the regular expression, must match the whole simple name
+	 * @return self to allow for chaining
+	 */
+	public CF_Query simpleName(String regex){
+		this.simpleName = Pattern.compile(regex);
+		return this;
+	}
+
+	/**
+	 * Restricts the query to classes that are neither interfaces nor abstract.
+	 * @return self to allow for chaining
+	 */
+	public CF_Query concrete(){
+		this.concrete = true;
+		return this;
+	}
+
+	/**
+	 * Runs the query.
+	 * @return names of all classes in the graph matching all criteria, in the order of the index used, empty set if none
+	 */
+	public Set<String> find(){
+		Set<String> subtypes = (this.supertype==null)?null:this.graph.getSubtypes(this.supertype);
+
+		Collection<String> candidates;
+		if(this.annotation!=null){
+			candidates = this.graph.getAnnotated(this.annotation);
+		}
+		else if(subtypes!=null){
+			candidates = subtypes;
+		}
+		else if(this.pkg!=null && this.pkg.length()>0){
+			candidates = this.getPackageCandidates();
+		}
+		else{
+			candidates = this.graph.getClassNames();
+		}
+
+		Set<String> ret = new LinkedHashSet<>();
+		for(String name : candidates){
+			if(subtypes!=null && !subtypes.contains(name)){
+				continue;
+			}
+			if(this.matches(name)){
+				ret.add(name);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the names of all classes in the package of the query or any of its sub packages.
+	 * @return class names
+	 */
+	protected List<String> getPackageCandidates(){
+		List<String> ret = new ArrayList<>();
+		for(String s : this.graph.getPackageNames()){
+			if(this.isInPackage(s)){
+				ret.addAll(this.graph.getPackageClasses(s));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Tests a class against the criteria of the query that are not covered by an index.
+	 * @param name class name
+	 * @return true if the class matches, false otherwise
+	 */
+	protected boolean matches(String name){
+		CF_ClassHeader header = this.graph.get(name);
+		if(header==null){
+			return false;
+		}
+		if(this.concrete && header.isAbstract()){
+			return false;
+		}
+		if(this.annotation!=null && !header.isAnnotatedWith(this.annotation)){
+			return false;
+		}
+		if(this.pkg!=null && this.pkg.length()>0 && !this.isInPackage(CF_ClassGraph.getPackageName(name))){
+			return false;
+		}
+		if(this.simpleName!=null && !this.simpleName.matcher(CF_ClassGraph.getSimpleName(name)).matches()){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if a package is the package of the query or one of its sub packages.
+	 * @param name package name
+	 * @return true if in the package, false otherwise
+	 */
+	protected boolean isInPackage(String name){
+		return name.equals(this.pkg) || (name.startsWith(this.pkg) && name.length()>this.pkg.length() && name.charAt(this.pkg.length())=='.');
+	}
+}
@@ -0,0 +1,326 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Metrics of scanning a single class path root (jar file or directory).
+ * The scanner collects entries enumerated, classes inspected, classes loaded, matches, bytes read, elapsed time and errors by type.
+ * The static methods create a human readable report (slowest roots first) or write the metrics in a tab separated format.
+ * Roots not scanned or not scanned completely within the time budget of the scan are marked as skipped or incomplete.
+ * The metrics are not synchronized, each thread scanning (part of) a root uses its own metrics; parts of a root scanned in parallel are added up (see {@link #add(CF_RootStats)}).
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_RootStats {
+
+	/** Header line of the tab separated format. */
+	public final static String TSV_HEADER = "root\tsource\tentries\tclasses\tloaded\tmatches\tbytes\tnanos\terrors";
+
+	/** The class path root. */
+	protected final File root;
+
+	/** Flag for a root taken from the index instead of being scanned. */
+	protected boolean indexed;
+
+	/** Flag for a root whose scan was stopped when its time budget or the time budget of the scan was used up, results are partial. */
+	protected boolean incomplete;
+
+	/** Flag for a root that was not scanned since the time budget of the scan was used up. */
+	protected boolean skipped;
+
+	/** Deadline for the scan of the root as {@link System#nanoTime()}, 0 for none, set by the scanner. */
+	protected long deadline;
+
+	/** Number of entries enumerated (jar entries or files). */
+	protected long entries;
+
+	/** Number of class headers read. */
+	protected long classes;
+
+	/** Number of classes loaded for this root. */
+	protected long loaded;
+
+	/** Number of subclasses found in this root. */
+	protected long matches;
+
+	/** Number of bytes of class data read. */
+	protected long bytes;
+
+	/** Elapsed time for the scan in nanoseconds. */
+	protected long nanos;
+
+	/** Number of errors by error type (simple class name). */
+	protected final Map<String, Integer> errors;
+
+	/**
+	 * Returns new metrics for a root.
+	 * @param root the class path root
+	 */
+	public CF_RootStats(File root){
+		this.root = root;
+		this.errors = new TreeMap<>();
+	}
+
+	/**
+	 * Adds an error.
+	 * @param error the error
+	 */
+	protected void addError(Throwable error){
+		String type = error.getClass().getSimpleName();
+		Integer count = this.errors.get(type);
+		this.errors.put(type, (count==null)?1:count + 1);
+	}
+
+	/**
+	 * Adds the counters and errors of other metrics, for instance of a sub-directory scanned in parallel.
+	 * @param other metrics to add
+	 */
+	protected void add(CF_RootStats other){
+		this.entries += other.entries;
+		this.classes += other.classes;
+		this.loaded += other.loaded;
+		this.matches += other.matches;
+		this.bytes += other.bytes;
+		this.incomplete |= other.incomplete;
+		for(Map.Entry<String, Integer> error : other.errors.entrySet()){
+			Integer count = this.errors.get(error.getKey());
+			this.errors.put(error.getKey(), (count==null)?error.getValue():count + error.getValue());
+		}
+	}
+
+	/**
+	 * Returns the class path root.
+	 * @return root
+	 */
+	public File getRoot(){
+		return this.root;
+	}
+
+	/**
+	 * Tests if the root was taken from the index.
+	 * @return true if taken from the index, false if scanned
+	 */
+	public boolean isIndexed(){
+		return this.indexed;
+	}
+
+	/**
+	 * Tests if the scan of the root was stopped by a time budget.
+	 * @return true if the root was scanned partially, false otherwise
+	 */
+	public boolean isIncomplete(){
+		return this.incomplete;
+	}
+
+	/**
+	 * Tests if the root was skipped since the time budget of the scan was used up.
+	 * @return true if the root was not scanned, false otherwise
+	 */
+	public boolean isSkipped(){
+		return this.skipped;
+	}
+
+	/**
+	 * Returns the source of the classes of the root.
+	 * @return "index" if taken from the index, "skipped" if not scanned, "partial" if scanned incompletely, "scan" otherwise
+	 */
+	public String getSource(){
+		if(this.indexed){
+			return "index";
+		}
+		if(this.skipped){
+			return "skipped";
+		}
+		return (this.incomplete)?"partial":"scan";
+	}
+
+	/**
+	 * Returns the number of enumerated entries.
+	 * @return number of jar entries or files, 0 if taken from the index
+	 */
+	public long getEntries(){
+		return this.entries;
+	}
+
+	/**
+	 * Returns the number of inspected classes.
+	 * @return number of class headers read or taken from the index
+	 */
+	public long getClasses(){
+		return this.classes;
+	}
+
+	/**
+	 * Returns the number of loaded classes.
+	 * @return number of classes loaded for subclasses found in the root or classes they extend
+	 */
+	public long getLoaded(){
+		return this.loaded;
+	}
+
+	/**
+	 * Returns the number of matches.
+	 * @return number of subclasses found in the root
+	 */
+	public long getMatches(){
+		return this.matches;
+	}
+
+	/**
+	 * Returns the number of bytes read.
+	 * @return bytes of (uncompressed) class data read
+	 */
+	public long getBytes(){
+		return this.bytes;
+	}
+
+	/**
+	 * Returns the elapsed time.
+	 * @return scan time in nanoseconds
+	 */
+	public long getNanos(){
+		return this.nanos;
+	}
+
+	/**
+	 * Returns the errors by type.
+	 * @return map of error type (simple class name) to count
+	 */
+	public Map<String, Integer> getErrors(){
+		return this.errors;
+	}
+
+	/**
+	 * Returns the number of all errors.
+	 * @return error count
+	 */
+	public int getErrorCount(){
+		int ret = 0;
+		for(Integer count : this.errors.values()){
+			ret += count;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the errors as a single string.
+	 * @return errors as "type=count" separated by comma, empty string if there are no errors
+	 */
+	public String getErrorString(){
+		List<String> ret = new ArrayList<>();
+		for(Entry<String, Integer> entry : this.errors.entrySet()){
+			ret.add(entry.getKey() + "=" + entry.getValue());
+		}
+		return StringUtils.join(ret, ',');
+	}
+
+	/**
+	 * Returns the metrics as a line in the tab separated format, see {@link #TSV_HEADER}.
+	 * @return tab separated metrics
+	 */
+	public String toTsv(){
+		return StringUtils.join(new Object[]{
+				this.root.getPath(),
+				this.getSource(),
+				this.entries,
+				this.classes,
+				this.loaded,
+				this.matches,
+				this.bytes,
+				this.nanos,
+				this.getErrorString()
+		}, '\t');
+	}
+
+	/**
+	 * Returns metrics sorted by elapsed time, slowest first.
+	 * @param stats metrics to sort
+	 * @return new sorted list
+	 */
+	public static List<CF_RootStats> sortByTime(Collection<CF_RootStats> stats){
+		List<CF_RootStats> ret = new ArrayList<>(stats);
+		Collections.sort(ret, (a, b) -> Long.compare(b.nanos, a.nanos));
+		return ret;
+	}
+
+	/**
+	 * Returns a human readable report for metrics, with totals and one line per root, slowest roots first.
+	 * @param stats metrics for the report
+	 * @return report, lines separated by the system line separator
+	 */
+	public static String report(Collection<CF_RootStats> stats){
+		long entries = 0, classes = 0, loaded = 0, matches = 0, bytes = 0, nanos = 0, errors = 0, incomplete = 0;
+		for(CF_RootStats s : stats){
+			entries += s.entries;
+			classes += s.classes;
+			loaded += s.loaded;
+			matches += s.matches;
+			bytes += s.bytes;
+			nanos += s.nanos;
+			errors += s.getErrorCount();
+			if(s.incomplete || s.skipped){
+				incomplete++;
+			}
+		}
+
+		String nl = System.lineSeparator();
+		StringBuilder ret = new StringBuilder();
+		ret.append(String.format("class path scan: %d roots, %d entries, %d classes, %d loaded, %d matches, %d bytes, %.1f ms (sum over roots), %d errors", stats.size(), entries, classes, loaded, matches, bytes, nanos/1e6, errors));
+		if(incomplete>0){
+			ret.append(String.format(", %d roots incomplete (time budget)", incomplete));
+		}
+		ret.append(nl);
+		ret.append(String.format("%10s %8s %8s %7s %7s %10s %7s  %-7s %s", "time(ms)", "entries", "classes", "loaded", "matches", "bytes", "errors", "source", "root")).append(nl);
+		for(CF_RootStats s : sortByTime(stats)){
+			ret.append(String.format("%10.1f %8d %8d %7d %7d %10d %7d  %-7s %s", s.nanos/1e6, s.entries, s.classes, s.loaded, s.matches, s.bytes, s.getErrorCount(), s.getSource(), s.root.getPath())).append(nl);
+			if(s.errors.size()>0){
+				ret.append(String.format("%10s %s", "", s.getErrorString())).append(nl);
+			}
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Writes metrics in the tab separated format with a header line, slowest roots first.
+	 * @param stats metrics to write
+	 * @param writer writer to write to, will not be closed
+	 * @throws IOException if writing failed
+	 */
+	public static void write(Collection<CF_RootStats> stats, Writer writer) throws IOException{
+		writer.write(TSV_HEADER);
+		writer.write('\n');
+		for(CF_RootStats s : sortByTime(stats)){
+			writer.write(s.toTsv());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,914 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A single-pass scanner searching class path roots for subclasses of a given class.
+ * Each jar file is opened once and its entries are enumerated once, each directory tree is walked once using NIO.
+ * Classes are not loaded for the search, instead the scanner reads the class headers from the class files (see {@link CF_ClassHeader}) and resolves the class hierarchy from them.
+ * All headers are collected in a class graph (see {@link CF_ClassGraph}), which is handed to the class finder for further queries.
+ * Only found subclasses are loaded, without initialization; a search for class names does not load them at all and can use a throwaway class loader for the few classes it needs to load (see {@link CF_IsolatedLoader}).
+ * Roots, and the directories of directory trees, are scanned in parallel on a fork/join pool if the class finder's parallelism is larger than 1.
+ * The results of all roots are merged in class path order, so that for classes found in more than one root the first one is used as a class loader would do.
+ * Subclasses are reported as soon as they are known: after each merged root, all classes with a resolved hierarchy are reported, classes extending classes not yet seen are reported once more roots are merged or at the end of the scan.
+ * Jar files nested in a jar file, for instance in "BOOT-INF/lib/" of a fat jar, are scanned as part of the outer jar file without extracting them (see {@link CF#setNestedJarDirectories(String...)}).
+ * If the class finder has a cache directory, unchanged roots are taken from a persistent index (see {@link CF_Index}) instead of being scanned.
+ * Time budgets of the class finder (see {@link CF#setScanBudget(long)} and {@link CF#setRootBudget(long)}) stop scans that take too long, the results found so far are used and the roots are marked incomplete or skipped.
+ * The scanner uses the settings (class loader, excluded names) of its class finder and reports errors, processed artifacts and metrics for each root (see {@link CF_RootStats}) to it.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class CF_Scanner {
+
+	/** The class finder the scanner works for. */
+	protected final CF cf;
+
+	/** The class to search subclasses for. */
+	protected final Class<?> clazz;
+
+	/** Class loader for classes outside the scanned roots, the class loader of the class finder unless set otherwise. */
+	protected ClassLoader loader;
+
+	/** The searched class as loaded by the class loader for classes outside the scanned roots. */
+	protected Class<?> target;
+
+	/** Class graph of all scanned classes, in class path order. */
+	protected final CF_ClassGraph graph;
+
+	/** Results of subclass tests by class name. */
+	protected final Map<String, Boolean> resolved;
+
+	/** Metrics of the root each scanned class was taken from, by class name. */
+	protected final Map<String, CF_RootStats> origins;
+
+	/** Names of merged classes not yet resolved, in class path order. */
+	protected final Set<String> pending;
+
+	/** Names of classes currently being resolved, guard against cycles in broken class hierarchies. */
+	protected final Set<String> resolving;
+
+	/** Persistent index for scanned roots, null if not used. */
+	protected CF_Index index;
+
+	/** Pool sharing class names between all headers of the scan. */
+	protected final CF_NamePool names;
+
+	/** Filter for class names, accepting jar entry names as well. */
+	protected final CF_Filter filter;
+
+	/** Directories with nested jar files as entry name prefixes, empty to not scan nested jar files. */
+	protected final byte[][] nestedDirectories;
+
+	/** Deadline of the scan as {@link System#nanoTime()}, 0 for none. */
+	protected long deadline;
+
+	/** Flag for roots abandoned by a parallel scan, tasks still scanning stop at their next entry once it is set. */
+	protected volatile boolean cancelled;
+
+	/** Time a parallel scan waits after its deadline for roots to return their partial results, in nanoseconds. */
+	protected final static long GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** Suffix of class file entries. */
+	protected final static byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.US_ASCII);
+
+	/** Suffix of nested jar file entries. */
+	protected final static byte[] JAR_SUFFIX = ".jar".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Returns a new scanner.
+	 * @param cf the class finder the scanner works for, must not be null
+	 * @param clazz the class to search subclasses for, must not be null except for {@link #scanGraph(List)}
+	 */
+	public CF_Scanner(CF cf, Class<?> clazz){
+		this.cf = cf;
+		this.clazz = clazz;
+		this.loader = cf.classLoader;
+		this.target = clazz;
+		this.graph = new CF_ClassGraph();
+		this.resolved = new HashMap<>();
+		this.origins = new HashMap<>();
+		this.pending = new LinkedHashSet<>();
+		this.resolving = new HashSet<>();
+		this.filter = cf.getClassFilter();
+		this.names = new CF_NamePool();
+		this.nestedDirectories = new byte[cf.nestedJarDirectories.length][];
+		for(int i=0; i<this.nestedDirectories.length; i++){
+			this.nestedDirectories[i] = cf.nestedJarDirectories[i].getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Scans all given roots and resolves the subclasses.
+	 * @param roots class path roots (jar files or directories) to scan
+	 * @return all found subclasses in the order they were found, empty set if none found
+	 */
+	public Set<Class<?>> scan(List<File> roots){
+		Set<Class<?>> ret = new LinkedHashSet<>();
+		this.scan(roots, ret::add);
+		return ret;
+	}
+
+	/**
+	 * Sets the class loader for classes outside the scanned roots, for instance a throwaway loader isolating the search (see {@link CF_IsolatedLoader}).
+	 * The searched class is loaded from this class loader as well, if that fails the class loader of the class finder is used.
+	 * @param loader class loader for classes outside the scanned roots, null for the class loader of the class finder
+	 * @return self to allow for chaining
+	 */
+	public CF_Scanner setLoader(ClassLoader loader){
+		this.loader = this.cf.classLoader;
+		this.target = this.clazz;
+		if(loader!=null && this.clazz!=null){
+			try{
+				this.target = Class.forName(this.clazz.getName(), false, loader);
+				this.loader = loader;
+			}
+			catch(Exception exception){
+				this.error(exception, null);
+			}
+			catch(Error error){
+				this.error(error, null);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Scans all given roots and reports each subclass as soon as it is found.
+	 * The consumer is called from the calling thread only, even for a parallel scan.
+	 * Found subclasses are loaded (without initialization) using the class loader of the class finder.
+	 * @param roots class path roots (jar files or directories) to scan
+	 * @param consumer consumer for found subclasses, called once per subclass
+	 */
+	public void scan(List<File> roots, Consumer<Class<?>> consumer){
+		this.scanNames(roots, name -> {
+			CF_RootStats stats = this.origins.get(name);
+			try{
+				Class<?> found = Class.forName(name, false, this.cf.classLoader);
+				stats.loaded++;
+				consumer.accept(found);
+			}
+			catch(Exception exception){
+				this.error(exception, stats);
+			}
+			catch(Error error){
+				this.error(error, stats);
+			}
+		});
+	}
+
+	/**
+	 * Scans all given roots and reports the name of each subclass as soon as it is found, without loading found subclasses.
+	 * The consumer is called from the calling thread only, even for a parallel scan.
+	 * The class headers of found subclasses are available from the class graph of the class finder (see {@link CF#getLastClassGraph()}).
+	 * @param roots class path roots (jar files or directories) to scan
+	 * @param consumer consumer for the class names of found subclasses, called once per subclass
+	 */
+	public void scanNames(List<File> roots, Consumer<String> consumer){
+		this.cf.classGraph = this.graph;
+		this.index = this.cf.getIndex(this.clazz, this.names);
+		List<CF_RootStats> stats = new ArrayList<>();
+		for(File root : roots){
+			stats.add(new CF_RootStats(root));
+		}
+		this.scanAll(stats, (root, list) -> {
+			this.merge(root, list);
+			this.emit(consumer, false);
+		});
+		if(this.index!=null){
+			try{
+				this.index.store();
+			}
+			catch(IOException ex){
+				this.cf.errors.add(null, ex);
+			}
+		}
+		this.emit(consumer, true);
+	}
+
+	/**
+	 * Scans all given roots and builds a class graph of all classes in them, without searching for subclasses.
+	 * The scan does not use an index, since an index only keeps classes relevant for a particular search.
+	 * @param roots class path roots (jar files or directories) to scan
+	 * @return class graph with all scanned classes
+	 */
+	public CF_ClassGraph scanGraph(List<File> roots){
+		this.cf.classGraph = this.graph;
+		this.index = null;
+		List<CF_RootStats> stats = new ArrayList<>();
+		for(File root : roots){
+			stats.add(new CF_RootStats(root));
+		}
+		this.scanAll(stats, this::merge);
+		return this.graph;
+	}
+
+	/**
+	 * Scans all given roots, in parallel if the class finder's parallelism is larger than 1.
+	 * Directory trees are scanned in parallel as well, so a single directory root (e.g. an exploded build) uses the full parallelism.
+	 * The merger is called in the calling thread in order of the roots, for each root as soon as it and all roots before it are scanned.
+	 * @param roots metrics for the class path roots (jar files or directories) to scan
+	 * @param merger merger for the class headers of a root, not called for roots already processed
+	 */
+	protected void scanAll(List<CF_RootStats> roots, BiConsumer<CF_RootStats, List<CF_ClassHeader>> merger){
+		this.deadline = (this.cf.scanBudget>0)?System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.cf.scanBudget):0;
+		int parallelism = this.cf.getParallelism();
+		boolean directories = false;
+		for(CF_RootStats root : roots){
+			directories |= root.getRoot().isDirectory();
+		}
+		if(!directories){
+			//only directory trees can use more threads than there are roots
+			parallelism = Math.min(parallelism, roots.size());
+		}
+		if(parallelism<=1){
+			for(CF_RootStats root : roots){
+				List<CF_ClassHeader> list = this.scan(root);
+				if(list!=null){
+					merger.accept(root, list);
+				}
+			}
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try{
+			List<ForkJoinTask<List<CF_ClassHeader>>> tasks = new ArrayList<>();
+			for(CF_RootStats root : roots){
+				tasks.add(pool.submit(() -> this.scan(root)));
+			}
+			for(int i=0; i<tasks.size(); i++){
+				List<CF_ClassHeader> list = this.join(tasks.get(i), roots.get(i));
+				if(list!=null){
+					merger.accept(roots.get(i), list);
+				}
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for the scan of a root in a parallel scan.
+	 * Without a deadline, the method waits until the root is scanned.
+	 * Otherwise it waits until shortly after the deadline, a root that is still not scanned (for instance blocked reading a file) is abandoned and reported as incomplete without any classes.
+	 * Fork/join tasks ignore interrupts, so abandoning a root sets the cancelled flag the scan tasks test before each entry.
+	 * The metrics of an abandoned root are reported as new metrics, the metrics of its task are not published since the task might still update them.
+	 * @param task the task scanning the root
+	 * @param stats metrics of the root
+	 * @return headers of all classes in the root, null if the root has already been processed or was abandoned
+	 */
+	protected List<CF_ClassHeader> join(ForkJoinTask<List<CF_ClassHeader>> task, CF_RootStats stats){
+		if(this.deadline==0){
+			return task.join();
+		}
+		try{
+			return task.get(Math.max(0, this.deadline + GRACE_NANOS - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch(TimeoutException ex){
+			this.cancelled = true;
+			task.cancel(true);
+		}
+		catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			this.cancelled = true;
+			task.cancel(true);
+		}
+		catch(ExecutionException ex){
+			this.error(ex.getCause(), stats);
+			stats.incomplete = true;
+			this.cf.stats.add(stats);
+			return null;
+		}
+		CF_RootStats abandoned = new CF_RootStats(stats.getRoot());
+		abandoned.incomplete = true;
+		this.cf.stats.add(abandoned);
+		return null;
+	}
+
+	/**
+	 * Tests if a deadline has passed.
+	 * @param deadline the deadline as {@link System#nanoTime()}, 0 for none
+	 * @return true if the deadline has passed, false otherwise
+	 */
+	protected static boolean isExpired(long deadline){
+		return deadline!=0 && System.nanoTime() - deadline>=0;
+	}
+
+	/**
+	 * Tests if the deadline of a root has passed or the scan abandoned its roots and marks the root as incomplete if so.
+	 * Scans test this before each entry and stop when it returns true.
+	 * @param stats metrics of the root
+	 * @return true if the deadline has passed or the scan was cancelled, false otherwise
+	 */
+	protected boolean isExpired(CF_RootStats stats){
+		if(this.cancelled || isExpired(stats.deadline)){
+			stats.incomplete = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Merges the class headers of a root, classes already merged from an earlier root are ignored.
+	 * @param stats metrics of the root
+	 * @param list class headers of the root
+	 */
+	protected void merge(CF_RootStats stats, List<CF_ClassHeader> list){
+		this.cf.stats.add(stats);
+		for(CF_ClassHeader header : list){
+			if(this.graph.add(header)){
+				this.origins.put(header.getName(), stats);
+				this.pending.add(header.getName());
+			}
+		}
+	}
+
+	/**
+	 * Scans a single root, collecting the headers of all classes in it.
+	 * If an index is used and the root has not changed, the indexed headers are returned without scanning.
+	 * This method is thread safe, i.e. roots can be scanned in parallel.
+	 * @param root class path root, a jar file or a directory
+	 * @return headers of all classes in the root, in scan order
+	 */
+	public List<CF_ClassHeader> scan(File root){
+		CF_RootStats stats = new CF_RootStats(root);
+		List<CF_ClassHeader> ret = this.scan(stats);
+		if(ret==null){
+			return new ArrayList<>();
+		}
+		this.cf.stats.add(stats);
+		return ret;
+	}
+
+	/**
+	 * Scans a single root, collecting the headers of all classes in it and metrics for the scan.
+	 * If the deadline of the scan has passed, the root is skipped unless it can be taken from the index.
+	 * The root is scanned until its own deadline, the earlier of the deadline of the scan and its time budget.
+	 * @param stats metrics for the root, with the class path root to scan
+	 * @return headers of all classes in the root in scan order (partial for an incomplete root, empty for a skipped root), null if the root has already been processed
+	 */
+	protected List<CF_ClassHeader> scan(CF_RootStats stats){
+		File root = stats.getRoot();
+		if(!this.cf.processed.add(root.getPath())){
+			return null;
+		}
+
+		List<CF_ClassHeader> ret = new ArrayList<>();
+		long start = System.nanoTime();
+		try{
+			if(this.index!=null){
+				List<CF_ClassHeader> indexed = this.index.get(root);
+				if(indexed!=null){
+					stats.indexed = true;
+					stats.classes = indexed.size();
+					return indexed;
+				}
+			}
+
+			if(this.cancelled || isExpired(this.deadline)){
+				stats.skipped = true;
+				return ret;
+			}
+			stats.deadline = this.deadline;
+			if(this.cf.rootBudget>0){
+				long rootDeadline = start + TimeUnit.MILLISECONDS.toNanos(this.cf.rootBudget);
+				if(stats.deadline==0 || rootDeadline - stats.deadline<0){
+					stats.deadline = rootDeadline;
+				}
+			}
+
+			if(root.isDirectory()){
+				this.scanDirectory(root, null, ret, stats);
+			}
+			else{
+				this.scanJar(root, ret, stats);
+			}
+
+			if(this.index!=null && !stats.incomplete && !this.cancelled && !isExpired(this.deadline)){
+				this.index.put(root, ret);
+			}
+		}
+		catch(IOException exception){
+			this.error(exception, stats);
+		}
+		catch(RuntimeException exception){
+			this.error(exception, stats);
+		}
+		finally{
+			stats.nanos = System.nanoTime() - start;
+		}
+		return ret;
+	}
+
+	/**
+	 * Reports an error to the class finder and the metrics of a root.
+	 * @param error the error
+	 * @param stats metrics of the root the error occurred for, null if not for a root
+	 */
+	protected void error(Throwable error, CF_RootStats stats){
+		this.cf.errors.add((stats==null)?null:stats.getRoot(), error);
+		if(stats!=null){
+			stats.addError(error);
+		}
+	}
+
+	/**
+	 * Reads a class header and counts it in the metrics of a root.
+	 * @param bytes class file data
+	 * @param ret list to add the class header to
+	 * @param stats metrics of the root
+	 */
+	protected void readHeader(byte[] bytes, List<CF_ClassHeader> ret, CF_RootStats stats){
+		stats.bytes += bytes.length;
+		try{
+			ret.add(CF_ClassHeader.read(bytes, this.names));
+			stats.classes++;
+		}
+		catch(IOException exception){
+			this.error(exception, stats);
+		}
+	}
+
+	/**
+	 * Resolves all pending classes and reports all subclasses of the searched class.
+	 * Found subclasses are not loaded, classes outside the scanned roots are only loaded if a scanned class extends or implements them.
+	 * @param consumer consumer for the class names of found subclasses
+	 * @param complete true if all roots are merged, false if more roots can follow (unknown classes are then not loaded but kept pending)
+	 */
+	protected void emit(Consumer<String> consumer, boolean complete){
+		for(Iterator<String> it = this.pending.iterator(); it.hasNext();){
+			String name = it.next();
+			Boolean match = this.isSubclass(name, null, complete);
+			if(match==null){
+				continue;
+			}
+			it.remove();
+			if(!match || this.clazz.getName().equals(name)){
+				continue;
+			}
+			this.origins.get(name).matches++;
+			consumer.accept(name);
+		}
+	}
+
+	/**
+	 * Scans all entries of a jar file in a single pass.
+	 * The memory-mapped reader is used if activated in the class finder, with a fall back to {@link JarFile} if it fails to read the jar file.
+	 * @param file the jar file
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 */
+	protected void scanJar(File file, List<CF_ClassHeader> ret, CF_RootStats stats){
+		if(this.cf.mappedJars){
+			List<CF_ClassHeader> mapped = new ArrayList<>();
+			try(CF_JarReader reader = new CF_JarReader(file)){
+				this.scanJar(reader, mapped, stats);
+				ret.addAll(mapped);
+				return;
+			}
+			catch(IOException ignore){
+				//the jar file is read again, count only that
+				stats.entries = 0;
+				stats.classes = 0;
+				stats.bytes = 0;
+			}
+		}
+		this.scanJarFile(file, ret, stats);
+	}
+
+	/**
+	 * Scans all entries of a jar file using a memory-mapped reader.
+	 * Entry names are tested in the mapped file, data is only read for class files that are not excluded.
+	 * @param reader the reader for the jar file
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 * @throws IOException if the central directory of the jar file is broken
+	 */
+	protected void scanJar(CF_JarReader reader, List<CF_ClassHeader> ret, CF_RootStats stats) throws IOException{
+		while(!this.isExpired(stats) && reader.next()){
+			stats.entries++;
+			if(this.isNestedJar(reader)){
+				this.scanNestedJar(reader, ret, stats);
+				continue;
+			}
+			if(reader.isDirectory() || !reader.nameEndsWith(CLASS_SUFFIX) || this.isExcluded(reader)){
+				continue;
+			}
+			byte[] bytes;
+			try{
+				bytes = reader.read();
+			}
+			catch(IOException exception){
+				this.error(exception, stats);
+				continue;
+			}
+			this.readHeader(bytes, ret, stats);
+		}
+	}
+
+	/**
+	 * Tests if the current entry of a reader is a nested jar file to be scanned.
+	 * @param reader the reader
+	 * @return true if the entry is a jar file in one of the nested jar directories, false otherwise
+	 */
+	protected boolean isNestedJar(CF_JarReader reader){
+		if(this.nestedDirectories.length==0 || !reader.nameEndsWith(JAR_SUFFIX)){
+			return false;
+		}
+		for(byte[] directory : this.nestedDirectories){
+			if(reader.nameStartsWith(directory)){
+				return this.acceptNestedJar(reader.name());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests if a jar entry is a nested jar file to be scanned.
+	 * @param name entry name
+	 * @return true if the entry is a jar file in one of the nested jar directories, false otherwise
+	 */
+	protected boolean isNestedJar(String name){
+		if(!name.endsWith(".jar")){
+			return false;
+		}
+		for(String directory : this.cf.nestedJarDirectories){
+			if(name.startsWith(directory)){
+				return this.acceptNestedJar(name);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests a nested jar file against the jar filter.
+	 * @param name entry name of the nested jar file
+	 * @return true if the jar filter accepts the file name, false otherwise
+	 */
+	protected boolean acceptNestedJar(String name){
+		return this.cf.locator.getJarFilter().accepts(name.substring(name.lastIndexOf('/') + 1));
+	}
+
+	/**
+	 * Scans a nested jar file, the current entry of a reader.
+	 * A stored jar file is read directly from the mapped outer jar file, a compressed one (or one the mapped reader cannot read) is read as a stream.
+	 * Errors are reported for the root, they do not stop the scan of the outer jar file.
+	 * @param reader the reader of the outer jar file
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 */
+	protected void scanNestedJar(CF_JarReader reader, List<CF_ClassHeader> ret, CF_RootStats stats){
+		if(reader.method()==CF_JarReader.STORED){
+			List<CF_ClassHeader> nested = new ArrayList<>();
+			long entries = stats.entries;
+			long classes = stats.classes;
+			long bytes = stats.bytes;
+			try(CF_JarReader nestedReader = new CF_JarReader(reader.slice())){
+				while(!this.isExpired(stats) && nestedReader.next()){
+					stats.entries++;
+					if(nestedReader.isDirectory() || !nestedReader.nameEndsWith(CLASS_SUFFIX) || this.isExcluded(nestedReader)){
+						continue;
+					}
+					byte[] data;
+					try{
+						data = nestedReader.read();
+					}
+					catch(IOException exception){
+						this.error(exception, stats);
+						continue;
+					}
+					this.readHeader(data, nested, stats);
+				}
+				ret.addAll(nested);
+				return;
+			}
+			catch(IOException ignore){
+				//the nested jar file is read again as a stream, count only that
+				stats.entries = entries;
+				stats.classes = classes;
+				stats.bytes = bytes;
+			}
+		}
+
+		try(InputStream in = reader.openStream()){
+			this.scanNestedJar(in, ret, stats);
+		}
+		catch(IOException exception){
+			this.error(exception, stats);
+		}
+	}
+
+	/**
+	 * Scans a nested jar file from a stream, without extracting it.
+	 * @param in stream with the nested jar file
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 * @throws IOException if the nested jar file could not be read
+	 */
+	protected void scanNestedJar(InputStream in, List<CF_ClassHeader> ret, CF_RootStats stats) throws IOException{
+		ZipInputStream zip = new ZipInputStream(in);
+		for(ZipEntry entry = zip.getNextEntry(); entry!=null && !this.isExpired(stats); entry = zip.getNextEntry()){
+			stats.entries++;
+			String name = entry.getName();
+			if(entry.isDirectory() || !name.endsWith(".class") || !this.filter.accepts(name, name.length() - CLASS_SUFFIX.length)){
+				continue;
+			}
+			this.readHeader(CF_Utils.readAll(zip, (int)entry.getSize()), ret, stats);
+		}
+	}
+
+	/**
+	 * Tests if the current entry of a reader, a class file, is excluded by the class filter.
+	 * @param reader the reader
+	 * @return true if excluded, false otherwise
+	 */
+	protected boolean isExcluded(CF_JarReader reader){
+		return !this.filter.accepts(reader.nameView(), reader.nameLength() - CLASS_SUFFIX.length);
+	}
+
+	/**
+	 * Scans all entries of a jar file using {@link JarFile}.
+	 * @param file the jar file
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 */
+	protected void scanJarFile(File file, List<CF_ClassHeader> ret, CF_RootStats stats){
+		try(CF_JarCache.Handle handle = this.cf.jarCache.acquire(file)){
+			JarFile jarFile = handle.getJarFile();
+			for(Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements() && !this.isExpired(stats);){
+				JarEntry entry = e.nextElement();
+				stats.entries++;
+				String entryname = entry.getName();
+				if(!entry.isDirectory() && this.isNestedJar(entryname)){
+					try(InputStream in = jarFile.getInputStream(entry)){
+						this.scanNestedJar(in, ret, stats);
+					}
+					catch(IOException exception){
+						this.error(exception, stats);
+					}
+				}
+				else if(!entry.isDirectory() && entryname.endsWith(".class")){
+					String classname = entryname.substring(0, entryname.length()-6);
+					if(classname.startsWith("/")){
+						classname = classname.substring(1);
+					}
+					classname = classname.replace('/','.');
+					if(this.filter.accepts(classname)){
+						byte[] bytes;
+						try(InputStream in = jarFile.getInputStream(entry)){
+							bytes = CF_Utils.readAll(in, (int)entry.getSize());
+						}
+						catch(IOException exception){
+							this.error(exception, stats);
+							continue;
+						}
+						this.readHeader(bytes, ret, stats);
+					}
+				}
+			}
+		}
+		catch(IOException exception){
+			this.error(exception, stats);
+		}
+	}
+
+	/**
+	 * Scans a directory tree in a single pass, in parallel if the scanner runs on a fork/join pool.
+	 * Each directory is scanned by its own task (see {@link DirectoryTask}), reading class headers directly from the class files.
+	 * @param directory the directory to scan
+	 * @param packageName the package name of the directory, null for a root directory
+	 * @param ret list to add class headers to
+	 * @param stats metrics of the root
+	 */
+	protected void scanDirectory(File directory, String packageName, List<CF_ClassHeader> ret, CF_RootStats stats){
+		DirectoryTask task = new DirectoryTask(directory.toPath(), packageName, stats);
+		ret.addAll(task.invoke());
+	}
+
+	/**
+	 * Tests if a class is the searched class or a subclass of it.
+	 * Scanned classes are tested using their headers, all other classes are loaded (without initialization) and tested.
+	 * Before all roots are merged, classes that are neither scanned nor excluded might still be found in a later root, they are not loaded and the test is undecided.
+	 * @param name class name, can be null
+	 * @param stats metrics of the root of the class that extends or implements the tested class, null if none
+	 * @param complete true if all roots are merged, false otherwise
+	 * @return true if the class is the searched class or a subclass of it, false otherwise, null if undecided
+	 */
+	protected Boolean isSubclass(String name, CF_RootStats stats, boolean complete){
+		if(name==null){
+			return false;
+		}
+		if(name.equals(this.clazz.getName())){
+			return true;
+		}
+
+		Boolean ret = this.resolved.get(name);
+		if(ret!=null){
+			return ret;
+		}
+		if(this.resolving.contains(name)){
+			return false;
+		}
+
+		CF_ClassHeader header = this.graph.get(name);
+		if(header==null){
+			if(!complete && this.filter.accepts(name)){
+				return null;
+			}
+			ret = this.isExternalSubclass(name, stats);
+			this.resolved.put(name, ret);
+			return ret;
+		}
+
+		this.resolving.add(name);
+		CF_RootStats origin = this.origins.get(name);
+		boolean undecided = false;
+		ret = false;
+		String[] interfaces = header.getInterfaces();
+		for(int i=-1; i<interfaces.length; i++){
+			Boolean parentRet = this.isSubclass((i<0)?header.getSuperName():interfaces[i], origin, complete);
+			if(parentRet==null){
+				undecided = true;
+			}
+			else if(parentRet){
+				ret = true;
+				break;
+			}
+		}
+		this.resolving.remove(name);
+
+		if(!ret && undecided){
+			return null;
+		}
+		this.resolved.put(name, ret);
+		return ret;
+	}
+
+	/**
+	 * Tests if a class that was not scanned is a subclass of the searched class by loading it (without initialization) from the class loader for classes outside the scanned roots.
+	 * @param name class name
+	 * @param stats metrics of the root of the class that extends or implements the tested class, null if none
+	 * @return true if the class is a subclass, false otherwise or if the class could not be loaded
+	 */
+	protected boolean isExternalSubclass(String name, CF_RootStats stats){
+		if(name.startsWith("java.") && !this.clazz.getName().startsWith("java.")){
+			//classes in java.* cannot extend classes outside java.*
+			return false;
+		}
+		try{
+			Class<?> loaded = Class.forName(name, false, this.loader);
+			if(stats!=null){
+				stats.loaded++;
+			}
+			return this.target.isAssignableFrom(loaded);
+		}
+		catch(Exception exception){
+			this.error(exception, stats);
+		}
+		catch(Error error){
+			this.error(error, stats);
+		}
+		return false;
+	}
+
+	/**
+	 * A task scanning a single directory of a directory tree.
+	 * Class files are only considered in sub-directories of the root, i.e. in named packages.
+	 * Directories of packages the class filter cannot accept are not descended into.
+	 * Sub-directories are scanned by sub-tasks, forked if the task runs on a fork/join pool (i.e. the scan is parallel) and computed directly otherwise.
+	 * Sub-tasks collect their own metrics, which are added to the metrics of the parent task once joined.
+	 * The class headers of a directory are followed by the class headers of its sub-directories in listing order.
+	 */
+	protected class DirectoryTask extends RecursiveTask<List<CF_ClassHeader>> {
+
+		/** Serial version, tasks are not serialized. */
+		private static final long serialVersionUID = 1L;
+
+		/** The directory to scan. */
+		protected final Path directory;
+
+		/** The package name of the directory, null for a root directory. */
+		protected final String packageName;
+
+		/** Metrics for the directory and its sub-directories. */
+		protected final CF_RootStats stats;
+
+		/**
+		 * Returns a new task.
+		 * @param directory the directory to scan
+		 * @param packageName the package name of the directory, null for a root directory
+		 * @param stats metrics for the directory, used by this task only
+		 */
+		protected DirectoryTask(Path directory, String packageName, CF_RootStats stats){
+			this.directory = directory;
+			this.packageName = packageName;
+			this.stats = stats;
+		}
+
+		@Override
+		protected List<CF_ClassHeader> compute(){
+			List<CF_ClassHeader> ret = new ArrayList<>();
+			List<DirectoryTask> tasks = new ArrayList<>();
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)){
+				for(Path path : stream){
+					if(CF_Scanner.this.isExpired(this.stats)){
+						break;
+					}
+					this.stats.entries++;
+					String fileName = path.getFileName().toString();
+					BasicFileAttributes attributes;
+					try{
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					}
+					catch(IOException exception){
+						CF_Scanner.this.error(exception, this.stats);
+						continue;
+					}
+
+					if(attributes.isDirectory()){
+						String name = (this.packageName==null)?fileName:this.packageName + "." + fileName;
+						if(CF_Scanner.this.filter.mayAccept(name + ".")){
+							CF_RootStats taskStats = new CF_RootStats(this.stats.getRoot());
+							taskStats.deadline = this.stats.deadline;
+							DirectoryTask task = new DirectoryTask(path, name, taskStats);
+							if(ForkJoinTask.inForkJoinPool()){
+								task.fork();
+							}
+							tasks.add(task);
+						}
+					}
+					else if(this.packageName!=null && fileName.endsWith(".class")){
+						if(!CF_Scanner.this.filter.accepts(this.packageName + "." + fileName, this.packageName.length() + fileName.length() + 1 - CLASS_SUFFIX.length)){
+							continue;
+						}
+						byte[] bytes;
+						try{
+							bytes = Files.readAllBytes(path);
+						}
+						catch(IOException exception){
+							CF_Scanner.this.error(exception, this.stats);
+							continue;
+						}
+						CF_Scanner.this.readHeader(bytes, ret, this.stats);
+					}
+				}
+			}
+			catch(IOException | DirectoryIteratorException exception){
+				CF_Scanner.this.error(exception, this.stats);
+			}
+
+			for(DirectoryTask task : tasks){
+				ret.addAll((ForkJoinTask.inForkJoinPool())?task.join():task.invoke());
+				this.stats.add(task.stats);
+			}
+			return ret;
+		}
+	}
+}
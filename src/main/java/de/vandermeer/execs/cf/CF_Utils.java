@@ -15,8 +15,16 @@
 
 package de.vandermeer.execs.cf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.jar.JarEntry;
 
 /**
@@ -66,4 +74,66 @@ public abstract class CF_Utils {
 		return s.replace('/', '.');
 	}
 
+	/**
+	 * Reads all bytes from an input stream, the stream is not closed.
+	 * @param in input stream to read from
+	 * @param size expected number of bytes, used as initial buffer size if positive
+	 * @return all bytes read
+	 * @throws IOException if reading failed
+	 */
+	public final static byte[] readAll(InputStream in, int size) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream((size>0)?size:1024);
+		byte[] buffer = new byte[(size>0 && size<8192)?size:8192];
+		int read;
+		while((read = in.read(buffer))!=-1){
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the jar file of a jar URI, as used for locations, for instance "jar:file:/lib/x.jar!/de/vandermeer/".
+	 * @param location the jar URI
+	 * @return the jar file
+	 * @throws IOException if the URI is not a jar URI for a local file
+	 */
+	public final static File getJarFile(URI location) throws IOException{
+		String spec = location.toString();
+		int sep = spec.indexOf("!/");
+		if(!spec.startsWith("jar:") || sep==-1){
+			throw new IOException("not a jar URI: " + spec);
+		}
+		try{
+			return new File(new URI(spec.substring(4, sep)));
+		}
+		catch(URISyntaxException | IllegalArgumentException ex){
+			throw new IOException("not a jar URI for a local file: " + spec, ex);
+		}
+	}
+
+	/**
+	 * Returns a SHA-1 hash of the content of a file.
+	 * @param file the file
+	 * @return hash as hex string
+	 * @throws IOException if the file could not be read
+	 */
+	public final static String getContentHash(File file) throws IOException{
+		try(InputStream in = new FileInputStream(file)){
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[65536];
+			int read;
+			while((read = in.read(buffer))!=-1){
+				digest.update(buffer, 0, read);
+			}
+			StringBuilder ret = new StringBuilder();
+			for(byte b : digest.digest()){
+				ret.append(String.format("%02x", b));
+			}
+			return ret.toString();
+		}
+		catch(NoSuchAlgorithmException ex){
+			throw new IOException(ex);
+		}
+	}
+
 }
@@ -0,0 +1,146 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.vandermeer.execs.cf.CF_Index;
+
+/**
+ * Detects changes of the class path roots of a daemon.
+ * Jar files are compared by size and modification time, which costs a single file status per jar file and check.
+ * Directory trees are not walked for every check: all their directories are registered once with a {@link WatchService}, which reports created, deleted and modified entries.
+ * Only if a directory tree cannot be watched (for instance if the system limit of watches is reached), it is compared by the fingerprint of the whole tree (see {@link CF_Index#fingerprint(File, boolean)}) for every check.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_ClassPathWatch implements Closeable {
+
+	/** The class path roots. */
+	protected final List<File> roots;
+
+	/** Watch service for directory roots, null if none is watched. */
+	protected WatchService watcher;
+
+	/** Directory roots registered with the watch service. */
+	protected final Set<File> watched;
+
+	/** Fingerprints of the roots when the watch was created. */
+	protected final Map<File, String> fingerprints;
+
+	/**
+	 * Returns a new watch for the given roots, registering all directories of directory roots.
+	 * @param roots the class path roots
+	 */
+	public DS_ClassPathWatch(List<File> roots){
+		this.roots = roots;
+		this.watched = new HashSet<>();
+		for(File root : roots){
+			if(root.isDirectory()){
+				this.watch(root);
+			}
+		}
+		this.fingerprints = this.getFingerprints();
+	}
+
+	/**
+	 * Registers all directories of a directory root with the watch service.
+	 * @param root the directory root
+	 */
+	protected void watch(File root){
+		try{
+			if(this.watcher==null){
+				this.watcher = FileSystems.getDefault().newWatchService();
+			}
+			WatchService service = this.watcher;
+			Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>(){
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException{
+					dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			this.watched.add(root);
+		}
+		catch(IOException | UnsupportedOperationException ignore){
+			//directories registered so far stay registered, the root is compared by its fingerprint
+		}
+	}
+
+	/**
+	 * Tests if a root changed since the watch was created.
+	 * @return true if a root changed, false otherwise
+	 */
+	public boolean hasChanged(){
+		if(this.watcher!=null && this.watcher.poll()!=null){
+			return true;
+		}
+		return !this.fingerprints.equals(this.getFingerprints());
+	}
+
+	/**
+	 * Returns the fingerprints of all roots.
+	 * Watched directory roots are only tested for existence, their content is reported by the watch service.
+	 * @return fingerprint per root, empty for a root that does not exist or could not be read
+	 */
+	protected Map<File, String> getFingerprints(){
+		Map<File, String> ret = new LinkedHashMap<>();
+		for(File root : this.roots){
+			try{
+				if(!root.exists()){
+					ret.put(root, "");
+				}
+				else if(this.watched.contains(root)){
+					ret.put(root, root.isDirectory()?"d":"");
+				}
+				else{
+					ret.put(root, CF_Index.fingerprint(root, false));
+				}
+			}
+			catch(IOException ignore){
+				ret.put(root, "");
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public void close(){
+		if(this.watcher!=null){
+			try{
+				this.watcher.close();
+			}
+			catch(IOException ignore){}
+		}
+	}
+}
@@ -0,0 +1,375 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client of the ExecS daemon, sending a request and relaying standard in, output and exit status.
+ *
+ * The client is a launcher for applications in a running daemon (see {@link DS_Server}): it forwards its arguments, working directory, environment and standard in, prints the output of the application and exits with its exit status.
+ * The client uses the JDK only and loads only a few classes, so that it starts about as fast as the JVM itself.
+ * It is packaged as a separate small jar with the classifier "client":
+ * <pre>
+ * java -jar execs-VERSION-client.jar APPLICATION [application-options]
+ * </pre>
+ * The daemon endpoint is taken from the system property {@link #PROPERTY_SOCKET}, the environment variable {@link #ENV_SOCKET} or the default for "execs".
+ *
+ * If no daemon is listening and a class path for the daemon is set ({@link #PROPERTY_CLASSPATH} or {@link #ENV_CLASSPATH}), the client starts a daemon with that class path and waits for it.
+ * A lock file next to the endpoint file ensures that concurrent clients start only one daemon, the output of the daemon is appended to a log file next to the endpoint file.
+ * A started daemon stops after an idle time ({@link #PROPERTY_IDLE} or {@link #ENV_IDLE}, default {@link #DEFAULT_IDLE} seconds) and when its class path changes, the next client then starts a new one.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Client {
+
+	/** Client name for error messages. */
+	public final static String APP_NAME = "execs-client";
+
+	/** System property for the endpoint file of the daemon. */
+	public final static String PROPERTY_SOCKET = "execs.socket";
+
+	/** Environment variable for the endpoint file of the daemon. */
+	public final static String ENV_SOCKET = "EXECS_SOCKET";
+
+	/** System property for the class path of a daemon started by the client, no daemon is started if not set. */
+	public final static String PROPERTY_CLASSPATH = "execs.classpath";
+
+	/** Environment variable for the class path of a daemon started by the client. */
+	public final static String ENV_CLASSPATH = "EXECS_CLASSPATH";
+
+	/** System property for the main class of a daemon started by the client, default is the ExecS executor. */
+	public final static String PROPERTY_MAIN = "execs.main";
+
+	/** Environment variable for the main class of a daemon started by the client. */
+	public final static String ENV_MAIN = "EXECS_MAIN";
+
+	/** System property for JVM options (separated by white space) of a daemon started by the client. */
+	public final static String PROPERTY_JAVA_OPTS = "execs.java.opts";
+
+	/** Environment variable for JVM options of a daemon started by the client. */
+	public final static String ENV_JAVA_OPTS = "EXECS_JAVA_OPTS";
+
+	/** System property for the idle timeout in seconds of a daemon started by the client. */
+	public final static String PROPERTY_IDLE = "execs.idle";
+
+	/** Environment variable for the idle timeout in seconds of a daemon started by the client. */
+	public final static String ENV_IDLE = "EXECS_IDLE";
+
+	/** Default main class of a daemon started by the client. */
+	public final static String DEFAULT_MAIN = "de.vandermeer.execs.ExecS";
+
+	/** Default idle timeout in seconds of a daemon started by the client. */
+	public final static long DEFAULT_IDLE = 900;
+
+	/** Time to wait for a started daemon, in milliseconds. */
+	public final static long SPAWN_TIMEOUT = 30000;
+
+	/** Interval for connecting to a started daemon, in milliseconds. */
+	protected final static long SPAWN_POLL = 20;
+
+	/** Lock for starting a daemon within the JVM, file locks are held by the whole JVM. */
+	protected final static Object SPAWN_LOCK = new Object();
+
+	/**
+	 * Executes a request in the daemon without standard in.
+	 * @param file the endpoint file of the daemon
+	 * @param request the request
+	 * @param out stream for standard out of the application
+	 * @param err stream for standard error of the application
+	 * @return exit status of the request
+	 * @throws IOException if no daemon is listening on the file or the connection failed before the exit status was received
+	 */
+	public static int execute(File file, DS_Request request, OutputStream out, OutputStream err) throws IOException{
+		return execute(file, request, null, out, err);
+	}
+
+	/**
+	 * Executes a request in the daemon.
+	 * Standard in is forwarded by a daemon thread, which may stay blocked reading after the request finished.
+	 * @param file the endpoint file of the daemon
+	 * @param request the request
+	 * @param in standard in for the application, null for none
+	 * @param out stream for standard out of the application
+	 * @param err stream for standard error of the application
+	 * @return exit status of the request
+	 * @throws IOException if no daemon is listening on the file or the connection failed before the exit status was received
+	 */
+	public static int execute(File file, DS_Request request, InputStream in, OutputStream out, OutputStream err) throws IOException{
+		try(DS_Endpoint.Connection connection = DS_Endpoint.connect(file)){
+			return execute(connection, request, in, out, err);
+		}
+	}
+
+	/**
+	 * Executes a request on a connection to the daemon.
+	 * @param connection the connection, not closed
+	 * @param request the request
+	 * @param in standard in for the application, null for none
+	 * @param out stream for standard out of the application
+	 * @param err stream for standard error of the application
+	 * @return exit status of the request
+	 * @throws IOException if the connection failed before the exit status was received
+	 */
+	public static int execute(DS_Endpoint.Connection connection, DS_Request request, InputStream in, OutputStream out, OutputStream err) throws IOException{
+		DS_Protocol.write(connection.getOutput(), DS_Protocol.REQUEST, request.encode());
+		if(in==null){
+			DS_Protocol.write(connection.getOutput(), DS_Protocol.STDIN, new byte[0]);
+		}
+		else{
+			Thread thread = new StdinThread(in, connection.getOutput());
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		while(true){
+			DS_Protocol.Frame frame = DS_Protocol.read(connection.getInput());
+			if(frame==null){
+				throw new EOFException("daemon closed the connection without exit status");
+			}
+			switch(frame.getType()){
+				case DS_Protocol.STDOUT:
+					out.write(frame.getData());
+					out.flush();
+					break;
+				case DS_Protocol.STDERR:
+					err.write(frame.getData());
+					err.flush();
+					break;
+				case DS_Protocol.EXIT:
+					return frame.getInt();
+				default:
+					throw new IOException("unexpected frame '" + (char)frame.getType() + "'");
+			}
+		}
+	}
+
+	/**
+	 * Returns the endpoint file of the daemon from system property, environment or default.
+	 * @return endpoint file
+	 */
+	public static File getSocketFile(){
+		String ret = getSetting(PROPERTY_SOCKET, ENV_SOCKET);
+		return (ret==null)?DS_Endpoint.getDefaultFile("execs"):new File(ret);
+	}
+
+	/**
+	 * Connects to the daemon, starts a new daemon if none is listening and a command is given.
+	 * Concurrent clients start only one daemon, using a lock on the file "FILE.lock"; the output of a started daemon is appended to "FILE.log".
+	 * @param file the endpoint file of the daemon
+	 * @param command command to start a daemon listening on the file, see {@link #getSpawnCommand(File)}, null to only connect
+	 * @return the connection
+	 * @throws IOException if no daemon is listening and none could be started
+	 */
+	public static DS_Endpoint.Connection connect(File file, List<String> command) throws IOException{
+		try{
+			return DS_Endpoint.connect(file);
+		}
+		catch(IOException ex){
+			if(command==null){
+				throw ex;
+			}
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(!dir.exists() && dir.mkdirs()){
+			DS_Endpoint.setOwnerOnly(dir.toPath(), "rwx------");
+		}
+		synchronized(SPAWN_LOCK){
+			File log = new File(file.getPath() + ".log");
+			try(FileChannel channel = FileChannel.open(new File(file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+				FileLock lock = channel.lock();
+				try{
+					try{
+						//started by another client while waiting for the lock
+						return DS_Endpoint.connect(file);
+					}
+					catch(IOException ignore){}
+
+					Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.appendTo(log)).start();
+					process.getOutputStream().close();
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SPAWN_TIMEOUT);
+					while(true){
+						try{
+							Thread.sleep(SPAWN_POLL);
+						}
+						catch(InterruptedException ex){
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("interrupted waiting for daemon");
+						}
+						try{
+							return DS_Endpoint.connect(file);
+						}
+						catch(IOException ex){
+							if(!process.isAlive()){
+								throw new IOException("started daemon exited with status " + process.exitValue() + ", see " + log);
+							}
+							if(System.nanoTime() - deadline > 0){
+								throw new IOException("started daemon not listening after " + SPAWN_TIMEOUT + " ms, see " + log);
+							}
+						}
+					}
+				}
+				finally{
+					lock.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the command to start a daemon from system properties and environment: the JVM of the client with class path, main class and options.
+	 * @param file the endpoint file for the daemon
+	 * @return command, null if no class path for the daemon is set
+	 */
+	public static List<String> getSpawnCommand(File file){
+		String classPath = getSetting(PROPERTY_CLASSPATH, ENV_CLASSPATH);
+		if(classPath==null){
+			return null;
+		}
+		String main = getSetting(PROPERTY_MAIN, ENV_MAIN);
+		String opts = getSetting(PROPERTY_JAVA_OPTS, ENV_JAVA_OPTS);
+		String idle = getSetting(PROPERTY_IDLE, ENV_IDLE);
+
+		List<String> ret = new ArrayList<>();
+		ret.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		if(opts!=null){
+			for(String opt : opts.trim().split("\\s+")){
+				ret.add(opt);
+			}
+		}
+		if(Boolean.getBoolean(DS_Endpoint.PROPERTY_TCP)){
+			ret.add("-D" + DS_Endpoint.PROPERTY_TCP + "=true");
+		}
+		int feature = getJavaFeature();
+		if(feature>=18 && feature<=23){
+			//the daemon intercepts System.exit with a security manager, these versions permit it only on request
+			ret.add("-Djava.security.manager=allow");
+		}
+		ret.add("-cp");
+		ret.add(classPath);
+		ret.add((main==null)?DEFAULT_MAIN:main);
+		ret.add("--srv-mode");
+		ret.add("--socket");
+		ret.add(file.getPath());
+		ret.add("--idle-timeout");
+		ret.add((idle==null)?Long.toString(DEFAULT_IDLE):idle);
+		return ret;
+	}
+
+	/**
+	 * Returns the feature version of the running Java, for instance 8 or 21.
+	 * @return feature version, 0 if unknown
+	 */
+	protected static int getJavaFeature(){
+		String version = System.getProperty("java.specification.version", "");
+		if(version.startsWith("1.")){
+			version = version.substring(2);
+		}
+		try{
+			return Integer.parseInt(version);
+		}
+		catch(NumberFormatException ignore){
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns a setting from a system property or, if not set, an environment variable.
+	 * @param property name of the system property
+	 * @param env name of the environment variable
+	 * @return the value, null if neither is set or the value is blank
+	 */
+	protected static String getSetting(String property, String env){
+		String ret = System.getProperty(property);
+		if(ret==null || ret.trim().length()==0){
+			ret = System.getenv(env);
+		}
+		return (ret==null || ret.trim().length()==0)?null:ret;
+	}
+
+	/**
+	 * Public main to execute an application in the daemon.
+	 * @param args command line arguments, as for the executor
+	 */
+	public static void main(String[] args){
+		File file = getSocketFile();
+		int ret;
+		try(DS_Endpoint.Connection connection = connect(file, getSpawnCommand(file))){
+			ret = execute(connection, DS_Request.forCurrentProcess(args), System.in, System.out, System.err);
+		}
+		catch(IOException ex){
+			System.err.println(APP_NAME + ": no daemon on <" + file + "> -> " + ex.getMessage());
+			ret = -1;
+		}
+		//the client has no shutdown hooks, halt avoids the exit logging of newer JVMs
+		System.out.flush();
+		System.err.flush();
+		Runtime.getRuntime().halt(ret);
+	}
+
+	/**
+	 * A thread forwarding standard in to the daemon.
+	 */
+	protected static class StdinThread extends Thread {
+
+		/** Standard in. */
+		protected final InputStream in;
+
+		/** The connection stream. */
+		protected final DataOutputStream out;
+
+		/**
+		 * Returns a new thread.
+		 * @param in standard in
+		 * @param out the connection stream
+		 */
+		protected StdinThread(InputStream in, DataOutputStream out){
+			super(APP_NAME + "-stdin");
+			this.in = in;
+			this.out = out;
+		}
+
+		@Override
+		public void run(){
+			byte[] buffer = new byte[8192];
+			try{
+				int count;
+				while((count = this.in.read(buffer))!=-1){
+					DS_Protocol.write(this.out, DS_Protocol.STDIN, buffer, 0, count);
+				}
+				DS_Protocol.write(this.out, DS_Protocol.STDIN, new byte[0]);
+			}
+			catch(IOException ignore){
+				//daemon gone or request finished
+			}
+		}
+	}
+}
@@ -0,0 +1,504 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.Permission;
+import java.util.Locale;
+
+/**
+ * The context of a request executed in the daemon: standard in, standard out, standard error and exit status.
+ *
+ * A context is bound to the thread executing the request and inherited by all threads it starts.
+ * Once installed (see {@link #install()}), {@link System#in}, {@link System#out} and {@link System#err} route to the streams of the context of the current thread, so that concurrent requests do not mix their input and output.
+ * Threads without an active context use the streams the JVM had when the routing was installed.
+ *
+ * Where the JVM permits a security manager (Java 8 to 17, and up to Java 23 with "-Djava.security.manager=allow"), {@link System#exit(int)} called from a request is intercepted:
+ * the status becomes the exit status of the request and the calling thread gets an {@link ExitException} instead of the JVM ending.
+ * The security manager permits everything else.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Context {
+
+	/** The context of the current thread and threads it started. */
+	protected final static InheritableThreadLocal<DS_Context> CURRENT = new InheritableThreadLocal<>();
+
+	/** Flag for an installed exit guard, guarded by the class. */
+	protected static boolean exitGuard;
+
+	/** Standard in of the request. */
+	protected final InputStream in;
+
+	/** Standard out of the request. */
+	protected final PrintStream out;
+
+	/** Standard error of the request. */
+	protected final PrintStream err;
+
+	/** Flag for an active context, false when the request is finished. */
+	protected volatile boolean active = true;
+
+	/** Status of the first intercepted exit, null if the request did not exit. */
+	protected volatile Integer exitStatus;
+
+	/**
+	 * Returns a new context.
+	 * @param in standard in of the request
+	 * @param out standard out of the request
+	 * @param err standard error of the request
+	 */
+	public DS_Context(InputStream in, PrintStream out, PrintStream err){
+		this.in = in;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Installs routing of the standard streams and, if permitted, the exit guard.
+	 * Streams that are routed already are not changed, so the method can be called for every request, for instance to route streams set by other code in the meantime.
+	 * @return true if {@link System#exit(int)} in a request is intercepted, false if it ends the JVM
+	 */
+	public static synchronized boolean install(){
+		if(!(System.in instanceof RoutingInputStream)){
+			System.setIn(new RoutingInputStream(System.in));
+		}
+		if(!(System.out instanceof RoutingPrintStream)){
+			System.setOut(new RoutingPrintStream(System.out, false));
+		}
+		if(!(System.err instanceof RoutingPrintStream)){
+			System.setErr(new RoutingPrintStream(System.err, true));
+		}
+		if(!exitGuard){
+			exitGuard = installExitGuard();
+		}
+		return exitGuard;
+	}
+
+	/**
+	 * Removes routing of the standard streams and the exit guard, restoring the streams and security manager the JVM had before {@link #install()}.
+	 * Requests still running then use the standard streams of the JVM and can end it with {@link System#exit(int)}.
+	 */
+	@SuppressWarnings({"deprecation", "removal"})
+	public static synchronized void uninstall(){
+		if(System.in instanceof RoutingInputStream){
+			System.setIn(((RoutingInputStream)System.in).fallback);
+		}
+		if(System.out instanceof RoutingPrintStream){
+			System.setOut(((RoutingPrintStream)System.out).fallback);
+		}
+		if(System.err instanceof RoutingPrintStream){
+			System.setErr(((RoutingPrintStream)System.err).fallback);
+		}
+		if(exitGuard){
+			if(System.getSecurityManager() instanceof ExitGuard){
+				System.setSecurityManager(null);
+			}
+			exitGuard = false;
+		}
+	}
+
+	/**
+	 * Installs the exit guard as security manager, if the JVM permits it and no other security manager is installed.
+	 * @return true if installed, false otherwise
+	 */
+	@SuppressWarnings({"deprecation", "removal"})
+	protected static boolean installExitGuard(){
+		try{
+			if(System.getSecurityManager()!=null){
+				return System.getSecurityManager() instanceof ExitGuard;
+			}
+			System.setSecurityManager(new ExitGuard());
+			return true;
+		}
+		catch(UnsupportedOperationException | SecurityException ignore){
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the active context of the current thread.
+	 * @return context, null if the thread does not execute a request or the request is finished
+	 */
+	public static DS_Context current(){
+		DS_Context ret = CURRENT.get();
+		return (ret!=null && ret.active)?ret:null;
+	}
+
+	/**
+	 * Binds the context to the current thread, threads started later inherit it.
+	 */
+	public void bind(){
+		CURRENT.set(this);
+	}
+
+	/**
+	 * Finishes the context: unbinds it from the current thread, threads that inherited it use the default streams from now on.
+	 */
+	public void close(){
+		this.active = false;
+		if(CURRENT.get()==this){
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Returns standard in of the request.
+	 * @return standard in
+	 */
+	public InputStream getIn(){
+		return this.in;
+	}
+
+	/**
+	 * Returns standard out of the request.
+	 * @return standard out
+	 */
+	public PrintStream getOut(){
+		return this.out;
+	}
+
+	/**
+	 * Returns standard error of the request.
+	 * @return standard error
+	 */
+	public PrintStream getErr(){
+		return this.err;
+	}
+
+	/**
+	 * Returns the status of an intercepted exit.
+	 * @return status of the first call to {@link System#exit(int)} in the request, null if not called
+	 */
+	public Integer getExitStatus(){
+		return this.exitStatus;
+	}
+
+	/**
+	 * Records an exit of the request, the first status is kept.
+	 * @param status exit status
+	 */
+	protected synchronized void exit(int status){
+		if(this.exitStatus==null){
+			this.exitStatus = status;
+		}
+	}
+
+	/**
+	 * The exception thrown by {@link System#exit(int)} in a request.
+	 */
+	public static class ExitException extends SecurityException {
+
+		/** Serial version. */
+		private static final long serialVersionUID = 1L;
+
+		/** The exit status. */
+		protected final int status;
+
+		/**
+		 * Returns a new exception.
+		 * @param status the exit status
+		 */
+		public ExitException(int status){
+			super("exit(" + status + ") intercepted in daemon request");
+			this.status = status;
+		}
+
+		/**
+		 * Returns the exit status.
+		 * @return exit status
+		 */
+		public int getStatus(){
+			return this.status;
+		}
+	}
+
+	/**
+	 * A security manager intercepting {@link System#exit(int)} in requests and permitting everything else.
+	 */
+	@SuppressWarnings({"deprecation", "removal"})
+	protected static class ExitGuard extends SecurityManager {
+
+		@Override
+		public void checkPermission(Permission perm){}
+
+		@Override
+		public void checkPermission(Permission perm, Object context){}
+
+		@Override
+		public void checkExit(int status){
+			DS_Context context = current();
+			if(context!=null){
+				context.exit(status);
+				throw new ExitException(status);
+			}
+		}
+	}
+
+	/**
+	 * An input stream reading from standard in of the context of the current thread.
+	 */
+	protected static class RoutingInputStream extends InputStream {
+
+		/** Stream for threads without context. */
+		protected final InputStream fallback;
+
+		/**
+		 * Returns a new stream.
+		 * @param fallback stream for threads without context
+		 */
+		protected RoutingInputStream(InputStream fallback){
+			this.fallback = fallback;
+		}
+
+		/**
+		 * Returns the stream of the current thread.
+		 * @return stream of the context, the fallback if the thread has no context
+		 */
+		protected InputStream target(){
+			DS_Context context = current();
+			return (context==null)?this.fallback:context.in;
+		}
+
+		@Override
+		public int read() throws IOException{
+			return this.target().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			return this.target().read(b, off, len);
+		}
+
+		@Override
+		public long skip(long n) throws IOException{
+			return this.target().skip(n);
+		}
+
+		@Override
+		public int available() throws IOException{
+			return this.target().available();
+		}
+
+		@Override
+		public void close(){
+			//standard in is shared, it is never closed by an application
+		}
+	}
+
+	/**
+	 * A print stream writing to standard out or standard error of the context of the current thread.
+	 * All methods delegate to the stream of the current thread, the routing stream does not lock, so that requests do not wait for each other.
+	 */
+	protected static class RoutingPrintStream extends PrintStream {
+
+		/** Stream for threads without context. */
+		protected final PrintStream fallback;
+
+		/** Flag for standard error, false for standard out. */
+		protected final boolean err;
+
+		/**
+		 * Returns a new stream.
+		 * @param fallback stream for threads without context
+		 * @param err true to route to standard error, false to route to standard out
+		 */
+		protected RoutingPrintStream(PrintStream fallback, boolean err){
+			super(fallback);
+			this.fallback = fallback;
+			this.err = err;
+		}
+
+		/**
+		 * Returns the stream of the current thread.
+		 * @return stream of the context, the fallback if the thread has no context
+		 */
+		protected PrintStream target(){
+			DS_Context context = current();
+			if(context==null){
+				return this.fallback;
+			}
+			return (this.err)?context.err:context.out;
+		}
+
+		@Override
+		public void flush(){
+			this.target().flush();
+		}
+
+		@Override
+		public void close(){
+			//standard streams are shared, they are flushed but never closed by an application
+			this.target().flush();
+		}
+
+		@Override
+		public boolean checkError(){
+			return this.target().checkError();
+		}
+
+		@Override
+		public void write(int b){
+			this.target().write(b);
+		}
+
+		@Override
+		public void write(byte[] buf, int off, int len){
+			this.target().write(buf, off, len);
+		}
+
+		@Override
+		public void print(boolean b){
+			this.target().print(b);
+		}
+
+		@Override
+		public void print(char c){
+			this.target().print(c);
+		}
+
+		@Override
+		public void print(int i){
+			this.target().print(i);
+		}
+
+		@Override
+		public void print(long l){
+			this.target().print(l);
+		}
+
+		@Override
+		public void print(float f){
+			this.target().print(f);
+		}
+
+		@Override
+		public void print(double d){
+			this.target().print(d);
+		}
+
+		@Override
+		public void print(char[] s){
+			this.target().print(s);
+		}
+
+		@Override
+		public void print(String s){
+			this.target().print(s);
+		}
+
+		@Override
+		public void print(Object obj){
+			this.target().print(obj);
+		}
+
+		@Override
+		public void println(){
+			this.target().println();
+		}
+
+		@Override
+		public void println(boolean x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(char x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(int x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(long x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(float x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(double x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(char[] x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(String x){
+			this.target().println(x);
+		}
+
+		@Override
+		public void println(Object x){
+			this.target().println(x);
+		}
+
+		@Override
+		public PrintStream printf(String format, Object ... args){
+			this.target().printf(format, args);
+			return this;
+		}
+
+		@Override
+		public PrintStream printf(Locale l, String format, Object ... args){
+			this.target().printf(l, format, args);
+			return this;
+		}
+
+		@Override
+		public PrintStream format(String format, Object ... args){
+			this.target().format(format, args);
+			return this;
+		}
+
+		@Override
+		public PrintStream format(Locale l, String format, Object ... args){
+			this.target().format(l, format, args);
+			return this;
+		}
+
+		@Override
+		public PrintStream append(CharSequence csq){
+			this.target().append(csq);
+			return this;
+		}
+
+		@Override
+		public PrintStream append(CharSequence csq, int start, int end){
+			this.target().append(csq, start, end);
+			return this;
+		}
+
+		@Override
+		public PrintStream append(char c){
+			this.target().append(c);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the executor dispatching requests of the daemon to threads.
+ *
+ * Two modes are supported: {@link #VIRTUAL} runs each request in a new virtual thread (Java 21 and later), {@link #PLATFORM} runs requests in a bounded pool of platform threads, further requests wait for a free thread.
+ * Virtual threads are cheap to create and block, so that many concurrent I/O bound requests do not need as many platform threads.
+ * Virtual threads are used via reflection, so that the daemon runs on Java 8 and uses them on Java 21 and later without a separate build.
+ * The dispatcher only applies to requests of the daemon (see {@link DS_Server}): {@link de.vandermeer.execs.ExecS#execute(String[])} and embedding callers still run an application in the calling thread.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Dispatcher {
+
+	/** Mode: a virtual thread per request. */
+	public final static String VIRTUAL = "virtual";
+
+	/** Mode: a bounded pool of platform threads. */
+	public final static String PLATFORM = "platform";
+
+	/** Default number of platform threads. */
+	public final static int DEFAULT_THREADS = 64;
+
+	/**
+	 * Tests if virtual threads are available.
+	 * @return true on Java 21 and later, false otherwise
+	 */
+	public static boolean isVirtual(){
+		try{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch(NoSuchMethodException ignore){
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the default mode.
+	 * @return {@link #VIRTUAL} if virtual threads are available, {@link #PLATFORM} otherwise
+	 */
+	public static String getDefaultMode(){
+		return (isVirtual())?VIRTUAL:PLATFORM;
+	}
+
+	/**
+	 * Tests a mode.
+	 * @param mode the mode
+	 * @return true if mode is {@link #VIRTUAL} or {@link #PLATFORM}, false otherwise
+	 */
+	public static boolean isMode(String mode){
+		return VIRTUAL.equals(mode) || PLATFORM.equals(mode);
+	}
+
+	/**
+	 * Returns a new executor.
+	 * @param mode the mode, {@link #VIRTUAL} falls back to {@link #PLATFORM} if virtual threads are not available, null for the default mode
+	 * @param threads number of platform threads, ignored for virtual threads, 0 or less for {@link #DEFAULT_THREADS}
+	 * @param name prefix for thread names
+	 * @return new executor, threads do not keep the JVM alive
+	 */
+	public static ExecutorService create(String mode, int threads, String name){
+		if(mode==null){
+			mode = getDefaultMode();
+		}
+		if(VIRTUAL.equals(mode) && isVirtual()){
+			try{
+				return newVirtual(name);
+			}
+			catch(ReflectiveOperationException ignore){
+				//not expected if ofVirtual exists, use platform threads
+			}
+		}
+		AtomicLong count = new AtomicLong();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool((threads<1)?DEFAULT_THREADS:threads, factory);
+	}
+
+	/**
+	 * Returns an executor starting a new virtual thread for each task, as Thread.ofVirtual().name(name + "-", 1).factory() and Executors.newThreadPerTaskExecutor(factory).
+	 * @param name prefix for thread names
+	 * @return new executor
+	 * @throws ReflectiveOperationException if virtual threads are not available
+	 */
+	protected static ExecutorService newVirtual(String name) throws ReflectiveOperationException{
+		Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+		Object builder = invoke(Thread.class.getMethod("ofVirtual"), null);
+		builder = invoke(builderClass.getMethod("name", String.class, long.class), builder, name + "-", 1L);
+		ThreadFactory factory = (ThreadFactory)invoke(builderClass.getMethod("factory"), builder);
+		return (ExecutorService)invoke(Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class), null, factory);
+	}
+
+	/**
+	 * Invokes a method, unwrapping runtime exceptions thrown by it.
+	 * @param method the method
+	 * @param target target object, null for static methods
+	 * @param args arguments
+	 * @return result of the method
+	 * @throws ReflectiveOperationException if the method could not be invoked
+	 */
+	protected static Object invoke(Method method, Object target, Object ... args) throws ReflectiveOperationException{
+		try{
+			return method.invoke(target, args);
+		}
+		catch(InvocationTargetException ex){
+			if(ex.getCause() instanceof RuntimeException){
+				throw (RuntimeException)ex.getCause();
+			}
+			throw ex;
+		}
+	}
+}
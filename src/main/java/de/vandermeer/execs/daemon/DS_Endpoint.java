@@ -0,0 +1,546 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The local endpoint of the ExecS daemon, identified by a file.
+ *
+ * On Java 16 and later the endpoint is a Unix domain socket bound to the file, protected by the file permissions.
+ * The socket API is used by reflection, so that the class runs on Java 8 as well.
+ * Where Unix domain sockets are not available (or the system property {@link #PROPERTY_TCP} is "true"), the daemon listens on a TCP port of the loopback interface instead.
+ * The file then contains "tcp", the port and a random access token, readable by the owner only; clients must send the token in their {@link DS_Protocol#HELLO} frame.
+ *
+ * Connections use blocking socket channels with plain stream adapters, so that one thread can read while another one writes.
+ * The class uses the JDK only.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Endpoint implements Closeable {
+
+	/** System property to use a loopback TCP port even if Unix domain sockets are available. */
+	public final static String PROPERTY_TCP = "execs.daemon.tcp";
+
+	/** Prefix of the endpoint file content for a TCP endpoint. */
+	protected final static String TCP_PREFIX = "tcp ";
+
+	/** Time a client has to send its {@link DS_Protocol#HELLO} frame, in milliseconds. */
+	public final static long HELLO_TIMEOUT = 5000;
+
+	/** The endpoint file. */
+	protected final File file;
+
+	/** The listening channel. */
+	protected final ServerSocketChannel channel;
+
+	/** Access token clients must send, empty for a Unix domain socket. */
+	protected final String token;
+
+	/** Identity of the endpoint file as created by this endpoint, see {@link #getIdentity(File)}, null if unknown. */
+	protected final String identity;
+
+	/** Timer closing connections of clients not sending their {@link DS_Protocol#HELLO} frame in time. */
+	protected final Timer timer = new Timer("execs-hello", true);
+
+	/**
+	 * Returns a new endpoint.
+	 * @param file the endpoint file
+	 * @param channel the listening channel
+	 * @param token access token, empty for none
+	 */
+	protected DS_Endpoint(File file, ServerSocketChannel channel, String token){
+		this.file = file;
+		this.channel = channel;
+		this.token = token;
+		this.identity = getIdentity(file);
+	}
+
+	/**
+	 * Returns the default endpoint file for an application, "~/.execs/NAME.sock".
+	 * @param name application name
+	 * @return endpoint file
+	 */
+	public static File getDefaultFile(String name){
+		return new File(new File(System.getProperty("user.home"), ".execs"), name + ".sock");
+	}
+
+	/**
+	 * Tests if Unix domain sockets are available and not disabled by {@link #PROPERTY_TCP}.
+	 * @return true if the endpoint uses a Unix domain socket, false if it uses a loopback TCP port
+	 */
+	public static boolean isUnixSocket(){
+		return !Boolean.getBoolean(PROPERTY_TCP) && isUnixSocketClass();
+	}
+
+	/**
+	 * Binds a new endpoint to a file.
+	 * An existing file is removed, unless a daemon is listening on it.
+	 * @param file the endpoint file, parent directories are created readable by the owner only
+	 * @return the listening endpoint
+	 * @throws IOException if a daemon is listening on the file already or the endpoint could not be bound
+	 */
+	public static DS_Endpoint listen(File file) throws IOException{
+		if(file.exists()){
+			boolean listening = false;
+			try{
+				connect(file).close();
+				listening = true;
+			}
+			catch(IOException ignore){
+				//nobody listening, stale file
+			}
+			if(listening){
+				throw new IOException("daemon already listening on " + file);
+			}
+			Files.deleteIfExists(file.toPath());
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(!dir.exists()){
+			if(!dir.mkdirs()){
+				throw new IOException("could not create directory " + dir);
+			}
+			setOwnerOnly(dir.toPath(), "rwx------");
+		}
+
+		if(isUnixSocket()){
+			ServerSocketChannel channel = (ServerSocketChannel)invoke(ServerSocketChannel.class, "open", new Class<?>[]{ProtocolFamily.class}, unixFamily());
+			try{
+				channel.bind(unixAddress(file));
+			}
+			catch(IOException ex){
+				channel.close();
+				throw ex;
+			}
+			setOwnerOnly(file.toPath(), "rw-------");
+			return new DS_Endpoint(file, channel, "");
+		}
+
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		StringBuilder token = new StringBuilder();
+		for(byte b : random){
+			token.append(String.format("%02x", b));
+		}
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try{
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			Path path = Files.createFile(file.toPath());
+			setOwnerOnly(path, "rw-------");
+			String content = TCP_PREFIX + ((InetSocketAddress)channel.getLocalAddress()).getPort() + " " + token + "\n";
+			Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+		}
+		catch(IOException ex){
+			channel.close();
+			throw ex;
+		}
+		return new DS_Endpoint(file, channel, token.toString());
+	}
+
+	/**
+	 * Connects to the endpoint of a daemon and sends the {@link DS_Protocol#HELLO} frame.
+	 * @param file the endpoint file
+	 * @return the connection
+	 * @throws IOException if no daemon is listening on the file or the connection failed
+	 */
+	public static Connection connect(File file) throws IOException{
+		SocketChannel channel;
+		String token = "";
+		if(Files.isRegularFile(file.toPath())){
+			String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+			String[] fields = content.split(" ");
+			if(!content.startsWith(TCP_PREFIX) || fields.length!=3){
+				throw new IOException("not a daemon endpoint: " + file);
+			}
+			int port;
+			try{
+				port = Integer.parseInt(fields[1]);
+			}
+			catch(NumberFormatException ex){
+				throw new IOException("not a daemon endpoint: " + file, ex);
+			}
+			token = fields[2];
+			channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		}
+		else if(file.exists() && isUnixSocket()){
+			channel = (SocketChannel)invoke(SocketChannel.class, "open", new Class<?>[]{ProtocolFamily.class}, unixFamily());
+			try{
+				channel.connect(unixAddress(file));
+			}
+			catch(IOException ex){
+				channel.close();
+				throw ex;
+			}
+		}
+		else{
+			throw new IOException("no daemon endpoint: " + file);
+		}
+
+		Connection ret = new Connection(channel);
+		try{
+			DS_Protocol.writeHello(ret.out, token);
+		}
+		catch(IOException ex){
+			ret.close();
+			throw ex;
+		}
+		return ret;
+	}
+
+	/**
+	 * Waits for the next client.
+	 * The connection must be verified with {@link #handshake(Connection)} before it is used, preferably not in the accepting thread, so that a client not sending anything does not block other clients.
+	 * @return the connection
+	 * @throws IOException if accepting failed or the endpoint is closed
+	 */
+	public Connection accept() throws IOException{
+		return new Connection(this.channel.accept());
+	}
+
+	/**
+	 * Reads and verifies the {@link DS_Protocol#HELLO} frame of an accepted client.
+	 * A client not sending it within {@link #HELLO_TIMEOUT} is disconnected.
+	 * @param connection the connection, closed if the handshake failed
+	 * @throws IOException if reading failed, timed out, the endpoint is closed, or the client sent a wrong version or token
+	 */
+	public void handshake(Connection connection) throws IOException{
+		TimerTask timeout = new TimerTask(){
+			@Override
+			public void run(){
+				connection.close();
+			}
+		};
+		try{
+			this.timer.schedule(timeout, HELLO_TIMEOUT);
+		}
+		catch(IllegalStateException ex){
+			connection.close();
+			throw new IOException("endpoint closed", ex);
+		}
+		try{
+			byte[] hello = DS_Protocol.read(connection.in, DS_Protocol.HELLO).getData();
+			if(hello.length<4 || new DS_Protocol.Frame(DS_Protocol.HELLO, Arrays.copyOf(hello, 4)).getInt()!=DS_Protocol.VERSION){
+				throw new IOException("unsupported protocol version");
+			}
+			byte[] token = Arrays.copyOfRange(hello, 4, hello.length);
+			if(!MessageDigest.isEqual(token, this.token.getBytes(StandardCharsets.UTF_8))){
+				throw new IOException("invalid access token");
+			}
+		}
+		catch(IOException ex){
+			connection.close();
+			throw (timeout.cancel())?ex:new IOException("no hello within " + HELLO_TIMEOUT + " ms", ex);
+		}
+		if(!timeout.cancel()){
+			throw new IOException("no hello within " + HELLO_TIMEOUT + " ms");
+		}
+	}
+
+	/**
+	 * Returns the endpoint file.
+	 * @return file
+	 */
+	public File getFile(){
+		return this.file;
+	}
+
+	/**
+	 * Tests if the endpoint is open.
+	 * @return true if open, false if closed
+	 */
+	public boolean isOpen(){
+		return this.channel.isOpen();
+	}
+
+	/**
+	 * Closes the endpoint and removes the endpoint file.
+	 * The file is only removed if it is still the one this endpoint created, a newer daemon might already be listening on a new file (for instance if this endpoint is closed by a shutdown hook after the daemon stopped accepting).
+	 * Threads waiting in {@link #accept()} get an exception.
+	 */
+	@Override
+	public void close(){
+		try{
+			this.channel.close();
+		}
+		catch(IOException ignore){}
+		this.timer.cancel();
+		String current = getIdentity(this.file);
+		if(current!=null && current.equals(this.identity)){
+			this.file.delete();
+		}
+	}
+
+	/**
+	 * Returns the identity of a file: its file key (e.g. device and inode) and its last modification time, so that a file reusing the inode of a deleted one is still told apart.
+	 * @param file the file
+	 * @return identity of the file, null if the file does not exist or its attributes cannot be read
+	 */
+	protected static String getIdentity(File file){
+		try{
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			return attributes.fileKey() + "@" + attributes.lastModifiedTime();
+		}
+		catch(IOException ignore){
+			return null;
+		}
+	}
+
+	/**
+	 * Tests if the class for Unix domain socket addresses is available.
+	 * @return true if available (Java 16 and later), false otherwise
+	 */
+	protected static boolean isUnixSocketClass(){
+		try{
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		}
+		catch(ClassNotFoundException ignore){
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the protocol family for Unix domain sockets.
+	 * @return protocol family
+	 * @throws IOException if not available
+	 */
+	protected static ProtocolFamily unixFamily() throws IOException{
+		try{
+			return StandardProtocolFamily.valueOf("UNIX");
+		}
+		catch(IllegalArgumentException ex){
+			throw new IOException("Unix domain sockets not supported", ex);
+		}
+	}
+
+	/**
+	 * Returns a Unix domain socket address for a file.
+	 * @param file the file
+	 * @return socket address
+	 * @throws IOException if not available
+	 */
+	protected static SocketAddress unixAddress(File file) throws IOException{
+		try{
+			return (SocketAddress)invoke(Class.forName("java.net.UnixDomainSocketAddress"), "of", new Class<?>[]{Path.class}, file.toPath());
+		}
+		catch(ClassNotFoundException ex){
+			throw new IOException("Unix domain sockets not supported", ex);
+		}
+	}
+
+	/**
+	 * Invokes a static method by reflection.
+	 * @param clazz the class
+	 * @param name method name
+	 * @param types parameter types
+	 * @param args arguments
+	 * @return return value of the method
+	 * @throws IOException if the method failed or is not available
+	 */
+	protected static Object invoke(Class<?> clazz, String name, Class<?>[] types, Object ... args) throws IOException{
+		try{
+			Method method = clazz.getMethod(name, types);
+			return method.invoke(null, args);
+		}
+		catch(InvocationTargetException ex){
+			if(ex.getCause() instanceof IOException){
+				throw (IOException)ex.getCause();
+			}
+			throw new IOException(clazz.getSimpleName() + "." + name + " failed", ex.getCause());
+		}
+		catch(ReflectiveOperationException ex){
+			throw new IOException(clazz.getSimpleName() + "." + name + " not available", ex);
+		}
+	}
+
+	/**
+	 * Sets POSIX permissions of a file, if supported by the file system.
+	 * @param path the file
+	 * @param permissions permissions, for instance "rw-------"
+	 */
+	protected static void setOwnerOnly(Path path, String permissions){
+		try{
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+		}
+		catch(UnsupportedOperationException | IOException ignore){}
+	}
+
+	/**
+	 * A connection between the daemon and a client with data streams for frames.
+	 */
+	public static class Connection implements Closeable {
+
+		/** The socket channel. */
+		protected final SocketChannel channel;
+
+		/** Stream for incoming frames. */
+		protected final DataInputStream in;
+
+		/** Stream for outgoing frames. */
+		protected final DataOutputStream out;
+
+		/**
+		 * Returns a new connection.
+		 * @param channel a connected channel in blocking mode
+		 */
+		protected Connection(SocketChannel channel){
+			this.channel = channel;
+			this.in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+			this.out = new DS_Protocol.LockedOutputStream(new BufferedOutputStream(new ChannelOutputStream(channel)));
+		}
+
+		/**
+		 * Returns the stream for incoming frames.
+		 * @return input stream
+		 */
+		public DataInputStream getInput(){
+			return this.in;
+		}
+
+		/**
+		 * Returns the stream for outgoing frames, see {@link DS_Protocol#write(DataOutputStream, int, byte[])}.
+		 * @return output stream
+		 */
+		public DataOutputStream getOutput(){
+			return this.out;
+		}
+
+		/**
+		 * Ends the output of the connection and discards all further input until the peer closes the connection.
+		 * Closing a connection with unread input can reset it, so data still in transit to the peer could get lost.
+		 * @throws IOException if the connection failed
+		 */
+		public void shutdown() throws IOException{
+			this.out.flush();
+			this.channel.shutdownOutput();
+			byte[] buffer = new byte[8192];
+			while(this.in.read(buffer)!=-1){
+				//discard
+			}
+		}
+
+		@Override
+		public void close(){
+			try{
+				this.channel.close();
+			}
+			catch(IOException ignore){}
+		}
+	}
+
+	/**
+	 * An input stream reading from a socket channel.
+	 * Unlike {@link java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)} it does not lock the channel, so that another thread can write at the same time.
+	 */
+	protected static class ChannelInputStream extends InputStream {
+
+		/** The channel. */
+		protected final SocketChannel channel;
+
+		/**
+		 * Returns a new stream.
+		 * @param channel the channel, in blocking mode
+		 */
+		protected ChannelInputStream(SocketChannel channel){
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException{
+			byte[] b = new byte[1];
+			return (this.read(b, 0, 1)==-1)?-1:(b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			if(len==0){
+				return 0;
+			}
+			return this.channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public void close() throws IOException{
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * An output stream writing to a socket channel, without locking the channel.
+	 */
+	protected static class ChannelOutputStream extends OutputStream {
+
+		/** The channel. */
+		protected final SocketChannel channel;
+
+		/**
+		 * Returns a new stream.
+		 * @param channel the channel, in blocking mode
+		 */
+		protected ChannelOutputStream(SocketChannel channel){
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException{
+			this.write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while(buffer.hasRemaining()){
+				this.channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException{
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,377 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The framed protocol between the ExecS daemon and its clients.
+ *
+ * Every message is a frame: one byte frame type, a 4 byte length (big endian) and the payload.
+ * A connection starts with a {@link #HELLO} frame from the client carrying the protocol version and an access token, followed by a {@link #REQUEST} frame (see {@link DS_Request}).
+ * The client then sends standard in as {@link #STDIN} frames, an empty frame marks the end of input.
+ * The daemon sends {@link #STDOUT} and {@link #STDERR} frames with the output of the application as it is written and finally an {@link #EXIT} frame with the exit status, then closes the connection.
+ *
+ * The protocol classes use the JDK only, so that a client does not need any other library.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Protocol {
+
+	/** Version of the protocol, sent with {@link #HELLO}. */
+	public final static int VERSION = 1;
+
+	/** Frame type client to daemon: protocol version (4 bytes) and access token (UTF-8). */
+	public final static int HELLO = 'H';
+
+	/** Frame type client to daemon: the execution request, see {@link DS_Request}. */
+	public final static int REQUEST = 'R';
+
+	/** Frame type client to daemon: bytes read from standard in, empty at the end of input. */
+	public final static int STDIN = 'I';
+
+	/** Frame type daemon to client: bytes written to standard out. */
+	public final static int STDOUT = 'O';
+
+	/** Frame type daemon to client: bytes written to standard error. */
+	public final static int STDERR = 'E';
+
+	/** Frame type daemon to client: exit status (4 bytes), last frame. */
+	public final static int EXIT = 'X';
+
+	/** Maximum payload of a frame. */
+	public final static int MAX_FRAME = 16 * 1024 * 1024;
+
+	/**
+	 * Writes a frame and flushes the stream.
+	 * Writers are serialized, so that frames of different threads are not mixed: with the lock of a {@link LockedOutputStream} (as used by connections), otherwise synchronized on the stream.
+	 * The lock is held while writing to the socket, a lock rather than a monitor does not pin the carrier of a virtual thread (Java 21).
+	 * @param out the stream
+	 * @param type frame type
+	 * @param data payload
+	 * @param offset offset of the payload in data
+	 * @param length length of the payload
+	 * @throws IOException if writing failed
+	 */
+	public static void write(DataOutputStream out, int type, byte[] data, int offset, int length) throws IOException{
+		if(out instanceof LockedOutputStream){
+			ReentrantLock lock = ((LockedOutputStream)out).lock;
+			lock.lock();
+			try{
+				writeFrame(out, type, data, offset, length);
+			}
+			finally{
+				lock.unlock();
+			}
+		}
+		else{
+			synchronized(out){
+				writeFrame(out, type, data, offset, length);
+			}
+		}
+	}
+
+	/**
+	 * Writes a frame and flushes the stream, the caller must hold the lock of the stream.
+	 * @param out the stream
+	 * @param type frame type
+	 * @param data payload
+	 * @param offset offset of the payload in data
+	 * @param length length of the payload
+	 * @throws IOException if writing failed
+	 */
+	protected static void writeFrame(DataOutputStream out, int type, byte[] data, int offset, int length) throws IOException{
+		out.writeByte(type);
+		out.writeInt(length);
+		out.write(data, offset, length);
+		out.flush();
+	}
+
+	/**
+	 * Writes a frame with a full payload and flushes the stream.
+	 * @param out the stream
+	 * @param type frame type
+	 * @param data payload
+	 * @throws IOException if writing failed
+	 */
+	public static void write(DataOutputStream out, int type, byte[] data) throws IOException{
+		write(out, type, data, 0, data.length);
+	}
+
+	/**
+	 * Writes a frame with a 4 byte integer as payload and flushes the stream.
+	 * @param out the stream
+	 * @param type frame type
+	 * @param value payload
+	 * @throws IOException if writing failed
+	 */
+	public static void writeInt(DataOutputStream out, int type, int value) throws IOException{
+		write(out, type, new byte[]{(byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value});
+	}
+
+	/**
+	 * Writes the {@link #HELLO} frame.
+	 * @param out the stream
+	 * @param token access token, empty if none is required
+	 * @throws IOException if writing failed
+	 */
+	public static void writeHello(DataOutputStream out, String token) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(VERSION);
+		data.write(token.getBytes(StandardCharsets.UTF_8));
+		write(out, HELLO, bytes.toByteArray());
+	}
+
+	/**
+	 * Reads a frame.
+	 * @param in the stream
+	 * @return the frame, null if the stream ended before a new frame
+	 * @throws IOException if reading failed, the stream ended within a frame or the frame is too large
+	 */
+	public static Frame read(DataInputStream in) throws IOException{
+		int type = in.read();
+		if(type==-1){
+			return null;
+		}
+		int length = in.readInt();
+		if(length<0 || length>MAX_FRAME){
+			throw new IOException("invalid frame length " + length);
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return new Frame(type, data);
+	}
+
+	/**
+	 * Reads a frame of a given type.
+	 * @param in the stream
+	 * @param type expected frame type
+	 * @return the frame
+	 * @throws IOException if reading failed, the stream ended, or the frame has a different type
+	 */
+	public static Frame read(DataInputStream in, int type) throws IOException{
+		Frame ret = read(in);
+		if(ret==null){
+			throw new EOFException("connection closed, expected frame '" + (char)type + "'");
+		}
+		if(ret.type!=type){
+			throw new IOException("unexpected frame '" + (char)ret.type + "', expected '" + (char)type + "'");
+		}
+		return ret;
+	}
+
+	/**
+	 * A data output stream with a lock for writing frames, see {@link DS_Protocol#write(DataOutputStream, int, byte[], int, int)}.
+	 */
+	public static class LockedOutputStream extends DataOutputStream {
+
+		/** Lock serializing frames written to the stream. */
+		protected final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Returns a new stream.
+		 * @param out the underlying stream
+		 */
+		public LockedOutputStream(OutputStream out){
+			super(out);
+		}
+	}
+
+	/**
+	 * An output stream writing all data as frames of one type, for instance standard out of an application.
+	 * The stream does not buffer, each write is sent as a frame, or as several frames if it is larger than {@link DS_Protocol#MAX_FRAME}.
+	 */
+	public static class FrameOutputStream extends OutputStream {
+
+		/** The connection stream. */
+		protected final DataOutputStream out;
+
+		/** Type of all frames. */
+		protected final int type;
+
+		/**
+		 * Returns a new stream.
+		 * @param out the connection stream
+		 * @param type frame type, for instance {@link DS_Protocol#STDOUT}
+		 */
+		public FrameOutputStream(DataOutputStream out, int type){
+			this.out = out;
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException{
+			this.write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			while(len>0){
+				int length = Math.min(len, MAX_FRAME);
+				DS_Protocol.write(this.out, this.type, b, off, length);
+				off += length;
+				len -= length;
+			}
+		}
+	}
+
+	/**
+	 * An input stream reading all data from frames of one type, for instance standard in of an application.
+	 * Frames are read when data is requested, an empty frame or the end of the connection ends the stream.
+	 * Readers are serialized with a lock rather than a monitor, so that a virtual thread waiting for input does not pin its carrier thread (Java 21).
+	 */
+	public static class FrameInputStream extends InputStream {
+
+		/** The connection stream. */
+		protected final DataInputStream in;
+
+		/** Type of all frames. */
+		protected final int type;
+
+		/** Payload of the current frame. */
+		protected byte[] data = new byte[0];
+
+		/** Position in the current payload. */
+		protected int pos;
+
+		/** Flag for the end of the stream. */
+		protected boolean eof;
+
+		/** Lock guarding the stream state. */
+		protected final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Returns a new stream.
+		 * @param in the connection stream
+		 * @param type frame type, for instance {@link DS_Protocol#STDIN}
+		 */
+		public FrameInputStream(DataInputStream in, int type){
+			this.in = in;
+			this.type = type;
+		}
+
+		@Override
+		public int read() throws IOException{
+			byte[] b = new byte[1];
+			return (this.read(b, 0, 1)==-1)?-1:(b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			if(len==0){
+				return 0;
+			}
+			this.lock.lock();
+			try{
+				while(!this.eof && this.pos==this.data.length){
+					Frame frame = DS_Protocol.read(this.in);
+					if(frame==null || frame.data.length==0){
+						this.eof = true;
+					}
+					else if(frame.type!=this.type){
+						throw new IOException("unexpected frame '" + (char)frame.type + "', expected '" + (char)this.type + "'");
+					}
+					else{
+						this.data = frame.data;
+						this.pos = 0;
+					}
+				}
+				if(this.eof){
+					return -1;
+				}
+				int ret = Math.min(len, this.data.length - this.pos);
+				System.arraycopy(this.data, this.pos, b, off, ret);
+				this.pos += ret;
+				return ret;
+			}
+			finally{
+				this.lock.unlock();
+			}
+		}
+
+		@Override
+		public int available(){
+			this.lock.lock();
+			try{
+				return this.data.length - this.pos;
+			}
+			finally{
+				this.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A frame: type and payload.
+	 */
+	public static class Frame {
+
+		/** Frame type. */
+		protected final int type;
+
+		/** Payload. */
+		protected final byte[] data;
+
+		/**
+		 * Returns a new frame.
+		 * @param type frame type
+		 * @param data payload
+		 */
+		public Frame(int type, byte[] data){
+			this.type = type;
+			this.data = data;
+		}
+
+		/**
+		 * Returns the frame type.
+		 * @return type
+		 */
+		public int getType(){
+			return this.type;
+		}
+
+		/**
+		 * Returns the payload.
+		 * @return payload
+		 */
+		public byte[] getData(){
+			return this.data;
+		}
+
+		/**
+		 * Returns the payload as a 4 byte integer.
+		 * @return integer value
+		 * @throws IOException if the payload is not 4 bytes long
+		 */
+		public int getInt() throws IOException{
+			if(this.data.length!=4){
+				throw new IOException("frame '" + (char)this.type + "' has no integer payload");
+			}
+			return ((this.data[0] & 0xFF) << 24) | ((this.data[1] & 0xFF) << 16) | ((this.data[2] & 0xFF) << 8) | (this.data[3] & 0xFF);
+		}
+	}
+}
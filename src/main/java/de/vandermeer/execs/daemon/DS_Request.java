@@ -0,0 +1,205 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An execution request sent to the ExecS daemon: command line arguments, working directory and environment of the calling process.
+ *
+ * A JVM has a single working directory and environment, the daemon cannot change them for a request.
+ * Applications running in the daemon can get the working directory and environment of the client from the request of the current thread, see {@link #current()}.
+ * Applications should resolve relative paths with {@link #resolve(String)}, which uses the working directory of the client in the daemon and the working directory of the JVM otherwise.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Request {
+
+	/** The request executed by the current thread (and threads it started), null outside the daemon. */
+	protected final static InheritableThreadLocal<DS_Request> CURRENT = new InheritableThreadLocal<>();
+
+	/** Command line arguments. */
+	protected final String[] args;
+
+	/** Working directory of the client. */
+	protected final String cwd;
+
+	/** Environment of the client. */
+	protected final Map<String, String> env;
+
+	/**
+	 * Returns a new request.
+	 * @param args command line arguments
+	 * @param cwd working directory of the client
+	 * @param env environment of the client, null for none
+	 */
+	public DS_Request(String[] args, String cwd, Map<String, String> env){
+		this.args = (args==null)?new String[0]:args;
+		this.cwd = (cwd==null)?"":cwd;
+		this.env = (env==null)?Collections.<String, String>emptyMap():Collections.unmodifiableMap(new LinkedHashMap<>(env));
+	}
+
+	/**
+	 * Returns a request for the current process.
+	 * @param args command line arguments
+	 * @return new request with the working directory and environment of the current process
+	 */
+	public static DS_Request forCurrentProcess(String[] args){
+		return new DS_Request(args, System.getProperty("user.dir"), System.getenv());
+	}
+
+	/**
+	 * Returns the request executed by the current thread.
+	 * @return the request, null if the current thread does not execute a request for the daemon
+	 */
+	public static DS_Request current(){
+		return CURRENT.get();
+	}
+
+	/**
+	 * Returns the working directory for the current thread.
+	 * @return working directory of the client if the thread executes a request for the daemon, the working directory of the JVM (system property "user.dir") otherwise
+	 */
+	public static String getWorkingDirectory(){
+		DS_Request request = CURRENT.get();
+		return (request==null || request.cwd.length()==0)?System.getProperty("user.dir"):request.cwd;
+	}
+
+	/**
+	 * Resolves a path against the working directory for the current thread, see {@link #getWorkingDirectory()}.
+	 * @param path the path
+	 * @return the path if it is absolute, otherwise the path in the working directory
+	 */
+	public static File resolve(String path){
+		File ret = new File(path);
+		return (ret.isAbsolute())?ret:new File(getWorkingDirectory(), path);
+	}
+
+	/**
+	 * Returns the command line arguments.
+	 * @return arguments
+	 */
+	public String[] getArgs(){
+		return this.args;
+	}
+
+	/**
+	 * Returns the working directory of the client.
+	 * @return working directory, empty if unknown
+	 */
+	public String getCwd(){
+		return this.cwd;
+	}
+
+	/**
+	 * Returns the environment of the client.
+	 * @return environment, unmodifiable
+	 */
+	public Map<String, String> getEnv(){
+		return this.env;
+	}
+
+	/**
+	 * Encodes the request as payload of a {@link DS_Protocol#REQUEST} frame.
+	 * @return encoded request
+	 */
+	public byte[] encode(){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(DataOutputStream out = new DataOutputStream(bytes)){
+			out.writeInt(this.args.length);
+			for(String arg : this.args){
+				writeString(out, arg);
+			}
+			writeString(out, this.cwd);
+			out.writeInt(this.env.size());
+			for(Map.Entry<String, String> entry : this.env.entrySet()){
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue());
+			}
+		}
+		catch(IOException ignore){
+			//cannot happen writing to a byte array
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a request from the payload of a {@link DS_Protocol#REQUEST} frame.
+	 * @param data encoded request
+	 * @return the request
+	 * @throws IOException if the data is not a valid request
+	 */
+	public static DS_Request decode(byte[] data) throws IOException{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		int count = in.readInt();
+		if(count<0 || count>data.length){
+			throw new IOException("invalid request, " + count + " arguments");
+		}
+		String[] args = new String[count];
+		for(int i=0; i<count; i++){
+			args[i] = readString(in);
+		}
+		String cwd = readString(in);
+		count = in.readInt();
+		if(count<0 || count>data.length){
+			throw new IOException("invalid request, " + count + " environment variables");
+		}
+		Map<String, String> env = new LinkedHashMap<>();
+		for(int i=0; i<count; i++){
+			env.put(readString(in), readString(in));
+		}
+		return new DS_Request(args, cwd, env);
+	}
+
+	/**
+	 * Writes a string as length and UTF-8 bytes.
+	 * @param out stream to write to
+	 * @param s the string
+	 * @throws IOException if writing failed
+	 */
+	protected static void writeString(DataOutputStream out, String s) throws IOException{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * @param in stream to read from
+	 * @return the string
+	 * @throws IOException if reading failed
+	 */
+	protected static String readString(DataInputStream in) throws IOException{
+		int length = in.readInt();
+		if(length<0 || length>in.available()){
+			throw new IOException("invalid request, string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,486 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import de.vandermeer.execs.ExecS;
+import de.vandermeer.execs.ExecS_Application;
+import de.vandermeer.execs.cf.CF;
+import de.vandermeer.execs.options.AO_Dispatcher;
+import de.vandermeer.execs.options.AO_IdleTimeout;
+import de.vandermeer.execs.options.AO_Servermode;
+import de.vandermeer.execs.options.AO_Socket;
+import de.vandermeer.execs.options.AO_Threads;
+import de.vandermeer.execs.options.ApplicationOption;
+import de.vandermeer.execs.options.ExecS_CliParser;
+
+/**
+ * The ExecS daemon: a long-lived server executing requests of clients in-process.
+ *
+ * The daemon listens on a local endpoint (see {@link DS_Endpoint}) and executes each request with its {@link ExecS} instance, exactly as {@link ExecS#execute(String[])} would from the command line.
+ * Standard in of the client is forwarded to the application, standard out and standard error of the application are streamed back to the client as they are written, followed by the exit status.
+ * Since the JVM, the executor, loaded classes and templates stay resident, a request does not pay for JVM startup and class loading.
+ *
+ * Requests are executed concurrently, each in a virtual thread on Java 21 and later or in a bounded pool of platform threads otherwise (see {@link DS_Dispatcher}).
+ * Standard in, standard out and standard error are routed per request (see {@link DS_Context}), so the output of concurrent requests is not mixed.
+ * Where the JVM permits it, {@link System#exit(int)} called by an application ends its request with the given status instead of ending the daemon.
+ * Working directory and environment of the client are available to applications from {@link DS_Request#current()}.
+ *
+ * The daemon stops itself after an idle time without requests (if set) and when a root of its class path changes on disk (a jar file is replaced or a class directory is changed), so that it never executes outdated classes.
+ * Requests being executed are finished before the daemon ends, new clients can start a new daemon right away (see {@link DS_Client}).
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class DS_Server implements ExecS_Application {
+
+	/** Application name. */
+	public final static String APP_NAME = "execs-server";
+
+	/** Application display name. */
+	public final static String APP_DISPLAY_NAME = "ExecS Daemon";
+
+	/** Application version, should be same as the version in the class JavaDoc. */
+	public final static String APP_VERSION = "v0.4.0 build 170413 (13-Apr-17) for Java 1.8";
+
+	/** Default interval for checking idle time and class path, in milliseconds. */
+	public final static long DEFAULT_WATCH_INTERVAL = 2000;
+
+	/** CLI parser. */
+	final private ExecS_CliParser cli;
+
+	/** List of application options. */
+	final private ArrayList<ApplicationOption<?>> options = new ArrayList<>();
+
+	/** Option to run in server mode. */
+	final private AO_Servermode optionServermode;
+
+	/** Option for the socket file. */
+	final private AO_Socket optionSocket;
+
+	/** Option for the idle timeout. */
+	final private AO_IdleTimeout optionIdleTimeout;
+
+	/** Option for the dispatcher mode. */
+	final private AO_Dispatcher optionDispatcher;
+
+	/** Option for the number of platform threads. */
+	final private AO_Threads optionThreads;
+
+	/** The executor for requests. */
+	protected ExecS execs;
+
+	/** The endpoint, null if not listening. */
+	protected volatile DS_Endpoint endpoint;
+
+	/** Stream for messages of the daemon, standard error when the daemon was created. */
+	protected final PrintStream log;
+
+	/** Idle time after which the daemon stops, in milliseconds, 0 for never. */
+	protected long idleTimeout;
+
+	/** Interval for checking idle time and class path, in milliseconds, 0 for no checks. */
+	protected long watchInterval = DEFAULT_WATCH_INTERVAL;
+
+	/** Dispatcher mode, see {@link DS_Dispatcher}, null for the default mode. */
+	protected String dispatcher;
+
+	/** Number of platform threads executing requests, 0 for the default. */
+	protected int threads;
+
+	/** Number of accepted clients not finished yet, guarded by this. */
+	protected int active;
+
+	/** Time the last client finished, from {@link System#nanoTime()}, guarded by this. */
+	protected long lastActive;
+
+	/**
+	 * Creates a new daemon.
+	 */
+	public DS_Server(){
+		this.cli = new ExecS_CliParser();
+
+		this.optionServermode = new AO_Servermode(true, "Runs the executor as a daemon, executing requests of clients on a local socket until it is stopped.");
+		this.addOption(this.optionServermode);
+
+		this.optionSocket = new AO_Socket(false, "The socket file the daemon listens on, default is '~/.execs/<name>.sock' with the name of the executor.");
+		this.addOption(this.optionSocket);
+
+		this.optionIdleTimeout = new AO_IdleTimeout(false, "The daemon stops after the given number of seconds without requests, default is to run until stopped.");
+		this.addOption(this.optionIdleTimeout);
+
+		this.optionDispatcher = new AO_Dispatcher(false, "Dispatches requests to a virtual thread each ('" + DS_Dispatcher.VIRTUAL + "', Java 21 and later) or to a bounded pool of platform threads ('" + DS_Dispatcher.PLATFORM + "'), default is virtual threads if available.");
+		this.addOption(this.optionDispatcher);
+
+		this.optionThreads = new AO_Threads(false, "The number of platform threads executing requests, further requests wait, default is " + DS_Dispatcher.DEFAULT_THREADS + ".");
+		this.addOption(this.optionThreads);
+
+		this.log = System.err;
+	}
+
+	@Override
+	public int executeApplication(String[] args) {
+		int ret = ExecS_Application.super.executeApplication(args);
+		if(ret!=0){
+			return ret;
+		}
+
+		if(this.optionIdleTimeout.getValue()!=null){
+			long seconds = NumberUtils.toLong(this.optionIdleTimeout.getValue(), -1);
+			if(seconds<0){
+				System.err.println(this.getAppName() + ": option --idle-timeout requires a number of seconds, found <" + this.optionIdleTimeout.getValue() + ">");
+				return -1;
+			}
+			this.setIdleTimeout(TimeUnit.SECONDS.toMillis(seconds));
+		}
+		if(this.optionDispatcher.getValue()!=null){
+			if(!DS_Dispatcher.isMode(this.optionDispatcher.getValue())){
+				System.err.println(this.getAppName() + ": option --dispatcher requires '" + DS_Dispatcher.VIRTUAL + "' or '" + DS_Dispatcher.PLATFORM + "', found <" + this.optionDispatcher.getValue() + ">");
+				return -1;
+			}
+			this.setDispatcher(this.optionDispatcher.getValue());
+		}
+		if(this.optionThreads.getValue()!=null){
+			int threads = NumberUtils.toInt(this.optionThreads.getValue(), -1);
+			if(threads<1){
+				System.err.println(this.getAppName() + ": option --threads requires a positive number, found <" + this.optionThreads.getValue() + ">");
+				return -1;
+			}
+			this.setThreads(threads);
+		}
+
+		if(this.execs==null){
+			this.execs = new ExecS();
+		}
+		File file = (this.optionSocket.getValue()!=null)?new File(this.optionSocket.getValue()):DS_Endpoint.getDefaultFile(this.execs.getAppName());
+		try{
+			this.listen(file);
+		}
+		catch(IOException ex){
+			System.err.println(this.getAppName() + ": could not listen on <" + file + "> -> " + ex.getMessage());
+			return -1;
+		}
+		System.out.println(this.getAppName() + ": listening on " + file);
+		System.out.flush();
+
+		Thread hook = new Thread(this::stop);
+		Runtime.getRuntime().addShutdownHook(hook);
+		this.serve();
+		try{
+			Runtime.getRuntime().removeShutdownHook(hook);
+		}
+		catch(IllegalStateException ignore){}
+		return 0;
+	}
+
+	/**
+	 * Binds the daemon to an endpoint file.
+	 * @param file the endpoint file
+	 * @return self to allow for chaining
+	 * @throws IOException if a daemon is listening on the file already or the endpoint could not be bound
+	 */
+	public DS_Server listen(File file) throws IOException{
+		if(this.execs==null){
+			this.execs = new ExecS();
+		}
+		this.endpoint = DS_Endpoint.listen(file);
+		if(!DS_Context.install()){
+			this.log.println(this.getAppName() + ": cannot intercept System.exit on this JVM, an application calling it ends the daemon (Java 18 to 23 need -Djava.security.manager=allow)");
+		}
+		return this;
+	}
+
+	/**
+	 * Accepts clients until the daemon is stopped, each client is handled in a thread of the dispatcher.
+	 * The daemon must be bound using {@link #listen(File)} first.
+	 * Returns when the daemon is stopped and all accepted clients are finished.
+	 */
+	public void serve(){
+		DS_Endpoint endpoint = this.endpoint;
+		if(endpoint==null){
+			return;
+		}
+		synchronized(this){
+			this.lastActive = System.nanoTime();
+		}
+		if(this.watchInterval>0){
+			DS_ClassPathWatch classPath = new DS_ClassPathWatch(new CF().getEffectiveClassPath());
+			Thread watch = new Thread(() -> this.watch(endpoint, classPath), this.getAppName() + "-watch");
+			watch.setDaemon(true);
+			watch.start();
+		}
+		if(DS_Dispatcher.VIRTUAL.equals(this.dispatcher) && !DS_Dispatcher.isVirtual()){
+			this.log.println(this.getAppName() + ": virtual threads require Java 21, using platform threads");
+		}
+		ExecutorService executor = DS_Dispatcher.create(this.dispatcher, this.threads, this.getAppName() + "-client");
+
+		while(endpoint.isOpen()){
+			DS_Endpoint.Connection connection;
+			try{
+				connection = endpoint.accept();
+			}
+			catch(IOException ex){
+				if(endpoint.isOpen()){
+					this.log.println(this.getAppName() + ": accept failed -> " + ex.getMessage());
+				}
+				continue;
+			}
+			synchronized(this){
+				this.active++;
+			}
+			executor.execute(() -> this.handle(endpoint, connection));
+		}
+
+		try{
+			synchronized(this){
+				while(this.active>0){
+					this.wait();
+				}
+			}
+		}
+		catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Watches the daemon until it is stopped: stops the daemon when it is idle longer than the idle timeout or a root of the class path changed.
+	 * @param endpoint the endpoint of the daemon
+	 * @param classPath watch for the class path roots, closed when the daemon is stopped
+	 */
+	protected void watch(DS_Endpoint endpoint, DS_ClassPathWatch classPath){
+		try{
+			while(endpoint.isOpen()){
+				try{
+					Thread.sleep((this.idleTimeout>0)?Math.min(this.watchInterval, this.idleTimeout):this.watchInterval);
+				}
+				catch(InterruptedException ex){
+					return;
+				}
+				synchronized(this){
+					if(this.idleTimeout>0 && this.active==0 && System.nanoTime() - this.lastActive >= TimeUnit.MILLISECONDS.toNanos(this.idleTimeout)){
+						this.log.println(this.getAppName() + ": idle for " + this.idleTimeout + " ms, stopping");
+						this.stop();
+						return;
+					}
+				}
+				if(classPath.hasChanged()){
+					this.log.println(this.getAppName() + ": class path changed, stopping");
+					this.stop();
+					return;
+				}
+			}
+		}
+		finally{
+			classPath.close();
+		}
+	}
+
+	/**
+	 * Stops the daemon: closes the endpoint and removes the endpoint file.
+	 * Requests being executed are finished.
+	 */
+	public void stop(){
+		DS_Endpoint endpoint = this.endpoint;
+		if(endpoint!=null){
+			endpoint.close();
+		}
+	}
+
+	/**
+	 * Handles a client: verifies the client, reads the request, executes it and sends the exit status.
+	 * @param endpoint the endpoint that accepted the client
+	 * @param connection the client connection, closed when done
+	 */
+	protected void handle(DS_Endpoint endpoint, DS_Endpoint.Connection connection){
+		try{
+			try{
+				endpoint.handshake(connection);
+			}
+			catch(IOException ex){
+				if(endpoint.isOpen()){
+					this.log.println(this.getAppName() + ": rejected client -> " + ex.getMessage());
+				}
+				return;
+			}
+			DS_Request request = DS_Request.decode(DS_Protocol.read(connection.getInput(), DS_Protocol.REQUEST).getData());
+			InputStream in = new DS_Protocol.FrameInputStream(connection.getInput(), DS_Protocol.STDIN);
+			PrintStream out = new PrintStream(new BufferedOutputStream(new DS_Protocol.FrameOutputStream(connection.getOutput(), DS_Protocol.STDOUT)), true);
+			PrintStream err = new PrintStream(new BufferedOutputStream(new DS_Protocol.FrameOutputStream(connection.getOutput(), DS_Protocol.STDERR)), true);
+			int ret = this.execute(request, in, out, err);
+			out.flush();
+			err.flush();
+			DS_Protocol.writeInt(connection.getOutput(), DS_Protocol.EXIT, ret);
+			connection.shutdown();
+		}
+		catch(IOException ignore){
+			//client gone or not a valid request, nothing to report to
+		}
+		finally{
+			connection.close();
+			synchronized(this){
+				this.active--;
+				this.lastActive = System.nanoTime();
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Executes a request with the executor of the daemon.
+	 * @param request the request
+	 * @param in standard in for the request
+	 * @param out standard out for the request
+	 * @param err standard error for the request
+	 * @return exit status
+	 */
+	protected int execute(DS_Request request, InputStream in, PrintStream out, PrintStream err){
+		String[] args = request.getArgs();
+		if(args.length>0 && "--srv-mode".equals(args[0])){
+			err.println(this.getAppName() + ": cannot start a daemon in a daemon");
+			return -1;
+		}
+
+		DS_Context.install();
+		DS_Context context = new DS_Context(in, out, err);
+		context.bind();
+		DS_Request.CURRENT.set(request);
+		int ret;
+		try{
+			ret = this.execs.execute(args);
+		}
+		catch(DS_Context.ExitException ex){
+			ret = ex.getStatus();
+		}
+		catch(Throwable t){
+			//errors of an application (for instance StackOverflowError or NoClassDefFoundError) end the request, not the daemon
+			err.println(this.getAppName() + ": exception executing request -> " + t);
+			ret = -1;
+		}
+		finally{
+			DS_Request.CURRENT.remove();
+			context.close();
+		}
+		//an application might catch the exit exception, the request still ends with the exit status
+		return (context.getExitStatus()!=null)?context.getExitStatus():ret;
+	}
+
+	/**
+	 * Adds a new option to CLI parser and option list.
+	 * @param option new option, ignored if null
+	 */
+	protected void addOption(ApplicationOption<?> option){
+		if(option!=null){
+			this.getCli().addOption(option);
+			this.options.add(option);
+		}
+	}
+
+	@Override
+	public String getAppDescription() {
+		return "Runs the executor as a daemon, executing requests of clients on a local socket";
+	}
+
+	@Override
+	public String getAppDisplayName(){
+		return APP_DISPLAY_NAME;
+	}
+
+	@Override
+	public String getAppName() {
+		return APP_NAME;
+	}
+
+	@Override
+	public ApplicationOption<?>[] getAppOptions() {
+		return this.options.toArray(new ApplicationOption<?>[]{});
+	}
+
+	@Override
+	public String getAppVersion() {
+		return APP_VERSION;
+	}
+
+	@Override
+	public ExecS_CliParser getCli() {
+		return this.cli;
+	}
+
+	/**
+	 * Sets the idle time after which the daemon stops.
+	 * @param millis idle time in milliseconds, 0 to run until stopped
+	 * @return self to allow for chaining
+	 */
+	public DS_Server setIdleTimeout(long millis){
+		this.idleTimeout = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Sets the mode for dispatching requests to threads.
+	 * @param mode {@link DS_Dispatcher#VIRTUAL} or {@link DS_Dispatcher#PLATFORM}, null for the default mode
+	 * @return self to allow for chaining
+	 */
+	public DS_Server setDispatcher(String mode){
+		this.dispatcher = mode;
+		return this;
+	}
+
+	/**
+	 * Sets the number of platform threads executing requests, not used for virtual threads.
+	 * @param threads number of threads, 0 for the default of {@link DS_Dispatcher#DEFAULT_THREADS}
+	 * @return self to allow for chaining
+	 */
+	public DS_Server setThreads(int threads){
+		this.threads = Math.max(0, threads);
+		return this;
+	}
+
+	/**
+	 * Sets the interval for checking idle time and class path.
+	 * @param millis interval in milliseconds, 0 for no checks (the daemon then runs until stopped)
+	 * @return self to allow for chaining
+	 */
+	public DS_Server setWatchInterval(long millis){
+		this.watchInterval = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Hook for a calling ExecS instance to set itself as executor for requests.
+	 * @param execs the executor, a new default executor is used if not set
+	 * @return self to allow for chaining
+	 */
+	public DS_Server setExecutor(ExecS execs){
+		this.execs = execs;
+		return this;
+	}
+}
@@ -22,6 +22,8 @@
  * 		<li>A class to execute those implemented applications at runtime - {@link de.vandermeer.execs.ExecS},</li>
  * 		<li>A generator for a configuration script - {@link de.vandermeer.execs.Gen_ConfigureSh},</li>
  * 		<li>A generator for run scripts for implemented applications - {@link de.vandermeer.execs.Gen_RunScripts},<li>
+ * 		<li>An annotation to register applications at compile time - {@link de.vandermeer.execs.ExecS_Registration} - with an annotation processor writing the application registry - {@link de.vandermeer.execs.ExecS_RegistryProcessor},</li>
+ * 		<li>A discovery of applications provided in service files - {@link de.vandermeer.execs.ExecS_Services},</li>
  * </ul>
  * 
  * 
@@ -0,0 +1,53 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import de.vandermeer.execs.options.ApplicationOption;
+
+/**
+ * An application registered at compile time, for tests.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+@ExecS_Registration(Registered_TestApp.APP_NAME)
+public class Registered_TestApp implements ExecS_Application {
+
+	/** Application name. */
+	public final static String APP_NAME = "registered-test-app";
+
+	@Override
+	public String getAppName(){
+		return APP_NAME;
+	}
+
+	@Override
+	public String getAppDescription(){
+		return "an application registered at compile time";
+	}
+
+	@Override
+	public String getAppVersion(){
+		return "v0.0.0";
+	}
+
+	@Override
+	public ApplicationOption<?>[] getAppOptions(){
+		return new ApplicationOption<?>[]{};
+	}
+
+}
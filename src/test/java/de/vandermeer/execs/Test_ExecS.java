@@ -17,8 +17,26 @@ package de.vandermeer.execs;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
 import org.junit.Test;
 
+import de.vandermeer.execs.cf.CF_RootStats;
+import de.vandermeer.execs.daemon.DS_Server;
+
 /**
  * Tests for {@link ExecS}.
  *
@@ -64,6 +82,158 @@ public class Test_ExecS {
 		assertEquals(0, run);
 		run = execs.execute(new String[]{"--list"});
 		assertEquals(0, run);
+		run = execs.execute(new String[]{"-l", "--parallel", "2"});
+		assertEquals(0, run);
+		run = execs.execute(new String[]{"-l", "--parallel", "two"});
+		assertEquals(-1, run);
+		run = execs.execute(new String[]{"-l", "--cache"});
+		assertEquals(-1, run);
+		run = execs.execute(new String[]{"-l", "--stats-file"});
+		assertEquals(-1, run);
+		run = execs.execute(new String[]{"-l", "--timeout", "one"});
+		assertEquals(-1, run);
+		run = execs.execute(new String[]{"-l", "--scan", "--timeout", "1", "--root-timeout", "1"});
+		assertEquals(0, run);
+		run = execs.execute(new String[]{"-l", "--scan", "-p", "de.vandermeer.execs,!de.vandermeer.execs.cf", "-j", "!*junit*"});
+		assertEquals(0, run);
+		run = execs.execute(new String[]{"-l", "--annotated", "-p", "de.vandermeer.execs", "-j", "!*junit*"});
+		assertEquals(0, run);
+	}
+
+	@Test
+	public void testListStats() throws IOException{
+		File file = File.createTempFile("execs-stats", ".tsv");
+		file.deleteOnExit();
+		ExecS execs = new ExecS();
+		int run = execs.execute(new String[]{"-l", "--scan", "--stats", "--stats-file", file.getPath(), "--errors", "--classpath", "--root-hash"});
+		assertEquals(0, run);
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(CF_RootStats.TSV_HEADER, lines.get(0));
+		assertTrue(lines.size()>1);
+
+		//the annotated search uses the class graph of the scan, the metrics show roots taken from the index
+		File cache = Files.createTempDirectory("execs-cache").toFile();
+		String[] args = new String[]{"-l", "--scan", "--annotated", "--cache", cache.getPath(), "--stats-file", file.getPath()};
+		assertEquals(0, execs.execute(args));
+		assertEquals(0, execs.execute(args));
+		boolean indexed = false;
+		for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)){
+			indexed |= "index".equals(line.split("\t")[1]);
+		}
+		assertTrue(indexed);
+		for(File index : cache.listFiles()){
+			index.delete();
+		}
+		cache.delete();
+		file.delete();
+	}
+
+	@Test
+	public void testRegistry(){
+		ExecS execs = new ExecS();
+		assertTrue(execs.getRegisteredApplications().contains(Registered_TestApp.APP_NAME));
+		assertEquals(Registered_TestApp.class, execs.classmap.get(Registered_TestApp.APP_NAME));
+		assertEquals(0, execs.execute(new String[]{Registered_TestApp.APP_NAME}));
+		assertEquals(0, execs.execute(new String[]{"-l", "--scan"}));
+	}
+
+	@Test
+	public void testRegistryFormat() throws IOException{
+		String resource = "# comment\n\nde.example.A\nname-b = de.example.B\nde.example.B\n";
+		ExecS_Registry registry = new ExecS_Registry().read(new ByteArrayInputStream(resource.getBytes(StandardCharsets.UTF_8)));
+		assertEquals(2, registry.getApplications().size());
+		assertEquals("", registry.getApplications().get("de.example.A"));
+		assertEquals("name-b", registry.getApplications().get("de.example.B"));
+	}
+
+	@Test
+	public void testRegistryProcessor() throws IOException{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+		File dir = Files.createTempDirectory("execs-registry").toFile();
+		File source = new File(dir, "App.java");
+		Files.write(source.toPath(), ("@" + ExecS_Registration.class.getName() + "(\"app\") public class App extends " + Registered_TestApp.class.getName() + " {}").getBytes(StandardCharsets.UTF_8));
+
+		//an existing registry from an earlier compilation, with an application that was deleted since
+		File resource = new File(dir, ExecS_Registry.RESOURCE);
+		resource.getParentFile().mkdirs();
+		Files.write(resource.toPath(), ("gone=synth.Gone\n" + Registered_TestApp.APP_NAME + "=" + Registered_TestApp.class.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+
+		int run = compiler.run(null, null, null, "-proc:only", "-processor", ExecS_RegistryProcessor.class.getName(), "-cp", System.getProperty("java.class.path"), "-d", dir.getPath(), source.getPath());
+		assertEquals(0, run);
+		ExecS_Registry registry = new ExecS_Registry();
+		try(InputStream in = new FileInputStream(resource)){
+			registry.read(in);
+		}
+		assertEquals("app", registry.getApplications().get("App"));
+		assertEquals(Registered_TestApp.APP_NAME, registry.getApplications().get(Registered_TestApp.class.getName()));
+		assertFalse(registry.getApplications().containsKey("synth.Gone"));
+
+		//the annotation is removed from the last registered class of the compilation
+		Files.write(source.toPath(), ("public class App extends " + Registered_TestApp.class.getName() + " {}").getBytes(StandardCharsets.UTF_8));
+		run = compiler.run(null, null, null, "-proc:only", "-processor", ExecS_RegistryProcessor.class.getName(), "-cp", System.getProperty("java.class.path"), "-d", dir.getPath(), source.getPath());
+		assertEquals(0, run);
+		registry = new ExecS_Registry();
+		try(InputStream in = new FileInputStream(resource)){
+			registry.read(in);
+		}
+		assertFalse(registry.getApplications().containsKey("App"));
+		assertEquals(Registered_TestApp.APP_NAME, registry.getApplications().get(Registered_TestApp.class.getName()));
+
+		resource.delete();
+		resource.getParentFile().delete();
+		resource.getParentFile().getParentFile().delete();
+		source.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testListRequests(){
+		//list requests of one executor, as in a daemon, do not see each other's results
+		ExecS execs = new ExecS();
+		assertTrue(list(execs, "-l", "--services").contains(Service_TestApp.class.getName()));
+		String scanned = list(execs, "-l", "--scan", "-p", "de.vandermeer.execs.daemon", "-j", "!*junit*");
+		assertTrue(scanned.contains(DS_Server.class.getName()));
+		assertFalse(scanned.contains(Service_TestApp.class.getName()));
+		assertFalse(list(execs, "-l", "--services").contains(DS_Server.class.getName()));
+		assertFalse(execs.classNames.contains(Service_TestApp.class.getName()));
+	}
+
+	/**
+	 * Executes a list request and returns its output.
+	 * @param execs the executor
+	 * @param args command line arguments of the request
+	 * @return standard out of the request
+	 */
+	protected static String list(ExecS execs, String ... args){
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true));
+		try{
+			assertEquals(0, execs.execute(args));
+		}
+		finally{
+			System.setOut(out);
+		}
+		return bytes.toString();
+	}
+
+	@Test
+	public void testServices(){
+		ExecS_Services services = new ExecS_Services(ExecS.class.getClassLoader());
+		assertTrue(services.getTypes().contains(Service_TestApp.class));
+		assertTrue(services.find(Service_TestApp.APP_NAME) instanceof Service_TestApp);
+		assertTrue(services.find(Service_TestApp.class.getName()) instanceof Service_TestApp);
+		assertNull(services.find("no-such-app"));
+
+		ExecS execs = new ExecS();
+		assertEquals(0, execs.execute(new String[]{Service_TestApp.APP_NAME}));
+		assertTrue(list(execs, "-l", "--services").contains(Service_TestApp.class.getName()));
+
+		execs = new ExecS();
+		execs.setUseServices(false);
+		assertEquals(-1, execs.execute(new String[]{Service_TestApp.APP_NAME}));
 	}
 
 }
@@ -0,0 +1,68 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.vandermeer.execs.cf.CF_TestClasspath;
+
+/**
+ * Tests for {@link Gen_ExecJarScripts}.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class Test_Gen_ExecJarScripts {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testScanNestedJars() throws IOException{
+		//applications in a nested jar cannot be loaded by the generator, they must be found by name
+		Map<String, byte[]> inner = CF_TestClasspath.syntheticClasses("synth/inner", 1, 2);
+		inner.put("synth/inner/Base", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_ABSTRACT_CLASS, "synth/inner/Base", "java/lang/Object", CF_TestClasspath.APP_INTERFACE));
+		File nested = CF_TestClasspath.writeJar(this.folder.newFile("inner.jar"), inner);
+
+		File fat = this.folder.newFile("fat.jar");
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(fat))){
+			out.putNextEntry(new JarEntry("synth/outer/App.class"));
+			out.write(CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/outer/App", "java/lang/Object", CF_TestClasspath.APP_INTERFACE));
+			out.closeEntry();
+			out.putNextEntry(new JarEntry("BOOT-INF/lib/inner.jar"));
+			out.write(Files.readAllBytes(nested.toPath()));
+			out.closeEntry();
+		}
+
+		Gen_ExecJarScripts gen = new Gen_ExecJarScripts();
+		assertEquals(new HashSet<>(Arrays.asList("synth.outer.App", "synth.inner.App")), new HashSet<>(gen.scanApplications(fat.getPath())));
+	}
+}
@@ -0,0 +1,146 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import de.vandermeer.execs.ExecS_Application;
+import de.vandermeer.execs.cf.CF_TestClasspath.RecordingClassLoader;
+
+/**
+ * Benchmark for the class finder on a synthetic class path, not run as part of the tests.
+ * Usage: {@code Bench_CF [jars [packages [classes [runs]]]]}, defaults are 300 jars with 10 packages of 10 classes each and 3 runs.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class Bench_CF {
+
+	/** Number of jar files in the synthetic class path. */
+	protected final int jars;
+
+	/** Number of packages per jar file. */
+	protected final int packages;
+
+	/** Number of classes per package. */
+	protected final int classes;
+
+	/** Number of measured runs. */
+	protected final int runs;
+
+	/** The synthetic class path. */
+	protected List<File> roots;
+
+	/**
+	 * Returns a new benchmark.
+	 * @param args command line arguments
+	 */
+	public Bench_CF(String[] args){
+		this.jars = (args.length>0)?Integer.parseInt(args[0]):300;
+		this.packages = (args.length>1)?Integer.parseInt(args[1]):10;
+		this.classes = (args.length>2)?Integer.parseInt(args[2]):10;
+		this.runs = (args.length>3)?Integer.parseInt(args[3]):3;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * @throws IOException if the synthetic class path could not be created
+	 */
+	public void run() throws IOException{
+		File dir = Files.createTempDirectory("execs-bench").toFile();
+		this.roots = CF_TestClasspath.createJars(dir, this.jars, this.packages, this.classes);
+		System.out.println("class path: " + this.jars + " jars, " + this.packages + " packages per jar, " + this.classes + " classes per package");
+
+		File cache = new File(dir, "cache");
+		for(int i=0; i<this.runs; i++){
+			this.measure("locations (original)", true, 1, null, false);
+			this.measure("scanner, JarFile", false, 1, null, false);
+			this.measure("scanner, sequential", false, 1, null, true);
+			this.measure("scanner, parallel", false, 0, null, true);
+			this.measure("scanner, index", false, 0, cache, true);
+		}
+		this.measureHeap();
+
+		for(File file : this.roots){
+			file.delete();
+		}
+		for(File file : cache.listFiles()){
+			file.delete();
+		}
+		cache.delete();
+		dir.delete();
+	}
+
+	/**
+	 * Runs and measures a single search with a fresh class finder and class loader.
+	 * @param name name of the search for the printout
+	 * @param locations true to use the original search over all locations, false to use the single-pass scanner
+	 * @param parallelism parallelism for the scanner, 0 for the number of available processors
+	 * @param cache index directory for the scanner, null to not use an index
+	 * @param mapped true to use the memory-mapped jar reader for the scanner, false to use JarFile
+	 * @throws IOException if the class loader could not be closed
+	 */
+	protected void measure(String name, boolean locations, int parallelism, File cache, boolean mapped) throws IOException{
+		try(RecordingClassLoader loader = CF_TestClasspath.classLoader(this.roots)){
+			CF cf = new CF().setClassPath(CF_TestClasspath.classPath(this.roots)).setClassLoader(loader).setParallelism(parallelism).setCacheDirectory(cache).setMappedJars(mapped);
+			long start = System.nanoTime();
+			Set<Class<?>> found = (locations)?cf.searchLocations(ExecS_Application.class):cf.getSubclasses(ExecS_Application.class);
+			long time = System.nanoTime() - start;
+			System.out.println(String.format("  %-24s %8d ms, %5d found, %6d classes loaded, %d errors", name, time/1000000, found.size(), loader.getLoaded().size(), cf.getLastErrorSummary().getCount()));
+		}
+	}
+
+	/**
+	 * Measures the heap kept by a class finder after a search, about 160 bytes per class on Java 21 and 290 on Java 8.
+	 */
+	protected void measureHeap(){
+		CF cf = new CF().setClassPath(CF_TestClasspath.classPath(this.roots)).setParallelism(1);
+		long before = usedHeap();
+		cf.getSubclassNames(ExecS_Application.class);
+		long retained = usedHeap() - before;
+		int size = cf.getLastClassGraph().size();
+		System.out.println(String.format("  %-24s %8d bytes, %5d per class", "retained heap", retained, retained/Math.max(1, size)));
+	}
+
+	/**
+	 * Returns the used heap after garbage collection.
+	 * @return used heap in bytes
+	 */
+	protected static long usedHeap(){
+		long ret = Long.MAX_VALUE;
+		for(int i=0; i<5; i++){
+			System.gc();
+			ret = Math.min(ret, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+		return ret;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * @param args command line arguments, see class documentation
+	 * @throws IOException if the synthetic class path could not be created
+	 */
+	public static void main(String[] args) throws IOException{
+		new Bench_CF(args).run();
+	}
+
+}
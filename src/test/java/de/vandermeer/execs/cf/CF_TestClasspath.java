@@ -0,0 +1,242 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Creates synthetic class paths (jar files and directories with generated class files) for class finder tests and benchmarks.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public abstract class CF_TestClasspath {
+
+	/** Internal name of the application interface. */
+	public final static String APP_INTERFACE = "de/vandermeer/execs/ExecS_Application";
+
+	/** Access flags for a public class. */
+	public final static int ACC_CLASS = 0x0021;
+
+	/** Access flags for a public abstract class. */
+	public final static int ACC_ABSTRACT_CLASS = 0x0421;
+
+	/**
+	 * Returns the bytes of a minimal class file (no fields, no methods).
+	 * @param access access flags
+	 * @param name internal class name
+	 * @param superName internal name of the super class
+	 * @param interfaces internal names of implemented interfaces
+	 * @return class file bytes
+	 */
+	public static byte[] classBytes(int access, String name, String superName, String ... interfaces){
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(52);
+			out.writeShort(1 + 2 * (2 + interfaces.length));
+
+			List<String> names = new ArrayList<>();
+			names.add(name);
+			names.add(superName);
+			for(String s : interfaces){
+				names.add(s);
+			}
+			for(String s : names){
+				out.writeByte(1);
+				out.writeUTF(s);
+				out.writeByte(7);
+				out.writeShort(names.indexOf(s) * 2 + 1);
+			}
+
+			out.writeShort(access);
+			out.writeShort(2);
+			out.writeShort(4);
+			out.writeShort(interfaces.length);
+			for(int i=0; i<interfaces.length; i++){
+				out.writeShort(6 + i * 2);
+			}
+			out.writeShort(0);
+			out.writeShort(0);
+			out.writeShort(0);
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch(IOException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Returns the classes of a synthetic class path element: plain classes in a number of packages plus one application.
+	 * @param prefix internal package prefix for all classes
+	 * @param packages number of packages
+	 * @param classes number of plain classes per package
+	 * @return map of internal class name to class file bytes
+	 */
+	public static Map<String, byte[]> syntheticClasses(String prefix, int packages, int classes){
+		Map<String, byte[]> ret = new LinkedHashMap<>();
+		for(int p=0; p<packages; p++){
+			for(int c=0; c<classes; c++){
+				String name = prefix + "/p" + p + "/C" + c;
+				ret.put(name, classBytes(ACC_CLASS, name, "java/lang/Object"));
+			}
+		}
+		String app = prefix + "/App";
+		ret.put(app, classBytes(ACC_CLASS, app, "java/lang/Object", APP_INTERFACE));
+		return ret;
+	}
+
+	/**
+	 * Writes a jar file with the given classes and all package directory entries.
+	 * @param file the jar file
+	 * @param classes map of internal class name to class file bytes
+	 * @return the jar file
+	 * @throws IOException if writing failed
+	 */
+	public static File writeJar(File file, Map<String, byte[]> classes) throws IOException{
+		List<String> dirs = new ArrayList<>();
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(file))){
+			for(Entry<String, byte[]> entry : classes.entrySet()){
+				String[] path = StringUtils.split(entry.getKey(), '/');
+				String dir = "";
+				for(int i=0; i<path.length-1; i++){
+					dir += path[i] + "/";
+					if(!dirs.contains(dir)){
+						dirs.add(dir);
+						out.putNextEntry(new JarEntry(dir));
+						out.closeEntry();
+					}
+				}
+				out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the given classes into a directory tree.
+	 * @param dir the root directory
+	 * @param classes map of internal class name to class file bytes
+	 * @return the root directory
+	 * @throws IOException if writing failed
+	 */
+	public static File writeDirectory(File dir, Map<String, byte[]> classes) throws IOException{
+		for(Entry<String, byte[]> entry : classes.entrySet()){
+			File file = new File(dir, entry.getKey() + ".class");
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), entry.getValue());
+		}
+		return dir;
+	}
+
+	/**
+	 * Creates a synthetic class path of jar files, each jar with its own packages and one application.
+	 * @param dir directory for the jar files
+	 * @param jars number of jar files
+	 * @param packages number of packages per jar
+	 * @param classes number of plain classes per package
+	 * @return list of created jar files
+	 * @throws IOException if writing failed
+	 */
+	public static List<File> createJars(File dir, int jars, int packages, int classes) throws IOException{
+		List<File> ret = new ArrayList<>();
+		for(int j=0; j<jars; j++){
+			ret.add(writeJar(new File(dir, "synth-" + j + ".jar"), syntheticClasses("synth/j" + j, packages, classes)));
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a class path string for the given roots.
+	 * @param roots class path roots
+	 * @return class path using the system path separator
+	 */
+	public static String classPath(List<File> roots){
+		return StringUtils.join(roots, File.pathSeparator);
+	}
+
+	/**
+	 * Returns a new class loader for the given roots, using the class loader of the class finder as parent.
+	 * @param roots class path roots
+	 * @return new class loader
+	 * @throws MalformedURLException if a root cannot be converted to a URL
+	 */
+	public static RecordingClassLoader classLoader(List<File> roots) throws MalformedURLException{
+		URL[] urls = new URL[roots.size()];
+		for(int i=0; i<urls.length; i++){
+			urls[i] = roots.get(i).toURI().toURL();
+		}
+		return new RecordingClassLoader(urls);
+	}
+
+	/**
+	 * A class loader recording the names of all classes it loaded from the synthetic class path.
+	 */
+	public static class RecordingClassLoader extends URLClassLoader {
+
+		/** Names of all loaded classes. */
+		protected final Set<String> loaded = Collections.synchronizedSet(new HashSet<>());
+
+		/**
+		 * Returns a new class loader.
+		 * @param urls class path URLs
+		 */
+		public RecordingClassLoader(URL[] urls){
+			super(urls, CF.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException{
+			Class<?> ret = super.findClass(name);
+			this.loaded.add(name);
+			return ret;
+		}
+
+		/**
+		 * Returns the names of all classes loaded from the synthetic class path.
+		 * @return names of loaded classes
+		 */
+		public Set<String> getLoaded(){
+			return this.loaded;
+		}
+	}
+}
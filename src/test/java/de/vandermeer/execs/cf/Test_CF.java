@@ -0,0 +1,782 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.cf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.vandermeer.execs.ExecS_Application;
+import de.vandermeer.execs.ExecS_Registration;
+import de.vandermeer.execs.Gen_RunScripts;
+import de.vandermeer.execs.Registered_TestApp;
+import de.vandermeer.execs.Service_TestApp;
+import de.vandermeer.execs.cf.CF_TestClasspath.RecordingClassLoader;
+
+/**
+ * Tests for {@link CF}.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class Test_CF {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Class loaders of the class finders created by {@link #createFinder(List)}, closed after each test. */
+	protected final List<URLClassLoader> loaders = new ArrayList<>();
+
+	@After
+	public void closeLoaders() throws IOException{
+		for(URLClassLoader loader : this.loaders){
+			loader.close();
+		}
+	}
+
+	/**
+	 * Returns a synthetic class path with 5 jars and one directory, 6 applications in total.
+	 * @return class path roots
+	 * @throws IOException if writing failed
+	 */
+	protected List<File> createRoots() throws IOException{
+		List<File> roots = CF_TestClasspath.createJars(this.folder.newFolder("jars"), 5, 4, 5);
+		roots.add(CF_TestClasspath.writeDirectory(this.folder.newFolder("classes"), CF_TestClasspath.syntheticClasses("synth/dir", 3, 5)));
+		return roots;
+	}
+
+	/**
+	 * Returns a class finder for the given roots, with a new recording class loader for them.
+	 * @param roots class path roots
+	 * @return new class finder
+	 * @throws IOException if a root cannot be converted to a URL
+	 */
+	protected CF createFinder(List<File> roots) throws IOException{
+		RecordingClassLoader loader = CF_TestClasspath.classLoader(roots);
+		this.loaders.add(loader);
+		return new CF().setClassPath(CF_TestClasspath.classPath(roots)).setClassLoader(loader);
+	}
+
+	/**
+	 * Returns the names of all classes the recording class loader of a class finder loaded from the synthetic class path.
+	 * @param cf a class finder created by {@link #createFinder(List)}
+	 * @return names of loaded classes
+	 */
+	protected static Set<String> getLoaded(CF cf){
+		return ((RecordingClassLoader)cf.classLoader).getLoaded();
+	}
+
+	@Test
+	public void testSingleScanEqualsLocations() throws IOException{
+		List<File> roots = this.createRoots();
+		CF cf = this.createFinder(roots);
+
+		Set<Class<?>> scanned = cf.getSubclasses(ExecS_Application.class);
+		Set<Class<?>> located = cf.searchLocations(ExecS_Application.class);
+		assertEquals(6, scanned.size());
+		assertEquals(located, scanned);
+	}
+
+	@Test
+	public void testJarFilter() throws IOException{
+		List<File> roots = this.createRoots();
+		CF cf = this.createFinder(roots);
+		cf.setJarFilter(Arrays.asList("synth-1", "synth-2"));
+
+		//2 jars plus the directory, which is not filtered
+		assertEquals(3, cf.getSubclasses(ExecS_Application.class).size());
+	}
+
+	@Test
+	public void testFilter(){
+		CF_Filter filter = CF_Filter.parse("de.vandermeer,!de.vandermeer.execs.cf,de.vandermeer.execs.cf.api,!*Test?");
+		assertTrue(filter.accepts("de.vandermeer.execs.ExecS"));
+		assertTrue(filter.accepts("de/vandermeer/execs/ExecS"));
+		assertFalse(filter.accepts("de.vandermeer.execs.cf.CF"));
+		assertTrue(filter.accepts("de.vandermeer.execs.cf.api.CF"));
+		assertFalse(filter.accepts("de.vandermeer.execs.cf.api.CFTest1"));
+		assertFalse(filter.accepts("org.apache.Foo"));
+		assertTrue(filter.accepts("de/vandermeer/execs/ExecS.class", "de/vandermeer/execs/ExecS".length()));
+
+		assertTrue(filter.mayAccept("de."));
+		assertTrue(filter.mayAccept("de.vandermeer.execs.cf."));
+		assertFalse(filter.mayAccept("de.vandermeer.execs.cf.impl."));
+		assertFalse(filter.mayAccept("org."));
+
+		CF_Filter jars = new CF_Filter(Arrays.asList("!*-sources.jar"));
+		assertTrue(jars.accepts("execs-0.5.0.jar"));
+		assertFalse(jars.accepts("execs-0.5.0-sources.jar"));
+		assertTrue(new CF_Filter().accepts("anything"));
+	}
+
+	@Test
+	public void testPkgFilter() throws IOException{
+		List<File> roots = this.createRoots();
+		CF cf = this.createFinder(roots);
+		cf.setPkgFilter("synth.j1,synth.dir,!synth.dir.p0");
+
+		//the package filter is an include filter
+		Set<String> found = new HashSet<>();
+		for(Class<?> c : cf.getSubclasses(ExecS_Application.class)){
+			found.add(c.getName());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("synth.j1.App", "synth.dir.App")), found);
+		for(CF_RootStats stats : cf.getLastStats()){
+			if(!stats.getRoot().getName().startsWith("synth-1") && stats.getRoot().isFile()){
+				//jars without a matching package are only enumerated
+				assertEquals(0, stats.getClasses());
+			}
+		}
+
+		found.clear();
+		for(Class<?> c : cf.searchLocations(ExecS_Application.class)){
+			found.add(c.getName());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("synth.j1.App", "synth.dir.App")), found);
+	}
+
+	@Test
+	public void testClassHeader() throws IOException{
+		try(InputStream in = Gen_RunScripts.class.getResourceAsStream("Gen_RunScripts.class")){
+			CF_ClassHeader header = CF_ClassHeader.read(CF_Utils.readAll(in, 0));
+			assertEquals(Gen_RunScripts.class.getName(), header.getName());
+			assertEquals(Object.class.getName(), header.getSuperName());
+			assertArrayEquals(new String[]{ExecS_Application.class.getName()}, header.getInterfaces());
+			assertFalse(header.isAbstract());
+		}
+	}
+
+	@Test
+	public void testIndirectSubclassesWithoutLoading() throws IOException{
+		Map<String, byte[]> base = new LinkedHashMap<>();
+		base.put("synth/base/AbstractApp", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_ABSTRACT_CLASS, "synth/base/AbstractApp", "java/lang/Object", CF_TestClasspath.APP_INTERFACE));
+		base.put("synth/base/Plain", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/base/Plain", "java/lang/Object"));
+		Map<String, byte[]> impl = new LinkedHashMap<>();
+		impl.put("synth/impl/Impl", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/impl/Impl", "synth/base/AbstractApp"));
+		impl.put("synth/impl/Gen", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/impl/Gen", "de/vandermeer/execs/Gen_RunScripts"));
+		impl.put("synth/impl/Other", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/impl/Other", "de/vandermeer/execs/cf/CF"));
+
+		File dir = this.folder.newFolder("jars");
+		List<File> roots = Arrays.asList(CF_TestClasspath.writeJar(new File(dir, "impl.jar"), impl), CF_TestClasspath.writeJar(new File(dir, "base.jar"), base));
+		Set<String> expected = new HashSet<>(Arrays.asList("synth.base.AbstractApp", "synth.impl.Impl", "synth.impl.Gen"));
+
+		CF cf = this.createFinder(roots);
+		Set<String> found = new HashSet<>();
+		for(Class<?> c : cf.getSubclasses(ExecS_Application.class)){
+			found.add(c.getName());
+		}
+		assertEquals(expected, found);
+		assertEquals(expected, getLoaded(cf));
+		assertTrue(cf.getLastErrors().isEmpty());
+
+		cf = this.createFinder(roots);
+		assertEquals(3, cf.searchLocations(ExecS_Application.class).size());
+		assertEquals(5, getLoaded(cf).size());
+	}
+
+	@Test
+	public void testParallelScan() throws IOException{
+		List<File> roots = this.createRoots();
+		CF cf = this.createFinder(roots);
+
+		List<Class<?>> sequential = new ArrayList<>(cf.setParallelism(1).getSubclasses(ExecS_Application.class));
+		assertEquals(6, sequential.size());
+		for(int i=0; i<5; i++){
+			assertEquals(sequential, new ArrayList<>(cf.setParallelism(4).getSubclasses(ExecS_Application.class)));
+		}
+
+		//a single directory tree is scanned in parallel by directory, with the same result and metrics as a sequential scan
+		File tree = CF_TestClasspath.writeDirectory(this.folder.newFolder("tree"), CF_TestClasspath.syntheticClasses("synth/tree", 20, 10));
+		cf = new CF().setClassPath(tree.getPath());
+		List<String> names = new ArrayList<>(cf.setParallelism(1).getClassGraph().getClassNames());
+		CF_RootStats stats = cf.getLastStats().get(0);
+		assertEquals(201, names.size());
+		List<String> parallel = new ArrayList<>(cf.setParallelism(4).getClassGraph().getClassNames());
+		assertEquals(names, parallel);
+		assertEquals(stats.getEntries(), cf.getLastStats().get(0).getEntries());
+		assertEquals(stats.getBytes(), cf.getLastStats().get(0).getBytes());
+	}
+
+	@Test
+	public void testIndex() throws IOException{
+		List<File> roots = this.createRoots();
+		File cache = new File(this.folder.getRoot(), "cache");
+		CF cf = this.createFinder(roots).setCacheDirectory(cache);
+		Set<Class<?>> found = cf.getSubclasses(ExecS_Application.class);
+		assertEquals(6, found.size());
+
+		//only the applications are relevant for the index
+		CF_Index index = cf.getIndex(ExecS_Application.class);
+		for(File root : roots){
+			assertEquals(1, index.get(root).size());
+		}
+
+		assertEquals(found, cf.getSubclasses(ExecS_Application.class));
+
+		//change one jar, the index must not be used for it
+		File jar = roots.get(0);
+		Map<String, byte[]> classes = CF_TestClasspath.syntheticClasses("synth/changed", 2, 2);
+		classes.put("synth/changed/App2", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/changed/App2", "synth/changed/App"));
+		CF_TestClasspath.writeJar(jar, classes);
+		jar.setLastModified(jar.lastModified() + 2000);
+		cf = this.createFinder(roots).setCacheDirectory(cache);
+		Set<String> names = new HashSet<>();
+		for(Class<?> c : cf.getSubclasses(ExecS_Application.class)){
+			names.add(c.getName());
+		}
+		assertEquals(7, names.size());
+		assertTrue(names.contains("synth.changed.App2"));
+		assertFalse(names.contains("synth.j0.App"));
+	}
+
+	@Test
+	public void testBrokenIndex() throws IOException{
+		List<File> roots = this.createRoots();
+		File cache = new File(this.folder.getRoot(), "cache");
+		assertEquals(6, this.createFinder(roots).setCacheDirectory(cache).getSubclassNames(ExecS_Application.class).size());
+
+		//an index file cut off after the fingerprint of the last root, without the gzip trailer
+		File file = new File(cache, ExecS_Application.class.getName() + ".idx");
+		String content;
+		try(InputStream in = new GZIPInputStream(new FileInputStream(file))){
+			content = new String(CF_Utils.readAll(in, 0), StandardCharsets.UTF_8);
+		}
+		content = content.substring(0, content.lastIndexOf("\nC\t") + 1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(OutputStream out = new GZIPOutputStream(bytes)){
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+		Files.write(file.toPath(), Arrays.copyOf(bytes.toByteArray(), bytes.size() - 8));
+
+		//no root is taken from the broken index
+		CF cf = this.createFinder(roots).setCacheDirectory(cache);
+		assertEquals(6, cf.getSubclassNames(ExecS_Application.class).size());
+		assertEquals(1, cf.getLastErrorSummary().getCount());
+		for(CF_RootStats s : cf.getLastStats()){
+			assertFalse(s.isIndexed());
+		}
+	}
+
+	@Test
+	public void testJarReader() throws IOException{
+		File file = this.folder.newFile("reader.jar");
+		byte[] stored = CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/stored/Stored", "java/lang/Object");
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(file))){
+			for(Map.Entry<String, byte[]> entry : CF_TestClasspath.syntheticClasses("synth/reader", 3, 4).entrySet()){
+				out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+			JarEntry entry = new JarEntry("synth/stored/Stored.class");
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			entry.setMethod(JarEntry.STORED);
+			entry.setSize(stored.length);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(stored);
+			out.closeEntry();
+		}
+
+		Map<String, byte[]> expected = new LinkedHashMap<>();
+		try(JarFile jar = new JarFile(file)){
+			for(JarEntry entry : Collections.list(jar.entries())){
+				try(InputStream in = jar.getInputStream(entry)){
+					expected.put(entry.getName(), CF_Utils.readAll(in, (int)entry.getSize()));
+				}
+			}
+		}
+
+		Map<String, byte[]> actual = new LinkedHashMap<>();
+		try(CF_JarReader reader = new CF_JarReader(file)){
+			assertEquals(expected.size(), reader.getEntryCount());
+			while(reader.next()){
+				actual.put(reader.name(), reader.read());
+				if(reader.nameEndsWith("Stored.class".getBytes())){
+					assertEquals(CF_JarReader.STORED, reader.method());
+					ByteBuffer slice = reader.slice();
+					byte[] bytes = new byte[slice.remaining()];
+					slice.get(bytes);
+					assertArrayEquals(stored, bytes);
+				}
+			}
+		}
+		assertEquals(expected.keySet(), actual.keySet());
+		for(String name : expected.keySet()){
+			assertArrayEquals(expected.get(name), actual.get(name));
+		}
+
+		//not a zip file, the reader fails and the scan falls back to JarFile
+		File broken = this.folder.newFile("broken.jar");
+		Files.write(broken.toPath(), new byte[100]);
+		try{
+			new CF_JarReader(broken).close();
+			fail("expected an IOException for a file that is not a zip file");
+		}
+		catch(IOException expectedException){}
+
+		List<File> roots = this.createRoots();
+		CF cf = this.createFinder(roots).setClassPath(CF_TestClasspath.classPath(roots) + File.pathSeparator + broken.getPath());
+		List<Class<?>> mapped = new ArrayList<>(cf.getSubclasses(ExecS_Application.class));
+		assertEquals(6, mapped.size());
+		assertEquals(mapped, new ArrayList<>(cf.setMappedJars(false).getSubclasses(ExecS_Application.class)));
+	}
+
+	@Test
+	public void testStats() throws IOException{
+		List<File> roots = this.createRoots();
+		File cache = new File(this.folder.getRoot(), "cache");
+		CF cf = this.createFinder(roots).setCacheDirectory(cache);
+		cf.getSubclasses(ExecS_Application.class);
+
+		List<CF_RootStats> stats = cf.getLastStats();
+		assertEquals(roots.size(), stats.size());
+		for(int i=0; i<roots.size(); i++){
+			CF_RootStats s = stats.get(i);
+			assertEquals(roots.get(i), s.getRoot());
+			assertFalse(s.isIndexed());
+			assertEquals(1, s.getMatches());
+			assertEquals(1, s.getLoaded());
+			assertTrue(s.getEntries()>=s.getClasses());
+			assertTrue(s.getBytes()>0);
+			assertEquals(0, s.getErrorCount());
+		}
+		assertEquals(21, stats.get(0).getClasses());
+
+		StringWriter writer = new StringWriter();
+		CF_RootStats.write(stats, writer);
+		assertEquals(roots.size() + 1, writer.toString().split("\n").length);
+		assertTrue(CF_RootStats.report(stats).contains(roots.get(0).getPath()));
+
+		//second search from the index
+		cf.getSubclasses(ExecS_Application.class);
+		for(CF_RootStats s : cf.getLastStats()){
+			assertTrue(s.isIndexed());
+			assertEquals(0, s.getEntries());
+		}
+
+		//metrics are returned as a snapshot of the search
+		assertEquals(roots.size(), stats.size());
+		assertFalse(stats.get(0).isIndexed());
+		try{
+			stats.clear();
+			fail("expected an UnsupportedOperationException for the metrics of a search");
+		}
+		catch(UnsupportedOperationException expected){}
+	}
+
+	@Test
+	public void testStreaming() throws IOException{
+		List<File> roots = this.createRoots();
+		//a class extending an application of the next root, it can only be reported after that root
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("synth/early/Sub", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/early/Sub", "synth/j0/App"));
+		roots.add(0, CF_TestClasspath.writeJar(this.folder.newFile("early.jar"), classes));
+
+		CF cf = this.createFinder(roots).setParallelism(1);
+		List<Class<?>> found = new ArrayList<>();
+		Map<String, Integer> mergedRoots = new LinkedHashMap<>();
+		cf.findSubclasses(ExecS_Application.class, c -> {
+			found.add(c);
+			mergedRoots.put(c.getName(), cf.getLastStats().size());
+		});
+
+		assertEquals(7, found.size());
+		assertEquals(new ArrayList<>(cf.getSubclasses(ExecS_Application.class)), found);
+		assertEquals(Integer.valueOf(2), mergedRoots.get("synth.early.Sub"));
+		assertEquals(Integer.valueOf(2), mergedRoots.get("synth.j0.App"));
+		assertEquals(Integer.valueOf(3), mergedRoots.get("synth.j1.App"));
+		assertEquals(Integer.valueOf(7), mergedRoots.get("synth.dir.App"));
+	}
+
+	@Test
+	public void testJarCache() throws IOException{
+		List<File> roots = this.createRoots();
+		try(CF_JarCache cache = new CF_JarCache(2)){
+			CF_JarCache.Handle first = cache.acquire(roots.get(0));
+			try(CF_JarCache.Handle again = cache.acquire(roots.get(0))){
+				assertTrue(first.getJarFile()==again.getJarFile());
+			}
+			assertEquals(1, cache.getOpenedCount());
+
+			//released jars are closed least recently used first, jars in use stay open
+			for(int i=1; i<4; i++){
+				cache.acquire(roots.get(i)).close();
+			}
+			assertEquals(2, cache.getOpenCount());
+			first.getJarFile().entries();
+
+			//jars in use are closed when released after the cache is closed
+			cache.close();
+			assertEquals(0, cache.getOpenCount());
+			first.getJarFile().entries();
+			first.close();
+			try{
+				first.getJarFile().entries();
+				fail("expected an IllegalStateException for a released jar file");
+			}
+			catch(IllegalStateException expected){}
+		}
+
+		CF cf = this.createFinder(roots).setMappedJars(false).setOpenFileBudget(2);
+		assertEquals(6, cf.getSubclasses(ExecS_Application.class).size());
+		assertEquals(0, cf.getJarCache().getOpenCount());
+		assertEquals(6, cf.searchLocations(ExecS_Application.class).size());
+		assertEquals(0, cf.getJarCache().getOpenCount());
+	}
+
+	@Test
+	public void testJarCacheDoubleClose() throws IOException{
+		List<File> roots = this.createRoots();
+		try(CF_JarCache cache = new CF_JarCache(1)){
+			CF_JarCache.Handle other = cache.acquire(roots.get(0));
+			CF_JarCache.Handle twice = cache.acquire(roots.get(0));
+			twice.close();
+			twice.close();
+
+			//the jar file of the other holder must not be evicted by acquiring another jar
+			cache.acquire(roots.get(1)).close();
+			other.getJarFile().entries();
+			try(CF_JarCache.Handle again = cache.acquire(roots.get(0))){
+				assertTrue(other.getJarFile()==again.getJarFile());
+			}
+			assertEquals(2, cache.getOpenedCount());
+			other.close();
+			other.close();
+		}
+	}
+
+	@Test
+	public void testClassGraph() throws IOException{
+		List<File> roots = this.createRoots();
+		String app = CF_TestClasspath.APP_INTERFACE.replace('/', '.');
+
+		//abstract base class and interface in one jar, implementations in another
+		Map<String, byte[]> base = new LinkedHashMap<>();
+		base.put("synth/base/Base", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_ABSTRACT_CLASS, "synth/base/Base", "java/lang/Object", CF_TestClasspath.APP_INTERFACE));
+		base.put("synth/base/Plugin", CF_TestClasspath.classBytes(0x0001 | CF_ClassHeader.ACC_INTERFACE | CF_ClassHeader.ACC_ABSTRACT, "synth/base/Plugin", "java/lang/Object"));
+		Map<String, byte[]> impl = new LinkedHashMap<>();
+		impl.put("synth/impl/Impl", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/impl/Impl", "synth/base/Base", "synth/base/Plugin"));
+		impl.put("synth/impl/Other", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/impl/Other", "java/lang/Object", "synth/base/Plugin"));
+		roots.add(0, CF_TestClasspath.writeJar(this.folder.newFile("impl.jar"), impl));
+		roots.add(CF_TestClasspath.writeJar(this.folder.newFile("base.jar"), base));
+
+		CF cf = this.createFinder(roots);
+		CF_ClassGraph graph = cf.getClassGraph();
+		assertEquals(5*21 + 16 + 4, graph.size());
+
+		assertEquals(new HashSet<>(Arrays.asList("synth.impl.Impl")), graph.getSubtypes("synth.base.Base"));
+		assertEquals(Arrays.asList("synth.impl.Impl", "synth.impl.Other"), new ArrayList<>(graph.getImplementors("synth.base.Plugin")));
+		assertTrue(graph.getSubtypes(app).contains("synth.base.Base"));
+		assertFalse(graph.getImplementors(app).contains("synth.base.Base"));
+		assertTrue(graph.getImplementors(app).contains("synth.impl.Impl"));
+		assertEquals(7, graph.getImplementors(app).size());
+		assertTrue(graph.isSubtype("synth.impl.Impl", app));
+		assertTrue(graph.getSupertypes("synth.impl.Impl").containsAll(Arrays.asList("synth.base.Base", "synth.base.Plugin", "java.lang.Object", app)));
+		assertEquals(0, getLoaded(cf).size());
+
+		//the search finds the implementation in a jar before the one with its base class, plus the abstract base class
+		Set<Class<?>> found = cf.getSubclasses(ExecS_Application.class);
+		assertEquals(8, found.size());
+		assertEquals(7, cf.getLastClassGraph().getImplementors(app).size());
+	}
+
+	@Test
+	public void testQuery() throws IOException, URISyntaxException{
+		File classes = new File(Registered_TestApp.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		CF_ClassGraph graph = new CF().setClassPath(classes.getPath()).getClassGraph();
+
+		String registration = ExecS_Registration.class.getName();
+		assertArrayEquals(new String[]{registration}, graph.get(Registered_TestApp.class.getName()).getAnnotations());
+		assertEquals(Arrays.asList(Registered_TestApp.class.getName()), graph.getAnnotated(registration));
+
+		assertEquals(
+				new HashSet<>(Arrays.asList(Registered_TestApp.class.getName())),
+				graph.query().subtypeOf(ExecS_Application.class).annotatedWith(ExecS_Registration.class).concrete().find()
+		);
+		assertEquals(
+				new HashSet<>(Arrays.asList(Registered_TestApp.class.getName(), Service_TestApp.class.getName())),
+				graph.query().inPackage("de.vandermeer").simpleName(".*_TestApp").find()
+		);
+		assertEquals(new HashSet<>(Arrays.asList(Test_CF.class.getName())), graph.query().inPackage("de.vandermeer.execs.cf").simpleName("Test_.*").find());
+		assertTrue(graph.query().simpleName("RecordingClassLoader").find().contains(RecordingClassLoader.class.getName()));
+		assertTrue(graph.query().inPackage("de.vandermeer.exec").find().isEmpty());
+		assertTrue(graph.query().inPackage("de.vandermeer.execs.cf").annotatedWith(ExecS_Registration.class).find().isEmpty());
+	}
+
+	@Test
+	public void testTimeBudget() throws IOException{
+		List<File> roots = this.createRoots();
+		//a huge jar first, its application is the last entry
+		roots.add(0, CF_TestClasspath.writeJar(this.folder.newFile("huge.jar"), CF_TestClasspath.syntheticClasses("synth/huge", 100, 200)));
+		File cache = new File(this.folder.getRoot(), "cache");
+		CF cf = this.createFinder(roots).setParallelism(1).setCacheDirectory(cache);
+
+		//the scan budget is used up, the search is marked incomplete
+		cf.setScanBudget(1).getSubclassNames(ExecS_Application.class);
+		List<CF_RootStats> stats = cf.getLastStats();
+		assertEquals(roots.size(), stats.size());
+		List<CF_RootStats> incomplete = cf.getLastIncompleteRoots();
+		assertFalse(incomplete.isEmpty());
+		for(CF_RootStats s : incomplete){
+			assertTrue(s.isSkipped()?s.getEntries()==0:"partial".equals(s.getSource()));
+		}
+		assertTrue(CF_RootStats.report(stats).contains(incomplete.size() + " roots incomplete"));
+
+		//the root budget does not skip roots
+		cf.setScanBudget(0).setRootBudget(1).getSubclassNames(ExecS_Application.class);
+		assertFalse(cf.getLastIncompleteRoots().isEmpty());
+		for(CF_RootStats s : cf.getLastStats()){
+			assertFalse(s.isSkipped());
+		}
+
+		//incomplete and skipped roots are not in the index
+		Set<String> names = cf.setRootBudget(0).getSubclassNames(ExecS_Application.class);
+		assertEquals(7, names.size());
+		assertFalse(cf.getLastStats().get(0).isIndexed());
+		assertTrue(cf.getLastIncompleteRoots().isEmpty());
+
+		//tasks of abandoned roots stop at their next entry
+		CF_Scanner scanner = new CF_Scanner(cf, ExecS_Application.class);
+		scanner.cancelled = true;
+		CF_RootStats abandoned = new CF_RootStats(roots.get(0));
+		List<CF_ClassHeader> headers = new ArrayList<>();
+		scanner.scanJar(roots.get(0), headers, abandoned);
+		assertTrue(headers.isEmpty());
+		assertTrue(abandoned.isIncomplete());
+		assertEquals(0, abandoned.getEntries());
+	}
+
+	@Test
+	public void testErrors() throws IOException{
+		//50 classes extending a class that is not in the class path
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		for(int i=0; i<50; i++){
+			classes.put("synth/err/C" + i, CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/err/C" + i, "synth/missing/Base"));
+		}
+		List<File> roots = new ArrayList<>();
+		roots.add(CF_TestClasspath.writeJar(this.folder.newFile("err.jar"), classes));
+
+		CF cf = this.createFinder(roots);
+		cf.searchLocations(ExecS_Application.class);
+
+		CF_Errors errors = cf.getLastErrorSummary();
+		assertEquals(50, errors.getCount());
+		assertEquals(1, errors.getGroups().size());
+		CF_Errors.Group group = errors.getGroups().get(0);
+		assertEquals(NoClassDefFoundError.class.getName(), group.getType());
+		assertEquals("synth.missing.Base", group.getMissingClass());
+		assertEquals(roots.get(0).getCanonicalFile(), group.getRoot().getCanonicalFile());
+		assertEquals(50, group.getCount());
+		assertEquals(CF_Errors.DEFAULT_SAMPLES, cf.getLastErrors().size());
+		assertTrue(errors.report().contains("synth.missing.Base"));
+
+		//the scanner tests the missing class once
+		cf.setErrorSamples(0).getSubclassNames(ExecS_Application.class);
+		assertEquals(1, cf.getLastErrorSummary().getCount());
+		assertTrue(cf.getLastErrors().isEmpty());
+
+		errors = new CF_Errors().setSamples(1);
+		errors.add(null, new ClassNotFoundException("a.B"));
+		errors.add(null, new ClassNotFoundException("a.B"));
+		errors.add(null, new ClassNotFoundException("a.C"));
+		errors.add(null, new IOException("broken"));
+		assertEquals(4, errors.getCount());
+		assertEquals(3, errors.getGroups().size());
+		assertEquals(3, errors.getSamples().size());
+		assertEquals(null, errors.getGroups().get(2).getMissingClass());
+	}
+
+	@Test
+	public void testNestedJars() throws IOException{
+		//nested jars as separate files for the class loader, the class path has only the fat jar
+		File stored = CF_TestClasspath.writeJar(this.folder.newFile("stored.jar"), CF_TestClasspath.syntheticClasses("synth/stored", 2, 3));
+		File deflated = CF_TestClasspath.writeJar(this.folder.newFile("deflated.jar"), CF_TestClasspath.syntheticClasses("synth/deflated", 2, 3));
+		File ignored = CF_TestClasspath.writeJar(this.folder.newFile("ignored.jar"), CF_TestClasspath.syntheticClasses("synth/ignored", 2, 3));
+		File fat = this.folder.newFile("fat.jar");
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(fat))){
+			byte[] outer = CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/outer/App", "java/lang/Object", CF_TestClasspath.APP_INTERFACE);
+			out.putNextEntry(new JarEntry("synth/outer/App.class"));
+			out.write(outer);
+			out.closeEntry();
+
+			byte[] bytes = Files.readAllBytes(stored.toPath());
+			JarEntry entry = new JarEntry("BOOT-INF/lib/stored.jar");
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			entry.setMethod(JarEntry.STORED);
+			entry.setSize(bytes.length);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(bytes);
+			out.closeEntry();
+
+			out.putNextEntry(new JarEntry("lib/deflated.jar"));
+			out.write(Files.readAllBytes(deflated.toPath()));
+			out.closeEntry();
+
+			out.putNextEntry(new JarEntry("docs/ignored.jar"));
+			out.write(Files.readAllBytes(ignored.toPath()));
+			out.closeEntry();
+		}
+
+		List<File> roots = Arrays.asList(fat, stored, deflated, ignored);
+		Set<String> expected = new HashSet<>(Arrays.asList("synth.outer.App", "synth.stored.App", "synth.deflated.App"));
+		for(boolean mapped : new boolean[]{true, false}){
+			CF cf = this.createFinder(roots).setClassPath(fat.getPath()).setMappedJars(mapped);
+			Set<String> found = new HashSet<>();
+			for(Class<?> cls : cf.getSubclasses(ExecS_Application.class)){
+				found.add(cls.getName());
+			}
+			assertEquals(expected, found);
+			assertEquals(0, cf.getLastErrors().size());
+			assertEquals(15, cf.getLastStats().get(0).getClasses());
+		}
+
+		//nested jars must pass the jar filter, and scanning them can be deactivated
+		CF cf = this.createFinder(roots).setClassPath(fat.getPath()).setJarFilter(Arrays.asList("fat", "stored"));
+		assertEquals(2, cf.getSubclasses(ExecS_Application.class).size());
+		cf.setNestedJarDirectories();
+		assertEquals(1, cf.getSubclasses(ExecS_Application.class).size());
+	}
+
+	@Test
+	public void testEffectiveClassPath() throws IOException{
+		List<File> roots = this.createRoots();
+		File copy = new File(this.folder.getRoot(), "copy.jar");
+		Files.copy(roots.get(1).toPath(), copy.toPath());
+		File link = new File(this.folder.getRoot(), "link.jar");
+		Files.createSymbolicLink(link.toPath(), roots.get(0).toPath());
+
+		//pathing jar referencing the roots relative to its own directory, with a cycle back to itself
+		File dir = this.folder.newFolder("pathing");
+		File pathing = new File(dir, "pathing.jar");
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		StringBuilder classPath = new StringBuilder("pathing.jar ../link.jar");
+		for(File root : roots){
+			classPath.append(" ").append(dir.toPath().relativize(root.toPath()).toString().replace(File.separatorChar, '/')).append(root.isDirectory()?"/":"");
+		}
+		classPath.append(" ../copy.jar ../missing.jar");
+		manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath.toString());
+		new JarOutputStream(new FileOutputStream(pathing), manifest).close();
+
+		CF cf = this.createFinder(roots).setClassPath(pathing.getPath() + File.pathSeparator + link.getPath());
+		List<File> expected = new ArrayList<>();
+		expected.add(pathing.getCanonicalFile());
+		for(File root : roots){
+			expected.add(root.getCanonicalFile());
+		}
+		expected.add(copy.getCanonicalFile());
+		assertEquals(expected, cf.getEffectiveClassPath());
+		assertEquals(6, cf.getSubclasses(ExecS_Application.class).size());
+		assertEquals(roots.size() + 2, cf.getLastStats().size());
+
+		//copies by content hash, and no manifests
+		expected.remove(copy.getCanonicalFile());
+		assertEquals(expected, cf.setRootHash(true).getEffectiveClassPath());
+		assertEquals(Arrays.asList(pathing.getCanonicalFile(), roots.get(0).getCanonicalFile()), cf.setManifestClassPath(false).getEffectiveClassPath());
+	}
+
+	@Test
+	public void testIsolatedNames() throws IOException{
+		//an application extending an excluded, abstract base class: the base class has to be loaded to resolve it
+		List<File> roots = this.createRoots();
+		Map<String, byte[]> ext = new LinkedHashMap<>();
+		ext.put("org/apache/synth/Base", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_ABSTRACT_CLASS, "org/apache/synth/Base", "java/lang/Object", CF_TestClasspath.APP_INTERFACE));
+		ext.put("synth/ext/Ext", CF_TestClasspath.classBytes(CF_TestClasspath.ACC_CLASS, "synth/ext/Ext", "org/apache/synth/Base"));
+		roots.add(CF_TestClasspath.writeJar(this.folder.newFile("ext.jar"), ext));
+
+		CF cf = this.createFinder(roots);
+		Set<String> names = cf.getSubclassNames(ExecS_Application.class);
+		assertEquals(7, names.size());
+		assertTrue(names.contains("synth.ext.Ext"));
+		assertEquals(0, cf.getLastErrors().size());
+		assertTrue(getLoaded(cf).isEmpty());
+		assertFalse(cf.getLastClassGraph().get("synth.ext.Ext").isAbstract());
+
+		//the same search loading classes
+		assertEquals(7, cf.getSubclasses(ExecS_Application.class).size());
+		assertTrue(getLoaded(cf).contains("org.apache.synth.Base"));
+	}
+
+	@Test
+	public void testHeapBudget() throws IOException{
+		//bookkeeping kept by the class finder after a scan of a synthetic class path with 500 jars, see Bench_CF for the retained heap
+		List<File> roots = CF_TestClasspath.createJars(this.folder.newFolder("heap"), 500, 2, 10);
+		CF cf = new CF().setClassPath(CF_TestClasspath.classPath(roots)).setParallelism(1);
+		assertEquals(500, cf.getSubclassNames(ExecS_Application.class).size());
+		CF_ClassGraph graph = cf.getLastClassGraph();
+		assertEquals(10500, graph.size());
+		assertEquals(500, cf.processed.size());
+
+		//names are shared between all headers: 10500 classes, java.lang.Object and the application interface
+		CF_Scanner scanner = new CF_Scanner(new CF().setClassPath(CF_TestClasspath.classPath(roots)), ExecS_Application.class);
+		assertEquals(10500, scanner.scanGraph(roots).size());
+		assertEquals(10502, scanner.names.size());
+		assertSame(graph.get("synth.j0.p0.C0").getSuperName(), graph.get("synth.j499.p1.C9").getSuperName());
+
+		//processed names are kept as ids only
+		CF_LongSet set = new CF_LongSet();
+		for(int i=0; i<10000; i++){
+			assertTrue(set.add("synth/j" + i + ".class"));
+		}
+		assertFalse(set.add("synth/j42.class"));
+		assertTrue(set.contains("synth/j9999.class"));
+		assertFalse(set.contains("synth/j10000.class"));
+		assertEquals(10000, set.size());
+	}
+
+}
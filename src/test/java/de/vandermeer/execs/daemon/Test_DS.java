@@ -0,0 +1,444 @@
+/* Copyright 2014 Sven van der Meer <vdmeer.sven@mykolab.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.vandermeer.execs.daemon;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.vandermeer.execs.ExecS;
+import de.vandermeer.execs.ExecS_Application;
+import de.vandermeer.execs.Registered_TestApp;
+import de.vandermeer.execs.options.ApplicationOption;
+
+/**
+ * Tests for the ExecS daemon.
+ *
+ * @author     Sven van der Meer &lt;vdmeer.sven@mykolab.com&gt;
+ * @version    v0.4.0 build 170413 (13-Apr-17) for Java 1.8
+ * @since      v0.5.0
+ */
+public class Test_DS {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void restoreSystem(){
+		//daemons install stream routing and the exit guard JVM-wide, other tests must not run under them
+		DS_Context.uninstall();
+	}
+
+	@Test
+	public void testRequest() throws IOException{
+		DS_Request request = DS_Request.decode(new DS_Request(new String[]{"app", "-x", "ü"}, "/tmp", Collections.singletonMap("A", "b")).encode());
+		assertArrayEquals(new String[]{"app", "-x", "ü"}, request.getArgs());
+		assertEquals("/tmp", request.getCwd());
+		assertEquals("b", request.getEnv().get("A"));
+		assertNull(DS_Request.current());
+
+		//relative paths resolve against the working directory of the client in a request
+		File dir = this.folder.getRoot();
+		assertEquals(new File(System.getProperty("user.dir"), "x"), DS_Request.resolve("x"));
+		DS_Request.CURRENT.set(new DS_Request(new String[0], dir.getPath(), null));
+		try{
+			assertEquals(dir.getPath(), DS_Request.getWorkingDirectory());
+			assertEquals(new File(dir, "x"), DS_Request.resolve("x"));
+			assertEquals(new File(dir, "y").getAbsoluteFile(), DS_Request.resolve(new File(dir, "y").getAbsolutePath()));
+		}
+		finally{
+			DS_Request.CURRENT.remove();
+		}
+	}
+
+	@Test
+	public void testLargeWrite() throws IOException{
+		//a single write larger than a frame is split into frames the client accepts
+		byte[] data = new byte[DS_Protocol.MAX_FRAME + 1];
+		data[data.length - 1] = 42;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new DS_Protocol.FrameOutputStream(new DataOutputStream(bytes), DS_Protocol.STDOUT).write(data);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(DS_Protocol.MAX_FRAME, DS_Protocol.read(in, DS_Protocol.STDOUT).getData().length);
+		assertArrayEquals(new byte[]{42}, DS_Protocol.read(in, DS_Protocol.STDOUT).getData());
+		assertNull(DS_Protocol.read(in));
+	}
+
+	@Test
+	public void testServer() throws Exception{
+		this.runServer(new File(this.folder.getRoot(), "execs.sock"));
+	}
+
+	@Test
+	public void testEndpointFile() throws IOException{
+		for(String tcp : new String[]{"false", "true"}){
+			System.setProperty(DS_Endpoint.PROPERTY_TCP, tcp);
+			try{
+				//a newer endpoint on the file of an endpoint that stopped accepting but is not closed yet
+				File file = new File(this.folder.getRoot(), "endpoint-" + tcp + ".sock");
+				DS_Endpoint old = DS_Endpoint.listen(file);
+				assertTrue(file.delete());
+				DS_Endpoint current = DS_Endpoint.listen(file);
+				old.close();
+				assertTrue(file.exists());
+				DS_Endpoint.connect(file).close();
+				current.close();
+				assertFalse(file.exists());
+			}
+			finally{
+				System.clearProperty(DS_Endpoint.PROPERTY_TCP);
+			}
+		}
+	}
+
+	@Test
+	public void testServerTcp() throws Exception{
+		System.setProperty(DS_Endpoint.PROPERTY_TCP, "true");
+		try{
+			this.runServer(new File(this.folder.getRoot(), "execs-tcp.sock"));
+		}
+		finally{
+			System.clearProperty(DS_Endpoint.PROPERTY_TCP);
+		}
+	}
+
+	@Test
+	public void testDispatcher() throws Exception{
+		ExecutorService executor = DS_Dispatcher.create(DS_Dispatcher.PLATFORM, 2, "test");
+		try{
+			Thread thread = executor.submit(() -> Thread.currentThread()).get(5, TimeUnit.SECONDS);
+			assertEquals("test-1", thread.getName());
+			assertTrue(thread.isDaemon());
+		}
+		finally{
+			executor.shutdown();
+		}
+		assertEquals(DS_Dispatcher.isVirtual(), DS_Dispatcher.VIRTUAL.equals(DS_Dispatcher.getDefaultMode()));
+		if(DS_Dispatcher.isVirtual()){
+			executor = DS_Dispatcher.create(DS_Dispatcher.VIRTUAL, 2, "test");
+			try{
+				Thread thread = executor.submit(() -> Thread.currentThread()).get(5, TimeUnit.SECONDS);
+				assertTrue(thread.toString(), thread.toString().startsWith("VirtualThread"));
+				assertEquals("test-1", thread.getName());
+			}
+			finally{
+				executor.shutdown();
+			}
+		}
+		assertFalse(DS_Dispatcher.isMode("fibers"));
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception{
+		for(String mode : new String[]{DS_Dispatcher.PLATFORM, DS_Dispatcher.VIRTUAL}){
+			File file = new File(this.folder.getRoot(), "execs-" + mode + ".sock");
+			DS_Server server = new DS_Server().setExecutor(new ExecS("test-execs")).setDispatcher(mode).setThreads(2).listen(file);
+			Thread thread = new Thread(server::serve);
+			thread.start();
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try{
+				//concurrent requests get their own input and output, more requests than platform threads wait
+				List<byte[]> inputs = new ArrayList<>();
+				List<ByteArrayOutputStream> outputs = new ArrayList<>();
+				List<Future<Integer>> results = new ArrayList<>();
+				for(int i=0; i<4; i++){
+					StringBuilder input = new StringBuilder();
+					for(int k=0; k<2000; k++){
+						input.append("request ").append(i).append(" line ").append(k).append('\n');
+					}
+					byte[] in = input.toString().getBytes(StandardCharsets.UTF_8);
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					inputs.add(in);
+					outputs.add(out);
+					results.add(executor.submit(() -> DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{Echo.class.getName()}), new ByteArrayInputStream(in), out, new ByteArrayOutputStream())));
+				}
+				for(int i=0; i<4; i++){
+					assertEquals(0, results.get(i).get(60, TimeUnit.SECONDS).intValue());
+					assertArrayEquals(inputs.get(i), outputs.get(i).toByteArray());
+				}
+			}
+			finally{
+				executor.shutdown();
+				server.stop();
+				thread.join(5000);
+			}
+			assertFalse(thread.isAlive());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({"deprecation", "removal"})
+	public void testExit() throws Exception{
+		Assume.assumeTrue("System.exit cannot be intercepted on this JVM", DS_Context.install());
+		File file = new File(this.folder.getRoot(), "execs-exit.sock");
+		DS_Server server = new DS_Server().setExecutor(new ExecS("test-execs")).listen(file);
+		Thread thread = new Thread(server::serve);
+		thread.start();
+		try{
+			//exit ends the request, not the daemon
+			assertEquals(7, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{Exit.class.getName()}), new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+			assertEquals(0, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{"-v"}), new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+		}
+		finally{
+			server.stop();
+			thread.join(5000);
+		}
+
+		DS_Context.uninstall();
+		assertNull(System.getSecurityManager());
+		assertFalse(System.out instanceof DS_Context.RoutingPrintStream);
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception{
+		File file = new File(this.folder.getRoot(), "execs-idle.sock");
+		DS_Server server = new DS_Server().setExecutor(new ExecS("test-execs")).setIdleTimeout(200).setWatchInterval(50).listen(file);
+		Thread thread = new Thread(server::serve);
+		thread.start();
+		assertEquals(0, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{"-v"}), new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testClassPathWatch() throws Exception{
+		File dir = this.folder.newFolder("classes");
+		File pkg = new File(dir, "a/b");
+		pkg.mkdirs();
+		File cls = new File(pkg, "C.class");
+		Files.write(cls.toPath(), new byte[]{1});
+		File jar = this.folder.newFile("lib.jar");
+
+		//a class file changed in place in a package directory
+		try(DS_ClassPathWatch watch = new DS_ClassPathWatch(Arrays.asList(dir, jar))){
+			assertTrue(watch.watched.contains(dir));
+			assertFalse(watch.hasChanged());
+			Files.write(cls.toPath(), new byte[]{2});
+			long deadline = System.currentTimeMillis() + 10000;
+			while(!watch.hasChanged()){
+				assertTrue(System.currentTimeMillis()<deadline);
+				Thread.sleep(20);
+			}
+		}
+
+		//a changed jar file
+		try(DS_ClassPathWatch watch = new DS_ClassPathWatch(Arrays.asList(dir, jar))){
+			assertFalse(watch.hasChanged());
+			Files.write(jar.toPath(), new byte[]{1});
+			assertTrue(watch.hasChanged());
+		}
+	}
+
+	@Test
+	public void testSpawn() throws Exception{
+		File file = new File(this.folder.getRoot(), "spawn/execs.sock");
+		System.setProperty(DS_Client.PROPERTY_CLASSPATH, System.getProperty("java.class.path"));
+		System.setProperty(DS_Client.PROPERTY_IDLE, "1");
+		List<String> command;
+		try{
+			command = DS_Client.getSpawnCommand(file);
+		}
+		finally{
+			System.clearProperty(DS_Client.PROPERTY_CLASSPATH);
+			System.clearProperty(DS_Client.PROPERTY_IDLE);
+		}
+		assertNull(DS_Client.getSpawnCommand(file));
+		assertEquals("1", command.get(command.size() - 1));
+
+		//concurrent clients start one daemon
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		List<Future<Integer>> results = new ArrayList<>();
+		for(int i=0; i<3; i++){
+			results.add(executor.submit(() -> {
+				try(DS_Endpoint.Connection connection = DS_Client.connect(file, command)){
+					return DS_Client.execute(connection, DS_Request.forCurrentProcess(new String[]{"-v"}), null, new ByteArrayOutputStream(), new ByteArrayOutputStream());
+				}
+			}));
+		}
+		for(Future<Integer> result : results){
+			assertEquals(0, result.get(60, TimeUnit.SECONDS).intValue());
+		}
+		executor.shutdown();
+
+		//the daemon stops when idle
+		for(int i=0; i<100 && file.exists(); i++){
+			Thread.sleep(100);
+		}
+		assertFalse(file.exists());
+		String log = new String(Files.readAllBytes(new File(file.getPath() + ".log").toPath()), StandardCharsets.UTF_8);
+		assertEquals(log, 1, log.split("listening on", -1).length - 1);
+	}
+
+	/**
+	 * Starts a daemon on a file, executes requests and stops the daemon.
+	 * @param file the endpoint file
+	 * @throws Exception if anything fails
+	 */
+	protected void runServer(File file) throws Exception{
+		DS_Server server = new DS_Server().setExecutor(new ExecS("test-execs")).listen(file);
+		Thread thread = new Thread(server::serve);
+		thread.start();
+		Socket silent = null;
+		try{
+			assertTrue(file.exists());
+			try{
+				new DS_Server().listen(file);
+				fail("second daemon on the same file");
+			}
+			catch(IOException expected){}
+
+			//a client not sending its hello does not block other clients
+			if(!DS_Endpoint.isUnixSocket()){
+				String[] endpoint = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+				silent = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(endpoint[1]));
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			assertEquals(0, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{"-v"}), out, err));
+			assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).startsWith("test-execs - " + ExecS.APP_VERSION));
+			assertEquals(0, err.size());
+
+			out.reset();
+			assertEquals(0, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{Registered_TestApp.class.getName()}), out, err));
+
+			assertEquals(-1, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{"no.such.App"}), out, err));
+			assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("no.such.App"));
+
+			out.reset();
+			byte[] in = "line 1\nline 2\n".getBytes(StandardCharsets.UTF_8);
+			assertEquals(0, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{Echo.class.getName()}), new ByteArrayInputStream(in), out, err));
+			assertArrayEquals(in, out.toByteArray());
+
+			err.reset();
+			assertEquals(-1, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{"--srv-mode"}), out, err));
+			assertTrue(err.size()>0);
+
+			err.reset();
+			assertEquals(-1, DS_Client.execute(file, DS_Request.forCurrentProcess(new String[]{Fail.class.getName()}), out, err));
+			assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains(StackOverflowError.class.getName()));
+		}
+		finally{
+			if(silent!=null){
+				silent.close();
+			}
+			server.stop();
+			thread.join(5000);
+		}
+		assertFalse(thread.isAlive());
+		assertFalse(file.exists());
+	}
+
+	/**
+	 * An application throwing an error.
+	 */
+	public static class Fail extends Echo {
+
+		@Override
+		public int executeApplication(String[] args){
+			throw new StackOverflowError();
+		}
+
+		@Override
+		public String getAppName(){
+			return "fail";
+		}
+	}
+
+	/**
+	 * An application calling {@link System#exit(int)} with status 7.
+	 */
+	public static class Exit extends Echo {
+
+		@Override
+		public int executeApplication(String[] args){
+			System.exit(7);
+			return 0;
+		}
+
+		@Override
+		public String getAppName(){
+			return "exit";
+		}
+	}
+
+	/**
+	 * An application copying standard in to standard out.
+	 */
+	public static class Echo implements ExecS_Application {
+
+		@Override
+		public int executeApplication(String[] args){
+			try{
+				byte[] buffer = new byte[4];
+				int count;
+				while((count = System.in.read(buffer))!=-1){
+					System.out.write(buffer, 0, count);
+				}
+				System.out.flush();
+			}
+			catch(IOException ex){
+				return -1;
+			}
+			return 0;
+		}
+
+		@Override
+		public String getAppName(){
+			return "echo";
+		}
+
+		@Override
+		public String getAppDescription(){
+			return "copies standard in to standard out";
+		}
+
+		@Override
+		public String getAppVersion(){
+			return "v0.0.0";
+		}
+
+		@Override
+		public ApplicationOption<?>[] getAppOptions(){
+			return new ApplicationOption<?>[]{};
+		}
+	}
+}